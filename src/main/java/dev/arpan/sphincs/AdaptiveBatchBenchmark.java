@@ -0,0 +1,127 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * p99 latency and bytes per message of a fixed batch size against {@link AdaptiveBatchController}
+ * under a load that changes rate: light, then a burst, then medium.
+ * <p>
+ * A fixed size that amortizes the signature well under the burst makes messages wait for its
+ * deadline under light load; the controller shrinks batches when traffic is light and grows them
+ * under the burst, trading bytes for latency only when the rate is too low to meet both targets.
+ * Uses SPHINCS+-SHA2-128f with its matched 16-byte node hash.
+ */
+public class AdaptiveBatchBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int SIGNATURE_LEN = 17088;
+    private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final double MAX_BYTES_PER_MESSAGE = 512;
+    private static final int FIXED_BATCH_SIZE = 64;
+    private static final long FIXED_MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // name, messages per second, duration in milliseconds
+    private static final String[] PHASE_NAMES = {"light", "burst", "medium"};
+    private static final int[] PHASE_RATES = {50, 5000, 500};
+    private static final int[] PHASE_MILLIS = {3000, 2000, 3000};
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Drive the load phases through a fixed-size and an adaptive service and write a CSV into the
+     * output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_adaptive_batching.csv");
+        Files.writeString(csv, "policy,phase,rate_per_sec,messages,batches,avg_batch_size,mean_latency_ms,p99_latency_ms,avg_bytes_per_msg\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+
+        try (BatchSigningService fixed = new BatchSigningService(sk, FIXED_BATCH_SIZE, FIXED_MAX_WAIT_NANOS)) {
+            run(csv, "fixed_" + FIXED_BATCH_SIZE, fixed);
+        }
+        AdaptiveBatchController controller = new AdaptiveBatchController(TARGET_LATENCY_NANOS, MAX_BYTES_PER_MESSAGE,
+                SIGNATURE_LEN, family.length(), 1, 4096);
+        System.out.printf(Locale.ROOT, "byte budget %.0f B/msg met by batch sizes %d..%d%n",
+                MAX_BYTES_PER_MESSAGE, controller.budgetLowerBound(), controller.budgetUpperBound());
+        try (BatchSigningService adaptive = new BatchSigningService(sk, controller)) {
+            run(csv, "adaptive", adaptive);
+        }
+    }
+
+    private static void run(Path csv, String policy, BatchSigningService service) throws Exception {
+        for (int p = 0; p < PHASE_NAMES.length; p++) {
+            int rate = PHASE_RATES[p];
+            int total = (int) ((long) rate * PHASE_MILLIS[p] / 1000);
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[total];
+            long[] submitted = new long[total];
+            long[] done = new long[total];
+
+            // Open-loop pacing: message i is due at start + i / rate, whether or not earlier ones are done
+            long start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                long due = start + (long) i * 1_000_000_000L / rate;
+                for (long now = System.nanoTime(); now < due; now = System.nanoTime()) {
+                    LockSupport.parkNanos(due - now);
+                }
+                int idx = i;
+                submitted[idx] = System.nanoTime();
+                futures[idx] = service.submit(("message-" + idx).getBytes(StandardCharsets.UTF_8))
+                        .thenApply(env -> {
+                            done[idx] = System.nanoTime();
+                            return env;
+                        });
+            }
+            CompletableFuture.allOf(futures).join();
+
+            double[] latencies = new double[total];
+            Set<Long> batches = new HashSet<>();
+            double bytes = 0;
+            for (int i = 0; i < total; i++) {
+                BatchSigningService.Envelope env = (BatchSigningService.Envelope) futures[i].join();
+                latencies[i] = (done[i] - submitted[i]) / 1e6;
+                batches.add(env.batchId());
+                bytes += env.proof().authPath().size() * (double) env.family().length();
+            }
+            // Each batch's signature is shared by the messages of that batch, so it is counted once per batch
+            bytes = (bytes + batches.size() * (double) SIGNATURE_LEN) / total;
+            Arrays.sort(latencies);
+            double mean = Arrays.stream(latencies).average().orElse(0);
+            double p99 = latencies[Math.min(total - 1, (int) Math.ceil(0.99 * total) - 1)];
+            double avgBatch = total * 1.0 / batches.size();
+
+            String row = String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.1f,%.1f,%.1f,%.1f%n",
+                    policy, PHASE_NAMES[p], rate, total, batches.size(), avgBatch, mean, p99, bytes);
+            Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+            System.out.printf(Locale.ROOT, "%-9s %-7s %5d msg/s  %5d msgs in %4d batches (avg %6.1f)  mean=%7.1f ms  p99=%7.1f ms  %8.1f B/msg%n",
+                    policy, PHASE_NAMES[p], rate, total, batches.size(), avgBatch, mean, p99, bytes);
+        }
+    }
+}
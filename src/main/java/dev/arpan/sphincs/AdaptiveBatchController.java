@@ -0,0 +1,226 @@
+package dev.arpan.sphincs;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the batch size and flush deadline of a {@link BatchSigningService} at runtime from the
+ * observed arrival rate and signing latency.
+ * <p>
+ * A message waits for its batch to seal and then for the signature, so its latency is at most
+ * deadline + signing time.  The controller therefore sets the deadline to the latency target minus
+ * the p99 of recent signing times, and the batch size to the number of messages expected to arrive
+ * within that deadline at the current (EWMA) arrival rate: under load batches seal on size well
+ * before the deadline, and under light load the deadline seals them.
+ * <p>
+ * The p99 covers building the tree and signing only.  The time a sealed batch waits for a free signer
+ * thread is not measured, so the latency target holds only while the signers keep up with the
+ * arrival rate.  Feeding that queueing back would work against recovery: under overload it would
+ * shorten the deadline, shrink the batches and add signatures to the backlog.
+ * <p>
+ * The batch size is then held to the per-message byte budget using the overhead model of
+ * {@link MerkleBatchSigner}, {@code sig_bytes / N + ceil(log2 N) × node_bytes}.  Small N spread the
+ * signature too thinly and large N make paths too long, but the sizes that meet the budget need not
+ * form one interval: each extra tree level adds a step to the overhead, so the first sizes of a
+ * level can miss a budget that the last size of the level below meets.  With a 7856-byte signature,
+ * 16-byte nodes and 219 bytes per message, the budget is met by 64 and by 74 to 128, not by 65 to 73.
+ * Within one level the overhead falls with N, so a size that misses the budget is rounded down to the
+ * nearest size that meets it, which is either a full level {@code 2^h} or none at all.  N is never
+ * raised to meet the budget: when the arrival rate is too low to fill such a batch within the
+ * deadline, the latency target wins and {@link #withinByteBudget()} reports false.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class AdaptiveBatchController {
+
+    /** Weight of the newest inter-arrival time in the arrival-rate average. */
+    public static final double DEFAULT_ALPHA = 0.05;
+
+    private static final int LATENCY_WINDOW = 128;
+
+    private final long targetLatencyNanos;
+    private final double maxBytesPerMessage;
+    private final int signatureBytes;
+    private final int nodeBytes;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final double alpha;
+    private final int budgetLow;
+    private final int budgetHigh;
+
+    private final long[] signLatencies = new long[LATENCY_WINDOW];
+    private int signSamples;
+    private long signP99Nanos;
+    private long lastArrival = -1;
+    private double meanInterArrivalNanos = Double.NaN;
+
+    /**
+     * @param targetLatencyNanos p99 submit-to-envelope latency to stay under
+     * @param maxBytesPerMessage per-message budget for the amortized signature plus the proof
+     * @param signatureBytes     length of one SPHINCS+ signature
+     * @param nodeBytes          length of one Merkle node, see {@link MerkleHashFamily#length()}
+     * @param minBatchSize       smallest batch size ever chosen, at least 1
+     * @param maxBatchSize       largest batch size ever chosen
+     */
+    public AdaptiveBatchController(long targetLatencyNanos, double maxBytesPerMessage, int signatureBytes, int nodeBytes,
+                                   int minBatchSize, int maxBatchSize) {
+        this(targetLatencyNanos, maxBytesPerMessage, signatureBytes, nodeBytes, minBatchSize, maxBatchSize, DEFAULT_ALPHA);
+    }
+
+    /**
+     * @param alpha weight of the newest inter-arrival time, in (0, 1]
+     * @see #AdaptiveBatchController(long, double, int, int, int, int)
+     */
+    public AdaptiveBatchController(long targetLatencyNanos, double maxBytesPerMessage, int signatureBytes, int nodeBytes,
+                                   int minBatchSize, int maxBatchSize, double alpha) {
+        if (targetLatencyNanos <= 0 || minBatchSize < 1 || maxBatchSize < minBatchSize || !(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("Invalid controller configuration");
+        }
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxBytesPerMessage = maxBytesPerMessage;
+        this.signatureBytes = signatureBytes;
+        this.nodeBytes = nodeBytes;
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.alpha = alpha;
+
+        // Within one tree height h the path term is fixed and sig/N falls, so the sizes meeting the
+        // budget at that height are those from ceil(sig / (budget - h × node)) to the height's largest
+        int low = -1;
+        int high = -1;
+        for (int h = MerkleTree.heightFor(minBatchSize); h <= MerkleTree.heightFor(maxBatchSize); h++) {
+            long from = Math.max(minBatchSize, h == 0 ? 1 : (1L << (h - 1)) + 1);
+            long to = Math.min(maxBatchSize, 1L << h);
+            long n = firstWithinBudget(h, from, to);
+            if (n > 0) {
+                if (low < 0) {
+                    low = (int) n;
+                }
+                high = (int) to;
+            }
+        }
+        this.budgetLow = low;
+        this.budgetHigh = high;
+    }
+
+    /**
+     * @return the smallest size in {@code [from, to]}, all of tree height {@code h}, that meets the
+     * byte budget, or -1 if none does
+     */
+    private long firstWithinBudget(int h, long from, long to) {
+        double share = maxBytesPerMessage - (double) h * nodeBytes;
+        if (from > to || share <= 0 || overheadBytes((int) to) > maxBytesPerMessage) {
+            return -1;
+        }
+        long n = Math.max(from, Math.min(to, (long) Math.ceil(signatureBytes / share)));
+        // Settle rounding at the boundary against the exact model
+        while (n > from && overheadBytes((int) n - 1) <= maxBytesPerMessage) {
+            n--;
+        }
+        while (overheadBytes((int) n) > maxBytesPerMessage) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Per-message overhead of a batch of {@code n}: its share of the signature plus its path.
+     */
+    public double overheadBytes(int n) {
+        return signatureBytes * 1.0 / n + MerkleTree.heightFor(n) * nodeBytes;
+    }
+
+    /**
+     * Record that a message arrived at {@code nanoTime}.
+     */
+    public synchronized void recordArrival(long nanoTime) {
+        if (lastArrival >= 0) {
+            double interval = Math.max(0, nanoTime - lastArrival);
+            meanInterArrivalNanos = Double.isNaN(meanInterArrivalNanos)
+                    ? interval
+                    : alpha * interval + (1 - alpha) * meanInterArrivalNanos;
+        }
+        lastArrival = nanoTime;
+    }
+
+    /**
+     * Record how long one batch took to build and sign, from the moment a signer thread picked it up.
+     */
+    public synchronized void recordSignLatency(long nanos) {
+        signLatencies[signSamples % LATENCY_WINDOW] = nanos;
+        signSamples++;
+        long[] window = Arrays.copyOf(signLatencies, Math.min(signSamples, LATENCY_WINDOW));
+        Arrays.sort(window);
+        signP99Nanos = window[Math.min(window.length - 1, (int) Math.ceil(0.99 * window.length) - 1)];
+    }
+
+    /** @return the smoothed arrival rate in messages per second, or 0 before two arrivals */
+    public synchronized double arrivalRatePerSecond() {
+        if (Double.isNaN(meanInterArrivalNanos)) {
+            return 0;
+        }
+        return meanInterArrivalNanos == 0 ? Double.MAX_VALUE : 1e9 / meanInterArrivalNanos;
+    }
+
+    /** @return the p99 of the recent build-and-sign latencies, or 0 before the first batch */
+    public synchronized long signP99Nanos() {
+        return signP99Nanos;
+    }
+
+    /**
+     * @return how long the first message of a batch may wait for it to fill: the latency target minus
+     * the p99 signing time, never negative
+     */
+    public synchronized long maxWaitNanos() {
+        return Math.max(0, targetLatencyNanos - signP99Nanos);
+    }
+
+    /**
+     * @return the batch size expected to fill within {@link #maxWaitNanos()} at the current arrival
+     * rate, held within the configured limits and the byte budget's upper bound, and rounded down
+     * to the nearest size that meets the budget if there is one at least {@link #budgetLowerBound()}
+     */
+    public synchronized int batchSize() {
+        double expected = arrivalRatePerSecond() * maxWaitNanos() / 1e9;
+        long n = expected >= maxBatchSize ? maxBatchSize : Math.max(1, (long) Math.floor(expected));
+        if (budgetHigh > 0) {
+            n = Math.min(n, budgetHigh);
+        }
+        int size = (int) Math.max(minBatchSize, Math.min(maxBatchSize, n));
+        return budgetLow > 0 && size > budgetLow ? largestWithinBudget(size) : size;
+    }
+
+    /**
+     * @return whether a batch of {@link #batchSize()} meets the byte budget; false when the arrival
+     * rate is too low to fill a large enough batch within the latency target
+     */
+    public synchronized boolean withinByteBudget() {
+        return overheadBytes(batchSize()) <= maxBytesPerMessage;
+    }
+
+    /**
+     * @return the smallest batch size that meets the byte budget, or -1 if none does; not every
+     * size between this and {@link #budgetUpperBound()} meets it
+     */
+    public int budgetLowerBound() {
+        return budgetLow;
+    }
+
+    /** @return the largest batch size that meets the byte budget, or -1 if none does */
+    public int budgetUpperBound() {
+        return budgetHigh;
+    }
+
+    /**
+     * @return the largest size up to {@code n} that meets the byte budget; {@code n} must be at
+     * least {@link #budgetLowerBound()}
+     */
+    private int largestWithinBudget(int n) {
+        // Below n only n itself and the full levels 2^h can be the best of their level
+        for (long m = n; m >= budgetLow; m = Long.highestOneBit(m - 1)) {
+            if (overheadBytes((int) m) <= maxBytesPerMessage) {
+                return (int) m;
+            }
+        }
+        return budgetLow;
+    }
+}
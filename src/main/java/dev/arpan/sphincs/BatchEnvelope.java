@@ -0,0 +1,282 @@
+package dev.arpan.sphincs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary wire format for one message's share of a signed batch, with a flyweight for reading it.
+ * <p>
+ * Layout, big-endian, starting at any offset of a buffer:
+ * <pre>
+ *  0  u8   version (1)
+ *  1  u8   flags; bit 0 set when the signature is carried inline
+ *  2  u8   hash family id, see {@link MerkleHashFamily#id()}
+ *  3  u8   depth d, the number of sibling hashes
+ *  4  i64  key id
+ * 12  i64  batch id
+ * 20  i32  leaf index
+ * 24  i32  leaf count of the batch
+ * 28       d × n bytes of sibling hashes, leaf level first
+ *     i32  signature length, then the signature    (inline only)
+ * </pre>
+ * The signature covers {@link MerkleTree#signedMessage(byte[], long) root || leaf count}, so the leaf
+ * count is authenticated once the receiver checks the signature over the root it recomputes with that
+ * count, and it fixes the depth: {@link #wrap} rejects any d other than the height of a tree of that
+ * many leaves, and a leaf index beyond the last leaf.
+ * Without the inline flag the signature is referenced by (key id, batch id) and the receiver looks it
+ * up, e.g. from the first envelope of the batch.  The encoders write straight from the tree or proof
+ * into the destination buffer, and a {@link #wrap wrapped} envelope reads fields in place, so neither
+ * side creates intermediate arrays.  A wrapped instance can be re-pointed at the next envelope; it is
+ * not thread-safe.
+ */
+public final class BatchEnvelope {
+
+    /** Wire format version written by this class. */
+    public static final int VERSION = 1;
+
+    /** Bytes before the authentication path. */
+    public static final int HEADER_LEN = 28;
+
+    private static final int FLAG_INLINE_SIGNATURE = 1;
+
+    private ByteBuffer buf;
+    private int offset;
+    private int nodeLen;
+    private int depth;
+    private int length;
+
+    /**
+     * Encoded size of an envelope.
+     *
+     * @param family          the batch tree's hash family
+     * @param depth           number of sibling hashes
+     * @param signatureLength length of an inline signature, or -1 when it is referenced
+     */
+    public static int encodedLength(MerkleHashFamily family, int depth, int signatureLength) {
+        int len = HEADER_LEN + depth * family.length();
+        return signatureLength < 0 ? len : len + 4 + signatureLength;
+    }
+
+    /**
+     * Encode the envelope of one leaf, copying its path directly out of the tree, at the buffer's
+     * position, and advance the position past it.
+     *
+     * @param dst       destination buffer, heap or direct
+     * @param keyId     identifier of the signing key
+     * @param batchId   identifier of the batch
+     * @param tree      the batch tree
+     * @param leafIndex the leaf whose envelope is written
+     * @param signature the batch signature to carry inline, or {@code null} to reference it
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the envelope does not fit
+     */
+    public static int encode(ByteBuffer dst, long keyId, long batchId, MerkleTree tree, int leafIndex, byte[] signature) {
+        int start = dst.position();
+        putHeader(dst, keyId, batchId, tree.family(), tree.height(), leafIndex, tree.leafCount(), signature);
+        tree.putAuthPath(leafIndex, dst);
+        putSignature(dst, signature);
+        return dst.position() - start;
+    }
+
+    /**
+     * Encode an envelope from a list-form proof at the buffer's position, and advance the position past it.
+     *
+     * @param dst       destination buffer, heap or direct
+     * @param keyId     identifier of the signing key
+     * @param batchId   identifier of the batch
+     * @param family    the batch tree's hash family
+     * @param leafCount the number of leaves in the batch
+     * @param proof     the leaf's inclusion proof
+     * @param signature the batch signature to carry inline, or {@code null} to reference it
+     * @return the number of bytes written
+     * @throws java.nio.BufferOverflowException if the envelope does not fit
+     */
+    public static int encode(ByteBuffer dst, long keyId, long batchId, MerkleHashFamily family, int leafCount,
+                             MerkleBatchSigner.Proof proof, byte[] signature) {
+        int start = dst.position();
+        List<byte[]> path = proof.authPath();
+        putHeader(dst, keyId, batchId, family, path.size(), proof.index(), leafCount, signature);
+        for (byte[] sibling : path) {
+            if (sibling.length != family.length()) {
+                throw new IllegalArgumentException("Sibling is " + sibling.length + " bytes, expected " + family.length());
+            }
+            dst.put(sibling);
+        }
+        putSignature(dst, signature);
+        return dst.position() - start;
+    }
+
+    private static void putHeader(ByteBuffer dst, long keyId, long batchId, MerkleHashFamily family, int depth,
+                                  int leafIndex, int leafCount, byte[] signature) {
+        checkShape(depth, leafIndex, leafCount);
+        int needed = encodedLength(family, depth, signature == null ? -1 : signature.length);
+        if (dst.remaining() < needed) {
+            throw new java.nio.BufferOverflowException();
+        }
+        dst.put((byte) VERSION)
+                .put((byte) (signature != null ? FLAG_INLINE_SIGNATURE : 0))
+                .put((byte) family.id())
+                .put((byte) depth)
+                .putLong(keyId)
+                .putLong(batchId)
+                .putInt(leafIndex)
+                .putInt(leafCount);
+    }
+
+    // The depth must be the height of a tree of leafCount leaves, and the index must name one of them
+    private static void checkShape(int depth, int leafIndex, int leafCount) {
+        if (leafCount < 1 || depth != MerkleTree.heightFor(leafCount)) {
+            throw new IllegalArgumentException("Path of " + depth + " hashes does not fit a batch of " + leafCount + " leaves");
+        }
+        if (leafIndex < 0 || leafIndex >= leafCount) {
+            throw new IllegalArgumentException("Leaf index " + leafIndex + " outside a batch of " + leafCount + " leaves");
+        }
+    }
+
+    private static void putSignature(ByteBuffer dst, byte[] signature) {
+        if (signature != null) {
+            dst.putInt(signature.length).put(signature);
+        }
+    }
+
+    /**
+     * Point this flyweight at the envelope starting at {@code offset}, checking its header and length.
+     * The buffer's position and limit are not changed.
+     *
+     * @return this instance
+     * @throws IllegalArgumentException if the bytes are not a complete envelope of a known version, or
+     *                                  its depth or leaf index does not fit its leaf count
+     */
+    public BatchEnvelope wrap(ByteBuffer buffer, int offset) {
+        int available = buffer.limit() - offset;
+        if (offset < 0 || available < HEADER_LEN) {
+            throw new IllegalArgumentException("Truncated envelope header");
+        }
+        if (buffer.get(offset) != VERSION) {
+            throw new IllegalArgumentException("Unsupported envelope version " + buffer.get(offset));
+        }
+        int d = buffer.get(offset + 3) & 0xff;
+        checkShape(d, buffer.getInt(offset + 20), buffer.getInt(offset + 24));
+        int n = MerkleHashFamily.forId(buffer.get(offset + 2) & 0xff).length();
+        int len = HEADER_LEN + d * n;
+        if ((buffer.get(offset + 1) & FLAG_INLINE_SIGNATURE) != 0) {
+            if (available < len + 4) {
+                throw new IllegalArgumentException("Truncated envelope signature length");
+            }
+            int sigLen = buffer.getInt(offset + len);
+            if (sigLen < 0 || available - len - 4 < sigLen) {
+                throw new IllegalArgumentException("Truncated envelope signature");
+            }
+            len += 4 + sigLen;
+        } else if (available < len) {
+            throw new IllegalArgumentException("Truncated envelope path");
+        }
+        this.buf = buffer;
+        this.offset = offset;
+        this.nodeLen = n;
+        this.depth = d;
+        this.length = len;
+        return this;
+    }
+
+    /** @return the total length of the wrapped envelope in bytes */
+    public int encodedLength() {
+        return length;
+    }
+
+    /** @return the hash family of the batch tree */
+    public MerkleHashFamily family() {
+        return MerkleHashFamily.forId(buf.get(offset + 2) & 0xff);
+    }
+
+    /** @return the number of sibling hashes */
+    public int depth() {
+        return depth;
+    }
+
+    /** @return the signing key's identifier */
+    public long keyId() {
+        return buf.getLong(offset + 4);
+    }
+
+    /** @return the batch identifier */
+    public long batchId() {
+        return buf.getLong(offset + 12);
+    }
+
+    /** @return the leaf index */
+    public int leafIndex() {
+        return buf.getInt(offset + 20);
+    }
+
+    /** @return the number of leaves in the batch, covered by the batch signature */
+    public int leafCount() {
+        return buf.getInt(offset + 24);
+    }
+
+    /** @return whether the signature is carried inline rather than referenced */
+    public boolean hasInlineSignature() {
+        return (buf.get(offset + 1) & FLAG_INLINE_SIGNATURE) != 0;
+    }
+
+    /** @return the length of the inline signature, or -1 when it is referenced */
+    public int signatureLength() {
+        return hasInlineSignature() ? buf.getInt(offset + pathEnd()) : -1;
+    }
+
+    /**
+     * Copy the sibling hashes into {@code out} in the layout expected by
+     * {@link MerkleProofVerifier#verify(byte[], long, long, byte[], int, int, byte[])}.
+     */
+    public void copyPath(byte[] out, int outOffset) {
+        buf.get(offset + HEADER_LEN, out, outOffset, depth * nodeLen);
+    }
+
+    /** @return a view of the sibling hashes sharing the underlying buffer */
+    public ByteBuffer path() {
+        return buf.slice(offset + HEADER_LEN, depth * nodeLen);
+    }
+
+    /**
+     * Copy the inline signature into {@code out}.
+     *
+     * @throws IllegalStateException if the signature is referenced rather than inline
+     */
+    public void copySignature(byte[] out, int outOffset) {
+        int sigLen = requireInlineSignature();
+        buf.get(offset + pathEnd() + 4, out, outOffset, sigLen);
+    }
+
+    /**
+     * @return a view of the inline signature sharing the underlying buffer
+     * @throws IllegalStateException if the signature is referenced rather than inline
+     */
+    public ByteBuffer signature() {
+        int sigLen = requireInlineSignature();
+        return buf.slice(offset + pathEnd() + 4, sigLen);
+    }
+
+    /** @return the path as a list-form proof; allocates, for callers of the list-based APIs */
+    public MerkleBatchSigner.Proof toProof() {
+        List<byte[]> path = new ArrayList<>(depth);
+        for (int level = 0; level < depth; level++) {
+            byte[] sibling = new byte[nodeLen];
+            buf.get(offset + HEADER_LEN + level * nodeLen, sibling, 0, nodeLen);
+            path.add(sibling);
+        }
+        return new MerkleBatchSigner.Proof(leafIndex(), path);
+    }
+
+    private int pathEnd() {
+        return HEADER_LEN + depth * nodeLen;
+    }
+
+    private int requireInlineSignature() {
+        int sigLen = signatureLength();
+        if (sigLen < 0) {
+            throw new IllegalStateException("Signature is referenced by key and batch id, not inline");
+        }
+        return sigLen;
+    }
+}
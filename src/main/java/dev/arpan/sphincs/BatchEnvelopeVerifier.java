@@ -0,0 +1,201 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies messages from Merkle batches, checking each batch's SPHINCS+ root signature only once.
+ * <p>
+ * Every message of a batch carries the same root signature, and a SPHINCS+ verification costs
+ * milliseconds while a Merkle path costs microseconds.  Successful root verifications are remembered
+ * in a bounded LRU cache keyed by (public key, signed message, signature bytes), so after the first
+ * message of a batch the rest only pay for their own path.  Only successes are cached, and the path
+ * is always checked before the cache is consulted.
+ * <p>
+ * Instances are thread-safe.  Two threads that miss on the same batch at the same time may both
+ * run the signature check; the result is the same either way.
+ */
+public final class BatchEnvelopeVerifier {
+
+    /** Default number of verified batches remembered. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Map<CacheKey, Boolean> verified;
+    private final ThreadLocal<MerkleProofVerifier> proofVerifiers;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a verifier remembering up to {@link #DEFAULT_CAPACITY} batches.
+     */
+    public BatchEnvelopeVerifier() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity maximum number of verified batches remembered; the least recently used is evicted first
+     */
+    public BatchEnvelopeVerifier(int capacity) {
+        this(capacity, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * @param capacity maximum number of verified batches remembered; the least recently used is evicted first
+     * @param family   the hash family the batch trees are built with
+     */
+    public BatchEnvelopeVerifier(int capacity, MerkleHashFamily family) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.proofVerifiers = ThreadLocal.withInitial(() -> new MerkleProofVerifier(family));
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Boolean> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Verify one message of a batch: its inclusion proof against the root, then the signature over
+     * the root and leaf count.
+     *
+     * @param publicKey the signer's public key
+     * @param root      the signed Merkle root
+     * @param leafCount the number of leaves in the batch
+     * @param signature the SPHINCS+ signature over {@link MerkleTree#signedMessage(byte[], long)}
+     * @param leaf      the leaf hash of the message
+     * @param proof     the message's inclusion proof
+     * @return whether both the proof and the root signature are valid
+     */
+    public boolean verify(SPHINCSPlusPublicKeyParameters publicKey, byte[] root, long leafCount, byte[] signature,
+                          byte[] leaf, MerkleBatchSigner.Proof proof) {
+        if (!proofVerifiers.get().verify(leaf, proof, leafCount, root)) {
+            return false;
+        }
+        return verifyRoot(publicKey, MerkleTree.signedMessage(root, leafCount), signature);
+    }
+
+    /**
+     * Verify one message of a batch signed by cap: its shortened proof against the cap, then the
+     * signature over the cap.  Caps are cached exactly like roots.
+     *
+     * @param publicKey the signer's public key
+     * @param cap       the signed cap, see {@link MerkleTree#cap(int)}
+     * @param leafCount the number of leaves in the batch
+     * @param signature the SPHINCS+ signature over {@link MerkleTree#signedMessage(byte[], long)} of the cap
+     * @param leaf      the leaf hash of the message
+     * @param proof     the message's inclusion proof up to the cap level
+     * @return whether both the proof and the cap signature are valid
+     */
+    public boolean verifyCapped(SPHINCSPlusPublicKeyParameters publicKey, byte[] cap, long leafCount, byte[] signature,
+                                byte[] leaf, MerkleBatchSigner.Proof proof) {
+        if (!proofVerifiers.get().verifyAgainstCap(leaf, proof, leafCount, cap)) {
+            return false;
+        }
+        return verifyRoot(publicKey, MerkleTree.signedMessage(cap, leafCount), signature);
+    }
+
+    /**
+     * Verify the SPHINCS+ signature over the signed bytes of a batch, such as
+     * {@link MerkleTree#signedMessage(byte[], long)}, answering from the cache when this exact
+     * (key, message, signature) triple has already been verified.
+     *
+     * @param publicKey     the signer's public key
+     * @param signedMessage the bytes the signature covers
+     * @param signature     the SPHINCS+ signature
+     * @return whether the signature is valid
+     */
+    public boolean verifyRoot(SPHINCSPlusPublicKeyParameters publicKey, byte[] signedMessage, byte[] signature) {
+        CacheKey key = new CacheKey(publicKey.getEncoded(), signedMessage, signature);
+        synchronized (verified) {
+            if (verified.get(key) != null) {
+                hits.increment();
+                return true;
+            }
+        }
+        misses.increment();
+        SPHINCSPlusSigner verifier = new SPHINCSPlusSigner();
+        verifier.init(false, publicKey);
+        if (!verifier.verifySignature(signedMessage, signature)) {
+            return false;
+        }
+        synchronized (verified) {
+            verified.put(key.copy(), Boolean.TRUE);
+        }
+        return true;
+    }
+
+    /** @return number of root checks answered from the cache */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** @return number of root checks that ran a SPHINCS+ verification */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** @return number of cached batches evicted to stay within capacity */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** @return number of batches currently cached */
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    /**
+     * Cache key; compares the arrays by content.  Lookups wrap the caller's arrays and only the
+     * entries stored in the cache hold copies.  The hash is computed once per key.
+     */
+    private static final class CacheKey {
+        private final byte[] publicKey;
+        private final byte[] signedMessage;
+        private final byte[] signature;
+        private final int hash;
+
+        CacheKey(byte[] publicKey, byte[] signedMessage, byte[] signature) {
+            this(publicKey, signedMessage, signature,
+                    31 * (31 * Arrays.hashCode(publicKey) + Arrays.hashCode(signedMessage)) + Arrays.hashCode(signature));
+        }
+
+        private CacheKey(byte[] publicKey, byte[] signedMessage, byte[] signature, int hash) {
+            this.publicKey = publicKey;
+            this.signedMessage = signedMessage;
+            this.signature = signature;
+            this.hash = hash;
+        }
+
+        CacheKey copy() {
+            return new CacheKey(publicKey, signedMessage.clone(), signature.clone(), hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CacheKey k
+                    && hash == k.hash
+                    && Arrays.equals(publicKey, k.publicKey)
+                    && Arrays.equals(signedMessage, k.signedMessage)
+                    && Arrays.equals(signature, k.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
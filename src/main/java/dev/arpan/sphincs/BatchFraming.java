@@ -0,0 +1,292 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Stream framing that sends each batch's SPHINCS+ signature once per connection instead of once per
+ * message.
+ * <p>
+ * Frames are self-delimiting and big-endian:
+ * <pre>
+ * BATCH_START  u8 1, i64 batch id, i64 key id, u8 hash family id, i32 leaf count,
+ *              root (n bytes), i32 signature length, signature
+ * MESSAGE      u8 2, i64 batch id, i32 leaf index, u8 depth, depth × n path bytes,
+ *              i32 payload length, payload
+ * BATCH_END    u8 3, i64 batch id
+ * </pre>
+ * A message frame costs 18 bytes plus its path and payload.  The signature covers
+ * {@link MerkleTree#signedMessage(byte[], long) root || leaf count}, so the leaf count of the start
+ * frame is authenticated along with the root, and with it the only valid message depth.  The
+ * {@link Reader} keeps a context (root, leaf count, hash family) for every open batch, checks each
+ * message's index, depth and path against it, and, if given the senders' public keys, verifies each
+ * batch signature once, on its start frame.  Without keys nothing binds the leaf count, so the depth
+ * check only guards against malformed frames.
+ */
+public final class BatchFraming {
+
+    /** Frame type: start of a batch, carrying its root and signature. */
+    public static final int BATCH_START = 1;
+    /** Frame type: one message of an open batch. */
+    public static final int MESSAGE = 2;
+    /** Frame type: end of a batch; its context is dropped. */
+    public static final int BATCH_END = 3;
+
+    /** Default number of batches a reader keeps open at once. */
+    public static final int DEFAULT_MAX_OPEN_BATCHES = 64;
+
+    // Upper bound on signature and payload lengths read from the wire, against hostile length fields
+    private static final int MAX_FIELD_LEN = 1 << 24;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BatchFraming() {
+    }
+
+    /**
+     * A message received from an open batch.
+     *
+     * @param batchId   the batch it belongs to
+     * @param keyId     the key that signed the batch
+     * @param leafIndex its position in the batch
+     * @param payload   the message bytes
+     * @param verified  whether its path leads to the batch root and, when keys were supplied, the
+     *                  batch signature is valid
+     */
+    public record Message(long batchId, long keyId, int leafIndex, byte[] payload, boolean verified) {}
+
+    /**
+     * Writes frames to a stream.  Not thread-safe.
+     */
+    public static final class Writer implements Flushable {
+        private final DataOutputStream out;
+        private byte[] path = new byte[0];
+        private long bytesWritten;
+
+        public Writer(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        }
+
+        /**
+         * Open a batch on the stream by sending its root and signature.
+         *
+         * @param batchId   identifier of the batch, unique among the batches open on this stream
+         * @param keyId     identifier of the signing key
+         * @param tree      the batch tree
+         * @param signature SPHINCS+ signature over the tree's {@link MerkleTree#signedMessage()}
+         */
+        public void startBatch(long batchId, long keyId, MerkleTree tree, byte[] signature) throws IOException {
+            byte[] root = tree.root();
+            out.writeByte(BATCH_START);
+            out.writeLong(batchId);
+            out.writeLong(keyId);
+            out.writeByte(tree.family().id());
+            out.writeInt(tree.leafCount());
+            out.write(root);
+            out.writeInt(signature.length);
+            out.write(signature);
+            bytesWritten += 1 + 8 + 8 + 1 + 4 + root.length + 4 + signature.length;
+        }
+
+        /**
+         * Send one message of an open batch with its authentication path.
+         *
+         * @param payload the message whose leaf hash is at {@code leafIndex}
+         */
+        public void message(long batchId, MerkleTree tree, int leafIndex, byte[] payload) throws IOException {
+            int pathLen = tree.height() * tree.nodeLength();
+            if (path.length < pathLen) {
+                path = new byte[pathLen];
+            }
+            tree.copyAuthPath(leafIndex, path, 0);
+            out.writeByte(MESSAGE);
+            out.writeLong(batchId);
+            out.writeInt(leafIndex);
+            out.writeByte(tree.height());
+            out.write(path, 0, pathLen);
+            out.writeInt(payload.length);
+            out.write(payload);
+            bytesWritten += 1 + 8 + 4 + 1 + pathLen + 4 + payload.length;
+        }
+
+        /**
+         * Close a batch so the receiver can drop its context.
+         */
+        public void endBatch(long batchId) throws IOException {
+            out.writeByte(BATCH_END);
+            out.writeLong(batchId);
+            bytesWritten += 1 + 8;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /** @return the number of bytes framed so far */
+        public long bytesWritten() {
+            return bytesWritten;
+        }
+    }
+
+    /**
+     * Reads frames from a stream and returns the messages they carry.  Not thread-safe.
+     */
+    public static final class Reader {
+        private final DataInputStream in;
+        private final LongFunction<SPHINCSPlusPublicKeyParameters> keys;
+        private final int maxOpenBatches;
+        private final Map<Long, BatchContext> open = new HashMap<>();
+        private byte[] path = new byte[0];
+
+        /**
+         * Create a reader that checks paths against each batch root but not the batch signatures.
+         */
+        public Reader(InputStream in) {
+            this(in, null, DEFAULT_MAX_OPEN_BATCHES);
+        }
+
+        /**
+         * @param in             the stream to read
+         * @param keys           maps a key id to the public key that verifies its batches, returning
+         *                       {@code null} for unknown keys; {@code null} to skip signature checks
+         * @param maxOpenBatches how many batches may be open at once before the stream is rejected
+         */
+        public Reader(InputStream in, LongFunction<SPHINCSPlusPublicKeyParameters> keys, int maxOpenBatches) {
+            this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            this.keys = keys;
+            this.maxOpenBatches = maxOpenBatches;
+        }
+
+        /**
+         * Read frames until the next message.
+         *
+         * @return the next message, or {@code null} at the end of the stream
+         * @throws IOException if the stream fails or a frame is malformed or refers to an unknown batch
+         */
+        public Message next() throws IOException {
+            while (true) {
+                int type = in.read();
+                switch (type) {
+                    case -1:
+                        return null;
+                    case BATCH_START:
+                        readStart();
+                        break;
+                    case MESSAGE:
+                        return readMessage();
+                    case BATCH_END:
+                        open.remove(in.readLong());
+                        break;
+                    default:
+                        throw new IOException("Unknown frame type " + type);
+                }
+            }
+        }
+
+        /** @return the number of batches whose context is held */
+        public int openBatches() {
+            return open.size();
+        }
+
+        private void readStart() throws IOException {
+            long batchId = in.readLong();
+            long keyId = in.readLong();
+            MerkleHashFamily family;
+            try {
+                family = MerkleHashFamily.forId(in.readUnsignedByte());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            int leafCount = in.readInt();
+            if (leafCount < 1) {
+                throw new IOException("Batch " + batchId + " has " + leafCount + " leaves");
+            }
+            byte[] root = new byte[family.length()];
+            in.readFully(root);
+            byte[] signature = new byte[readLength()];
+            in.readFully(signature);
+            if (!open.containsKey(batchId) && open.size() >= maxOpenBatches) {
+                throw new IOException("More than " + maxOpenBatches + " batches open");
+            }
+            boolean signatureValid = true;
+            if (keys != null) {
+                SPHINCSPlusPublicKeyParameters pk = keys.apply(keyId);
+                if (pk == null) {
+                    signatureValid = false;
+                } else {
+                    SPHINCSPlusSigner verifier = new SPHINCSPlusSigner();
+                    verifier.init(false, pk);
+                    signatureValid = verifier.verifySignature(MerkleTree.signedMessage(root, leafCount), signature);
+                }
+            }
+            open.put(batchId, new BatchContext(keyId, family, leafCount, root, signatureValid));
+        }
+
+        private Message readMessage() throws IOException {
+            long batchId = in.readLong();
+            int leafIndex = in.readInt();
+            int depth = in.readUnsignedByte();
+            BatchContext ctx = open.get(batchId);
+            if (ctx == null) {
+                throw new IOException("Message for batch " + batchId + ", which is not open");
+            }
+            int pathLen = depth * ctx.family.length();
+            if (path.length < pathLen) {
+                path = new byte[pathLen];
+            }
+            in.readFully(path, 0, pathLen);
+            byte[] payload = new byte[readLength()];
+            in.readFully(payload);
+
+            boolean ok = ctx.signatureValid;
+            if (ok) {
+                ctx.family.hasher().hashLeaf(payload, 0, payload.length, ctx.leaf, 0);
+                ok = ctx.verifier.verify(ctx.leaf, leafIndex, ctx.leafCount, path, 0, depth, ctx.root);
+            }
+            return new Message(batchId, ctx.keyId, leafIndex, payload, ok);
+        }
+
+        private int readLength() throws IOException {
+            int len = in.readInt();
+            if (len < 0 || len > MAX_FIELD_LEN) {
+                throw new IOException("Field length " + len + " out of range");
+            }
+            return len;
+        }
+    }
+
+    /**
+     * What a reader remembers about an open batch.
+     */
+    private static final class BatchContext {
+        final long keyId;
+        final MerkleHashFamily family;
+        final int leafCount;
+        final byte[] root;
+        final boolean signatureValid;
+        final MerkleProofVerifier verifier;
+        final byte[] leaf;
+
+        BatchContext(long keyId, MerkleHashFamily family, int leafCount, byte[] root, boolean signatureValid) {
+            this.keyId = keyId;
+            this.family = family;
+            this.leafCount = leafCount;
+            this.root = root;
+            this.signatureValid = signatureValid;
+            this.verifier = new MerkleProofVerifier(family);
+            this.leaf = new byte[family.length()];
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages signed per second by {@link BatchSigningService} as the maximum batch size grows, with
+ * several threads submitting concurrently, plus the mean and p99 submit-to-envelope latency.
+ * <p>
+ * Uses SPHINCS+-SHA2-128f, the fastest signer of the benchmarked parameter sets, so the small batch
+ * sizes finish in reasonable time.  Every envelope of the first batch is verified.
+ */
+public class BatchSigningBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int[] MAX_BATCH_SIZES = {1, 8, 64, 256, 1024};
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int SUBMITTERS = 4;
+    private static final int BATCHES_PER_RUN = 8;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the service at every configured maximum batch size and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or a submitter thread is interrupted
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_batch_service.csv");
+        Files.writeString(csv, "max_batch_size,messages,batches,elapsed_ms,msgs_per_sec,mean_latency_ms,p99_latency_ms\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+        SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
+
+        for (int maxBatch : MAX_BATCH_SIZES) {
+            int total = maxBatch * BATCHES_PER_RUN;
+            try (BatchSigningService service = new BatchSigningService(sk, maxBatch, MAX_WAIT_NANOS)) {
+                CompletableFuture<?>[] futures = new CompletableFuture<?>[total];
+                long[] submitted = new long[total];
+                long[] done = new long[total];
+
+                long t0 = System.nanoTime();
+                Thread[] threads = new Thread[SUBMITTERS];
+                for (int s = 0; s < SUBMITTERS; s++) {
+                    int first = s;
+                    threads[s] = new Thread(() -> {
+                        for (int i = first; i < total; i += SUBMITTERS) {
+                            int idx = i;
+                            submitted[idx] = System.nanoTime();
+                            futures[idx] = service.submit(("message-" + idx).getBytes(StandardCharsets.UTF_8))
+                                    .thenApply(env -> {
+                                        done[idx] = System.nanoTime();
+                                        return env;
+                                    });
+                        }
+                    });
+                    threads[s].start();
+                }
+                for (Thread t : threads) {
+                    t.join();
+                }
+                CompletableFuture.allOf(futures).join();
+                long t1 = System.nanoTime();
+
+                verifyFirstBatch(service, pk, futures);
+
+                double[] latencies = new double[total];
+                for (int i = 0; i < total; i++) {
+                    latencies[i] = (done[i] - submitted[i]) / 1e6;
+                }
+                Arrays.sort(latencies);
+                double mean = Arrays.stream(latencies).average().orElse(0);
+                double p99 = latencies[Math.min(total - 1, (int) Math.ceil(0.99 * total) - 1)];
+                double ms = (t1 - t0) / 1e6;
+                double perSec = total / ((t1 - t0) / 1e9);
+                long batches = service.batchesSigned();
+                String row = String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.1f,%.1f,%.1f%n", maxBatch, total, batches, ms, perSec, mean, p99);
+                Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+                System.out.printf(Locale.ROOT, "max batch=%-5d %6d msgs in %3d batches  %9.1f ms  %,10.1f msgs/s  mean=%7.1f ms  p99=%7.1f ms%n",
+                        maxBatch, total, batches, ms, perSec, mean, p99);
+            }
+        }
+    }
+
+    private static void verifyFirstBatch(BatchSigningService service, SPHINCSPlusPublicKeyParameters pk,
+                                         CompletableFuture<?>[] futures) {
+        BatchEnvelopeVerifier verifier = new BatchEnvelopeVerifier(BatchEnvelopeVerifier.DEFAULT_CAPACITY, service.family());
+        for (int i = 0; i < futures.length; i++) {
+            BatchSigningService.Envelope env = (BatchSigningService.Envelope) futures[i].join();
+            if (env.batchId() != 0) {
+                continue;
+            }
+            byte[] leaf = service.family().hasher().hashLeaf(("message-" + i).getBytes(StandardCharsets.UTF_8));
+            if (!verifier.verify(pk, env.root(), env.leafCount(), env.signature(), leaf, env.proof())) {
+                throw new IllegalStateException("Envelope of message " + i + " failed to verify");
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Signs whole batches in three stages connected by bounded queues, so that batch k+1 is hashed and
+ * its tree built while batch k's root is being signed and batch k-1's envelopes are emitted.
+ * <pre>
+ * submit → [hash + build] → queue → [sign] → queue → [emit] → sink
+ * </pre>
+ * Every queue holds at most {@code queueCapacity} batches; a full queue blocks the stage feeding it,
+ * and ultimately {@link #submit}, so a slow signer throttles producers instead of letting batches
+ * pile up in memory.  Throughput approaches that of the slowest stage, which per-stage busy times
+ * ({@link #hashNanos()}, {@link #signNanos()}, {@link #emitNanos()}) identify.
+ * <p>
+ * Emission is single-threaded, so the sink is never called concurrently.  With more than one hashing
+ * or signing thread, batches may reach the sink out of submission order; envelopes of one batch are
+ * always emitted together and in leaf order.  A failure in any stage, an {@link Error} included, is
+ * rethrown by the next {@link #submit} or by {@link #close()}; the failed stage keeps draining its
+ * input until then, so neither blocks on a full queue.
+ */
+public final class BatchSigningPipeline implements AutoCloseable {
+
+    private static final Job END = new Job(-1, null);
+
+    private final SPHINCSPlusPrivateKeyParameters privateKey;
+    private final MerkleHashFamily family;
+    private final Consumer<BatchSigningService.Envelope> sink;
+    private final BlockingQueue<Job> toHash;
+    private final BlockingQueue<Job> toSign;
+    private final BlockingQueue<Job> toEmit;
+    private final List<Thread> hashers = new ArrayList<>();
+    private final List<Thread> signers = new ArrayList<>();
+    private final Thread emitter;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAdder signNanos = new LongAdder();
+    private final LongAdder emitNanos = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private long nextBatchId;
+    private boolean closed;
+
+    /**
+     * Start the stage threads.
+     *
+     * @param privateKey    the key batch roots are signed with
+     * @param hashThreads   threads hashing messages and building trees
+     * @param signThreads   threads signing roots
+     * @param queueCapacity batches each queue holds before the stage feeding it blocks
+     * @param sink          receives every envelope, on the emitting thread
+     */
+    public BatchSigningPipeline(SPHINCSPlusPrivateKeyParameters privateKey, int hashThreads, int signThreads,
+                                int queueCapacity, Consumer<BatchSigningService.Envelope> sink) {
+        if (hashThreads < 1 || signThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Thread counts and queue capacity must be positive");
+        }
+        this.privateKey = privateKey;
+        this.family = MerkleHashFamily.forParameters(privateKey.getParameters());
+        this.sink = sink;
+        this.toHash = new ArrayBlockingQueue<>(queueCapacity);
+        this.toSign = new ArrayBlockingQueue<>(queueCapacity);
+        this.toEmit = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < hashThreads; i++) {
+            hashers.add(start("pipeline-hash-" + i, toHash, this::hashLoop));
+        }
+        for (int i = 0; i < signThreads; i++) {
+            signers.add(start("pipeline-sign-" + i, toSign, this::signLoop));
+        }
+        this.emitter = start("pipeline-emit", toEmit, this::emitLoop);
+    }
+
+    /**
+     * Queue a batch, blocking while the hashing stage is full.  Not thread-safe: call from one thread.
+     *
+     * @param messages the messages of the batch, in leaf order; must not be modified afterwards
+     * @return the id the batch's envelopes will carry
+     * @throws IllegalStateException if the pipeline is closed or a stage has failed
+     * @throws InterruptedException  if interrupted while waiting for room
+     */
+    public long submit(List<byte[]> messages) throws InterruptedException {
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("Batch must contain at least one message");
+        }
+        if (closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        rethrowFailure();
+        long id = nextBatchId++;
+        toHash.put(new Job(id, messages));
+        return id;
+    }
+
+    /** @return the number of batches whose envelopes have all been emitted */
+    public long batchesEmitted() {
+        return batches.sum();
+    }
+
+    /** @return total time spent hashing messages and building trees, over all hashing threads */
+    public long hashNanos() {
+        return hashNanos.sum();
+    }
+
+    /** @return total time spent signing roots, over all signing threads */
+    public long signNanos() {
+        return signNanos.sum();
+    }
+
+    /** @return total time spent emitting envelopes, including time in the sink */
+    public long emitNanos() {
+        return emitNanos.sum();
+    }
+
+    /** @return the hash family used for leaves and inner nodes, matched to the key's parameter set */
+    public MerkleHashFamily family() {
+        return family;
+    }
+
+    /**
+     * Drain every submitted batch through all stages and stop the threads.  If interrupted while
+     * waiting, returns with the interrupt status set and leaves the remaining batches to the stage
+     * threads.
+     *
+     * @throws IllegalStateException if a stage failed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // One end marker per thread; a stage is ended only after the stage before it has exited
+            for (int i = 0; i < hashers.size(); i++) {
+                toHash.put(END);
+            }
+            for (Thread t : hashers) {
+                t.join();
+            }
+            for (int i = 0; i < signers.size(); i++) {
+                toSign.put(END);
+            }
+            for (Thread t : signers) {
+                t.join();
+            }
+            toEmit.put(END);
+            emitter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        rethrowFailure();
+    }
+
+    private void hashLoop() throws InterruptedException {
+        MerkleHasher hasher = family.hasher();
+        for (Job job; (job = toHash.take()) != END; ) {
+            long t0 = System.nanoTime();
+            int n = job.messages.size();
+            byte[] leaves = new byte[n * family.length()];
+            for (int i = 0; i < n; i++) {
+                byte[] m = job.messages.get(i);
+                hasher.hashLeaf(m, 0, m.length, leaves, i * family.length());
+            }
+            job.tree = MerkleTree.build(leaves, n, family);
+            hashNanos.add(System.nanoTime() - t0);
+            toSign.put(job);
+        }
+    }
+
+    private void signLoop() throws InterruptedException {
+        SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+        for (Job job; (job = toSign.take()) != END; ) {
+            long t0 = System.nanoTime();
+            signer.init(true, privateKey);
+            job.root = job.tree.root();
+            job.signature = signer.generateSignature(MerkleTree.signedMessage(job.root, job.tree.leafCount()));
+            signNanos.add(System.nanoTime() - t0);
+            toEmit.put(job);
+        }
+    }
+
+    private void emitLoop() throws InterruptedException {
+        for (Job job; (job = toEmit.take()) != END; ) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < job.tree.leafCount(); i++) {
+                sink.accept(new BatchSigningService.Envelope(job.id, family, job.root, job.tree.leafCount(), job.signature,
+                        job.tree.proof(i)));
+            }
+            emitNanos.add(System.nanoTime() - t0);
+            batches.increment();
+        }
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private Thread start(String name, BlockingQueue<Job> input, Stage stage) {
+        Thread t = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                // Keep draining so close() and upstream stages are not left blocked on a full queue
+                drain(input);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static void drain(BlockingQueue<Job> input) {
+        try {
+            while (input.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new IllegalStateException("Pipeline stage failed", e);
+        }
+    }
+
+    /**
+     * A batch on its way through the stages; each stage fills in its fields before handing it on.
+     */
+    private static final class Job {
+        final long id;
+        final List<byte[]> messages;
+        MerkleTree tree;
+        byte[] root;
+        byte[] signature;
+
+        Job(long id, List<byte[]> messages) {
+            this.id = id;
+            this.messages = messages;
+        }
+    }
+}
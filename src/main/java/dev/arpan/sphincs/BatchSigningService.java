@@ -0,0 +1,343 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signs messages submitted one at a time by collecting them into Merkle batches that share one
+ * SPHINCS+ signature.
+ * <p>
+ * {@link #submit} hashes the message on the caller's thread and returns a future of its envelope.
+ * The open batch is sealed when it reaches the maximum size or when its oldest message has waited
+ * the maximum time, whichever comes first; sealed batches are built and signed on the signing
+ * executor while the next batch fills.  A signature costs the same whether it covers 1 or 1024
+ * messages, so under load throughput grows with the batch size and the deadline bounds the latency
+ * under light load.  Both limits are either fixed or chosen per batch by an
+ * {@link AdaptiveBatchController}, which is fed every arrival and every signing time.
+ * <p>
+ * With a {@link LeafWriteAheadLog}, every accepted leaf is logged before {@link #submit} returns,
+ * and a batch is marked signed once its envelopes are complete.  Batches the log replays as unsigned
+ * are signed again when the service starts; see {@link #recovered()}.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class BatchSigningService implements AutoCloseable {
+
+    /**
+     * A signed message's share of its batch.  The root and signature arrays are shared by every
+     * envelope of the batch and must not be modified.
+     *
+     * @param batchId   sequence number of the batch within this service
+     * @param family    the hash family of the batch tree
+     * @param root      the signed root
+     * @param leafCount the number of messages in the batch
+     * @param signature the SPHINCS+ signature over {@link MerkleTree#signedMessage(byte[], long)}
+     * @param proof     the message's inclusion proof
+     */
+    public record Envelope(long batchId, MerkleHashFamily family, byte[] root, int leafCount, byte[] signature,
+                           MerkleBatchSigner.Proof proof) {}
+
+    private final SPHINCSPlusPrivateKeyParameters privateKey;
+    private final MerkleHashFamily family;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final AdaptiveBatchController controller;
+    private final LeafWriteAheadLog wal;
+    private final List<CompletableFuture<Envelope>> recovered;
+    private final ExecutorService signers;
+    private final boolean ownsSigners;
+    private final ScheduledExecutorService timer;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+
+    private final Object lock = new Object();
+    private Batch open;
+    private long nextBatchId;
+    private boolean closed;
+
+    /**
+     * Create a service that signs on a fixed pool with one thread per core.
+     *
+     * @param privateKey   the key batch roots are signed with
+     * @param maxBatchSize number of messages that seals a batch immediately
+     * @param maxWaitNanos longest a message waits for its batch to fill before the batch is sealed anyway
+     */
+    public BatchSigningService(SPHINCSPlusPrivateKeyParameters privateKey, int maxBatchSize, long maxWaitNanos) {
+        this(privateKey, maxBatchSize, maxWaitNanos, null, null, defaultSigners(), true);
+    }
+
+    /**
+     * Create a service that logs accepted leaves to a write-ahead log and signs on a fixed pool with
+     * one thread per core.  Unsigned batches replayed from the log are dispatched for signing at once.
+     *
+     * @param privateKey   the key batch roots are signed with
+     * @param maxBatchSize number of messages that seals a batch immediately
+     * @param maxWaitNanos longest a message waits for its batch to fill before the batch is sealed anyway
+     * @param wal          the log, opened with this key's hash family; not closed by {@link #close()}
+     */
+    public BatchSigningService(SPHINCSPlusPrivateKeyParameters privateKey, int maxBatchSize, long maxWaitNanos,
+                               LeafWriteAheadLog wal) {
+        this(privateKey, maxBatchSize, maxWaitNanos, null, wal, defaultSigners(), true);
+    }
+
+    /**
+     * @param privateKey   the key batch roots are signed with
+     * @param maxBatchSize number of messages that seals a batch immediately
+     * @param maxWaitNanos longest a message waits for its batch to fill before the batch is sealed anyway
+     * @param signers      executor that builds and signs sealed batches; not shut down by {@link #close()}
+     */
+    public BatchSigningService(SPHINCSPlusPrivateKeyParameters privateKey, int maxBatchSize, long maxWaitNanos,
+                               ExecutorService signers) {
+        this(privateKey, maxBatchSize, maxWaitNanos, null, null, signers, false);
+    }
+
+    /**
+     * Create a service whose batch size and deadline are chosen by a controller, signing on a fixed
+     * pool with one thread per core.
+     *
+     * @param privateKey the key batch roots are signed with
+     * @param controller picks the size and deadline of each new batch
+     */
+    public BatchSigningService(SPHINCSPlusPrivateKeyParameters privateKey, AdaptiveBatchController controller) {
+        this(privateKey, 1, 0, controller, null, defaultSigners(), true);
+    }
+
+    private BatchSigningService(SPHINCSPlusPrivateKeyParameters privateKey, int maxBatchSize, long maxWaitNanos,
+                                AdaptiveBatchController controller, LeafWriteAheadLog wal, ExecutorService signers,
+                                boolean ownsSigners) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        if (maxWaitNanos < 0) {
+            throw new IllegalArgumentException("maxWaitNanos must not be negative");
+        }
+        this.privateKey = privateKey;
+        this.family = MerkleHashFamily.forParameters(privateKey.getParameters());
+        if (wal != null && wal.family() != family) {
+            throw new IllegalArgumentException("Log holds " + wal.family() + " leaves, key uses " + family);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWaitNanos;
+        this.controller = controller;
+        this.wal = wal;
+        this.signers = signers;
+        this.ownsSigners = ownsSigners;
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemon("batch-deadline"));
+
+        List<CompletableFuture<Envelope>> replayed = new ArrayList<>();
+        if (wal != null) {
+            nextBatchId = wal.nextBatchId();
+            for (LeafWriteAheadLog.PendingBatch pending : wal.pending()) {
+                Batch batch = new Batch(pending.batchId(), pending.leaves().size());
+                for (byte[] leaf : pending.leaves()) {
+                    CompletableFuture<Envelope> future = new CompletableFuture<>();
+                    batch.leaves.add(leaf);
+                    batch.futures.add(future);
+                    replayed.add(future);
+                }
+                dispatch(batch);
+            }
+        }
+        this.recovered = List.copyOf(replayed);
+    }
+
+    /**
+     * Add a message to the open batch.
+     *
+     * @param message the message to sign
+     * @return a future completed with the message's envelope once its batch is signed, or
+     * exceptionally if signing fails
+     * @throws IllegalStateException if the service is closed
+     */
+    public CompletableFuture<Envelope> submit(byte[] message) {
+        byte[] leaf = family.hasher().hashLeaf(message);
+        CompletableFuture<Envelope> future = new CompletableFuture<>();
+        Batch full = null;
+        long logged = 0;
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Service is closed");
+            }
+            if (controller != null) {
+                controller.recordArrival(System.nanoTime());
+            }
+            if (open == null) {
+                int limit = controller != null ? controller.batchSize() : maxBatchSize;
+                long wait = controller != null ? controller.maxWaitNanos() : maxWaitNanos;
+                Batch batch = new Batch(nextBatchId++, limit);
+                open = batch;
+                if (limit > 1) {
+                    batch.deadline = timer.schedule(() -> sealIfOpen(batch), wait, TimeUnit.NANOSECONDS);
+                }
+            }
+            if (wal != null) {
+                logged = wal.append(open.id, open.leaves.size(), leaf, 0);
+            }
+            open.leaves.add(leaf);
+            open.futures.add(future);
+            if (open.leaves.size() >= open.limit) {
+                full = open;
+                open = null;
+            }
+        }
+        if (wal != null) {
+            wal.commit(logged);
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    /**
+     * Seal the open batch now, if there is one.
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (lock) {
+            batch = open;
+            open = null;
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+    }
+
+    /** @return the number of batches signed so far */
+    public long batchesSigned() {
+        return batches.sum();
+    }
+
+    /** @return the number of messages signed so far */
+    public long messagesSigned() {
+        return messages.sum();
+    }
+
+    /** @return the hash family used for leaves and inner nodes, matched to the key's parameter set */
+    public MerkleHashFamily family() {
+        return family;
+    }
+
+    /**
+     * @return futures of the envelopes of the unsigned leaves replayed from the write-ahead log at
+     * startup, ordered by batch and leaf index; empty without a log
+     */
+    public List<CompletableFuture<Envelope>> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Stop accepting messages and seal the open batch.  Batches already handed to the signers still
+     * complete; an owned signing pool is shut down once they have.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+        timer.shutdownNow();
+        if (ownsSigners) {
+            signers.shutdown();
+            try {
+                signers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void sealIfOpen(Batch batch) {
+        synchronized (lock) {
+            if (open != batch) {
+                return; // already sealed by size or flush
+            }
+            open = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        if (batch.deadline != null) {
+            batch.deadline.cancel(false);
+        }
+        try {
+            signers.execute(() -> sign(batch));
+        } catch (RejectedExecutionException e) {
+            batch.futures.forEach(f -> f.completeExceptionally(e));
+        }
+    }
+
+    private void sign(Batch batch) {
+        try {
+            if (wal != null) {
+                wal.sealed(batch.id);
+            }
+            long t0 = System.nanoTime();
+            MerkleTree tree = MerkleTree.build(batch.leaves, family);
+            byte[] root = tree.root();
+            SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+            signer.init(true, privateKey);
+            byte[] signature = signer.generateSignature(MerkleTree.signedMessage(root, tree.leafCount()));
+            if (controller != null) {
+                controller.recordSignLatency(System.nanoTime() - t0);
+            }
+            batches.increment();
+            messages.add(batch.leaves.size());
+            for (int i = 0; i < batch.futures.size(); i++) {
+                batch.futures.get(i).complete(new Envelope(batch.id, family, root, tree.leafCount(), signature, tree.proof(i)));
+            }
+            // Only after the envelopes are out, so a crash in between signs the batch again rather than losing it
+            if (wal != null) {
+                wal.signed(batch.id);
+            }
+        } catch (Throwable e) {
+            // Callers wait on these futures, so they must complete whatever went wrong
+            batch.futures.forEach(f -> f.completeExceptionally(e));
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    private static ExecutorService defaultSigners() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemon("batch-signer"));
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Messages collected for one batch, in leaf order.
+     */
+    private static final class Batch {
+        final long id;
+        final int limit;
+        final List<byte[]> leaves;
+        final List<CompletableFuture<Envelope>> futures;
+        ScheduledFuture<?> deadline;
+
+        Batch(long id, int limit) {
+            this.id = id;
+            this.limit = limit;
+            this.leaves = new ArrayList<>(Math.min(limit, 1024));
+            this.futures = new ArrayList<>(Math.min(limit, 1024));
+        }
+    }
+}
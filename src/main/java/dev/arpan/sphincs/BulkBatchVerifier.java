@@ -0,0 +1,110 @@
+package dev.arpan.sphincs;
+
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Verifies a whole received batch at once by rebuilding its tree, instead of folding every proof.
+ * <p>
+ * Checking N proofs one by one costs N × log₂(N) hashes and recomputes the shared upper nodes over
+ * and over; rebuilding the tree from all N leaves costs N − 1 hashes.  If the rebuilt tree's
+ * {@link MerkleTree#signedMessage() signed message}, its root followed by its leaf count, equals the
+ * signed one, every leaf is consistent.  The count matters: because an odd level repeats its last
+ * node, leaves [a, b, c, c] have the same root as [a, b, c], and only the signed count rejects the
+ * extra leaf.  Only when the rebuilt tree does not match are the individual proofs (if the receiver
+ * has them) folded, in parallel, to report which leaves are inconsistent with the signed root.  The
+ * signed root and leaf count are assumed to have been checked against their SPHINCS+ signature, for
+ * example with {@link BatchEnvelopeVerifier#verifyRoot} over {@link MerkleTree#signedMessage(byte[], long)}.
+ */
+public final class BulkBatchVerifier {
+
+    /**
+     * Outcome of a bulk verification.
+     *
+     * @param rootMatches        whether the root and leaf count of the received leaves equal the signed ones
+     * @param inconsistentLeaves indices whose proof does not lead to the signed root; empty when the root
+     *                           matches, {@code null} when it does not and no proofs were supplied, or
+     *                           when the number of leaves differs from the signed count
+     */
+    public record Result(boolean rootMatches, int[] inconsistentLeaves) {}
+
+    private final ForkJoinPool pool;
+    private final ParallelMerkleBuilder builder;
+    private final MerkleHashFamily family;
+
+    /**
+     * Create a verifier that uses the common pool.
+     */
+    public BulkBatchVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool used both to rebuild the tree and to fold proofs when the root differs
+     */
+    public BulkBatchVerifier(ForkJoinPool pool) {
+        this(pool, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * @param pool   the pool used both to rebuild the tree and to fold proofs when the root differs
+     * @param family the hash family the batch trees are built with
+     */
+    public BulkBatchVerifier(ForkJoinPool pool, MerkleHashFamily family) {
+        this.pool = pool;
+        this.builder = new ParallelMerkleBuilder(pool, ParallelMerkleBuilder.DEFAULT_THRESHOLD);
+        this.family = family;
+    }
+
+    /**
+     * Rebuild the tree from the received leaves and compare it with the signed root and leaf count.
+     * Without proofs a mismatch cannot be attributed to particular leaves.
+     */
+    public Result verify(List<byte[]> leaves, byte[] signedRoot, long leafCount) {
+        return verify(leaves, null, signedRoot, leafCount);
+    }
+
+    /**
+     * Rebuild the tree from the received leaves and compare it with the signed root and leaf count;
+     * on a mismatch, fold each leaf's proof to find the leaves that are inconsistent with the signed
+     * root.  A batch with more or fewer leaves than were signed is rejected without folding.
+     *
+     * @param leaves     every leaf hash of the batch, in leaf order
+     * @param proofs     the proof received with each leaf, in leaf order, or {@code null}
+     * @param signedRoot the root covered by the batch signature
+     * @param leafCount  the leaf count covered by the batch signature
+     * @return whether the batch is consistent and, if not, which leaves are at fault
+     */
+    public Result verify(List<byte[]> leaves, List<MerkleBatchSigner.Proof> proofs, byte[] signedRoot, long leafCount) {
+        if (proofs != null && proofs.size() != leaves.size()) {
+            throw new IllegalArgumentException("Got " + proofs.size() + " proofs for " + leaves.size() + " leaves");
+        }
+        if (leaves.size() != leafCount) {
+            return new Result(false, null);
+        }
+        MerkleTree tree = builder.build(leaves, family);
+        if (MessageDigest.isEqual(tree.signedMessage(), MerkleTree.signedMessage(signedRoot, leafCount))) {
+            return new Result(true, new int[0]);
+        }
+        if (proofs == null) {
+            return new Result(false, null);
+        }
+        ThreadLocal<MerkleProofVerifier> verifiers = ThreadLocal.withInitial(() -> new MerkleProofVerifier(family));
+        try {
+            int[] bad = pool.submit(() -> IntStream.range(0, leaves.size())
+                    .parallel()
+                    .filter(i -> proofs.get(i).index() != i
+                            || !verifiers.get().verify(leaves.get(i), proofs.get(i), leafCount, signedRoot))
+                    .toArray()).get();
+            return new Result(false, bad);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking proofs", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Proof check failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compare receiver-side verification of a whole batch: folding every proof on its own against
+ * rebuilding the tree once with {@link BulkBatchVerifier}.  A tampered batch is also timed, since
+ * that is the case where the bulk verifier falls back to folding proofs to locate the bad leaf, and
+ * an odd batch padded with a copy of its last leaf, which has the same root, must be rejected.
+ */
+public class BulkVerifyBenchmark {
+
+    private static final int[] LOG_LEAVES = {10, 12, 14, 16, 18, 20};
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the benchmark for every configured batch size and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_bulk_verify.csv");
+        Files.writeString(csv, "leaves,per_proof_ms,bulk_ms,bulk_tampered_ms,speedup\n");
+
+        BulkBatchVerifier bulk = new BulkBatchVerifier();
+        MerkleProofVerifier single = new MerkleProofVerifier();
+        List<byte[]> warmup = MerkleTreeBenchmark.randomLeaves(1 << 12);
+        MerkleTree warmTree = MerkleTree.build(warmup);
+        for (int i = 0; i < 5; i++) {
+            bulk.verify(warmup, warmTree.root(), warmup.size());
+            perProof(single, warmup, warmTree.proofs(), warmTree.root());
+        }
+
+        for (int log : LOG_LEAVES) {
+            int n = 1 << log;
+            List<byte[]> leaves = MerkleTreeBenchmark.randomLeaves(n);
+            MerkleTree tree = MerkleTree.build(leaves);
+            List<MerkleBatchSigner.Proof> proofs = tree.proofs();
+            byte[] root = tree.root();
+
+            long p0 = System.nanoTime();
+            int bad = perProof(single, leaves, proofs, root);
+            long p1 = System.nanoTime();
+            if (bad != 0) {
+                throw new IllegalStateException(bad + " valid proofs failed per-proof verification");
+            }
+
+            long b0 = System.nanoTime();
+            BulkBatchVerifier.Result ok = bulk.verify(leaves, proofs, root, n);
+            long b1 = System.nanoTime();
+            if (!ok.rootMatches()) {
+                throw new IllegalStateException("Bulk verification rejected an intact batch of " + n);
+            }
+
+            // Flip one bit of one leaf; the bulk verifier must report exactly that leaf
+            int victim = n / 3;
+            byte[] original = leaves.get(victim);
+            byte[] tampered = original.clone();
+            tampered[0] ^= 1;
+            leaves.set(victim, tampered);
+            long t0 = System.nanoTime();
+            BulkBatchVerifier.Result broken = bulk.verify(leaves, proofs, root, n);
+            long t1 = System.nanoTime();
+            leaves.set(victim, original);
+            if (broken.rootMatches() || broken.inconsistentLeaves().length != 1 || broken.inconsistentLeaves()[0] != victim) {
+                throw new IllegalStateException("Bulk verification did not isolate tampered leaf " + victim);
+            }
+
+            // An odd batch with its last leaf repeated has the same root; only the signed count tells them apart
+            List<byte[]> odd = leaves.subList(0, n - 1);
+            byte[] oddRoot = MerkleTree.build(odd).root();
+            List<byte[]> padded = new ArrayList<>(odd);
+            padded.add(odd.get(n - 2));
+            if (!bulk.verify(odd, oddRoot, n - 1).rootMatches() || bulk.verify(padded, oddRoot, n - 1).rootMatches()) {
+                throw new IllegalStateException("Bulk verification accepted a repeated last leaf of " + (n - 1));
+            }
+
+            double perProofMs = (p1 - p0) / 1e6;
+            double bulkMs = (b1 - b0) / 1e6;
+            double tamperedMs = (t1 - t0) / 1e6;
+            String row = String.format(Locale.ROOT, "%d,%.3f,%.3f,%.3f,%.2f%n", n, perProofMs, bulkMs, tamperedMs, perProofMs / bulkMs);
+            Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+            System.out.printf(Locale.ROOT, "%-8d per-proof=%9.2f ms  bulk=%8.2f ms  bulk(tampered)=%9.2f ms  speedup=%.1fx%n",
+                    n, perProofMs, bulkMs, tamperedMs, perProofMs / bulkMs);
+        }
+    }
+
+    private static int perProof(MerkleProofVerifier verifier, List<byte[]> leaves, List<MerkleBatchSigner.Proof> proofs, byte[] root) {
+        int bad = 0;
+        for (int i = 0; i < leaves.size(); i++) {
+            if (!verifier.verify(leaves.get(i), proofs.get(i), leaves.size(), root)) {
+                bad++;
+            }
+        }
+        return bad;
+    }
+}
@@ -0,0 +1,631 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * SPHINCS+ signer that keeps the XMSS trees of the top hypertree layers of one key in memory instead
+ * of rebuilding them for every signature.
+ * <p>
+ * {@code SPHINCSPlusSigner.generateSignature} builds one XMSS tree of {@code 2^h'} WOTS+ leaves per
+ * hypertree layer, plus the top tree once more to recompute the public root.  The trees of the upper
+ * layers depend only on SK.seed, PK.seed and their tree address, and there are few of them: the top
+ * layer has one tree, the layer below {@code 2^h'}.  With the top {@code cachedLayers} layers cached,
+ * a signature builds {@code d - cachedLayers} trees; a cached layer costs one WOTS+ signature over
+ * the root below, its authentication path and root are looked up.  The top tree is built when the
+ * signer is created and always kept; trees of lower cached layers are built on first use or by
+ * {@link #precompute()} and kept in an LRU cache of at most {@code maxCachedTrees} trees.
+ * <p>
+ * Signatures are byte-for-byte those of {@code SPHINCSPlusSigner}: {@link #sign(byte[])} matches a
+ * signer initialised without randomness, and any SPHINCS+ verifier accepts them.  The hashing and
+ * address primitives are BouncyCastle's own, reached by reflection because they are package-private,
+ * so this class needs bcprov on the class path (not the module path) and only runs on the release it
+ * was written against, {@value #SUPPORTED_BC_VERSION}; on any other the constructor fails.  Every
+ * signature is also checked with {@code SPHINCSPlusSigner.verifySignature} before it is returned, and
+ * one that fails is never released: a damaged cache or a change in the internals surfaces as an
+ * {@link IllegalStateException}.  That matters beyond availability, since a WOTS+ key that signed a
+ * wrong root would have signed two messages.
+ * <p>
+ * The cache can be persisted next to the key with {@link #open(SPHINCSPlusPrivateKeyParameters, int, Path)}
+ * and {@link #save(Path)}.  Tree nodes are public values, the same ones signatures carry in their
+ * authentication paths, so the file holds no secret; it is bound to its key by PK.seed and PK.root
+ * and protected by a CRC32C.  Format, big-endian:
+ * <pre>
+ * header  i64 magic "HTCACHE2", u8 name length, parameter set name (UTF-8), i32 n,
+ *         PK.seed (n bytes), PK.root (n bytes)
+ * tree    i32 layer, i64 tree address, (2^(h'+1) - 1) nodes of n bytes in heap order (root first)
+ * trailer i32 tree count, i32 CRC32C of everything before it
+ * </pre>
+ * Instances are thread-safe.
+ */
+public final class CachedHypertreeSigner {
+
+    /** File name suffix of a cache stored next to its key, see {@link #cacheFileFor(Path)}. */
+    public static final String CACHE_SUFFIX = ".htcache";
+
+    /** The bcprov release whose package-private SPHINCS+ classes this signer uses. */
+    public static final String SUPPORTED_BC_VERSION = "1.81.0";
+
+    /** Default number of trees kept below the top layer. */
+    public static final int DEFAULT_MAX_CACHED_TREES = 1024;
+
+    private static final long MAGIC = 0x4854434143484532L; // "HTCACHE2"
+
+    private final SPHINCSPlusParameters params;
+    private final SPHINCSPlusPublicKeyParameters publicKey;
+    private final byte[] skSeed;
+    private final byte[] skPrf;
+    private final byte[] pkSeed;
+    private final byte[] pkRoot;
+    private final int n;
+    private final int layers;
+    private final int treeHeight;
+    private final int cachedLayers;
+    private final int maxCachedTrees;
+    private volatile byte[] topTree;
+    /** Node arrays of cached trees below the top layer, least recently used first; guarded by itself. */
+    private final Map<TreeKey, byte[]> lowerTrees;
+
+    /**
+     * Create a signer that keeps up to {@link #DEFAULT_MAX_CACHED_TREES} trees below the top layer,
+     * and build the top layer's tree.
+     *
+     * @param privateKey   the key to sign with
+     * @param cachedLayers number of hypertree layers to cache, counted from the top, 1 to d
+     */
+    public CachedHypertreeSigner(SPHINCSPlusPrivateKeyParameters privateKey, int cachedLayers) {
+        this(privateKey, cachedLayers, DEFAULT_MAX_CACHED_TREES);
+    }
+
+    /**
+     * Create a signer and build the top layer's tree.
+     *
+     * @param privateKey     the key to sign with
+     * @param cachedLayers   number of hypertree layers to cache, counted from the top, 1 to d
+     * @param maxCachedTrees how many trees of the cached layers below the top are kept; the least
+     *                       recently used is evicted first
+     * @throws IllegalArgumentException if the layer count is out of range or the lowest cached layer
+     *                                  has more than 2^62 trees
+     * @throws IllegalStateException    if the BouncyCastle internals are not the supported ones
+     */
+    public CachedHypertreeSigner(SPHINCSPlusPrivateKeyParameters privateKey, int cachedLayers, int maxCachedTrees) {
+        this(privateKey, cachedLayers, maxCachedTrees, true);
+    }
+
+    private CachedHypertreeSigner(SPHINCSPlusPrivateKeyParameters privateKey, int cachedLayers, int maxCachedTrees,
+                                  boolean buildTop) {
+        requireSupportedBc();
+        this.params = privateKey.getParameters();
+        this.skSeed = privateKey.getSeed();
+        this.skPrf = privateKey.getPrf();
+        this.pkSeed = privateKey.getPublicSeed();
+        this.pkRoot = privateKey.getRoot();
+        this.publicKey = new SPHINCSPlusPublicKeyParameters(params, privateKey.getPublicKey());
+        Object engine = Bc.engine(params, pkSeed);
+        this.n = Bc.intField(engine, Bc.ENGINE_N);
+        this.layers = Bc.intField(engine, Bc.ENGINE_D);
+        this.treeHeight = Bc.intField(engine, Bc.ENGINE_H_PRIME);
+        if (cachedLayers < 1 || cachedLayers > layers) {
+            throw new IllegalArgumentException("cachedLayers must be between 1 and " + layers + ", got " + cachedLayers);
+        }
+        if ((long) (cachedLayers - 1) * treeHeight > 62) {
+            throw new IllegalArgumentException("Caching " + cachedLayers + " layers of height " + treeHeight
+                    + " would address more than 2^62 trees in the lowest one");
+        }
+        if (maxCachedTrees < 1) {
+            throw new IllegalArgumentException("maxCachedTrees must be positive");
+        }
+        this.cachedLayers = cachedLayers;
+        this.maxCachedTrees = maxCachedTrees;
+        this.lowerTrees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TreeKey, byte[]> eldest) {
+                return size() > maxCachedTrees;
+            }
+        };
+        if (buildTop) {
+            byte[] top = buildTree(engine, layers - 1, 0);
+            if (!Arrays.equals(root(top), pkRoot)) {
+                throw new IllegalStateException("Top tree root does not match the key's PK.root");
+            }
+            this.topTree = top;
+        }
+    }
+
+    /**
+     * Create a signer whose cache is loaded from a file if it exists, or built and written to it if it
+     * does not.  A file that is truncated or fails its checksum is rebuilt and overwritten.
+     *
+     * @param privateKey   the key to sign with
+     * @param cachedLayers number of hypertree layers to cache, counted from the top, 1 to d
+     * @param cacheFile    where the cache is kept, typically {@link #cacheFileFor(Path)} of the key file
+     * @return the signer, keeping up to {@link #DEFAULT_MAX_CACHED_TREES} trees below the top layer
+     * @throws IOException              if the file cannot be read or written
+     * @throws IllegalArgumentException if the file holds the cache of a different key or parameter set
+     */
+    public static CachedHypertreeSigner open(SPHINCSPlusPrivateKeyParameters privateKey, int cachedLayers,
+                                             Path cacheFile) throws IOException {
+        CachedHypertreeSigner signer = null;
+        if (Files.exists(cacheFile)) {
+            signer = load(privateKey, cachedLayers, Files.readAllBytes(cacheFile));
+        }
+        if (signer == null) {
+            signer = new CachedHypertreeSigner(privateKey, cachedLayers);
+            signer.save(cacheFile);
+        }
+        return signer;
+    }
+
+    /**
+     * @param keyFile a file the private key is stored in
+     * @return the file its hypertree cache is stored in, next to it
+     */
+    public static Path cacheFileFor(Path keyFile) {
+        return keyFile.resolveSibling(keyFile.getFileName() + CACHE_SUFFIX);
+    }
+
+    /**
+     * Sign deterministically, as {@code SPHINCSPlusSigner} initialised without a {@code SecureRandom}.
+     *
+     * @param message the message to sign
+     * @return the SPHINCS+ signature
+     * @throws IllegalStateException if the signature fails to verify, see the class description
+     */
+    public byte[] sign(byte[] message) {
+        return sign(message, pkSeed.clone());
+    }
+
+    /**
+     * Sign with fresh randomness in the message randomizer, as {@code SPHINCSPlusSigner} initialised
+     * with {@code ParametersWithRandom}.
+     *
+     * @param message the message to sign
+     * @param random  source of the randomizer's {@code opt} input
+     * @return the SPHINCS+ signature
+     * @throws IllegalStateException if the signature fails to verify, see the class description
+     */
+    public byte[] sign(byte[] message, SecureRandom random) {
+        byte[] opt = new byte[n];
+        random.nextBytes(opt);
+        return sign(message, opt);
+    }
+
+    /**
+     * Build every tree of the cached layers that is not cached yet, so that no signature pays for one.
+     * The layer {@code l} levels below the top has {@code 2^(l h')} trees.
+     *
+     * @throws IllegalStateException if the cached layers have more trees than the cache keeps
+     */
+    public void precompute() {
+        long needed = 0;
+        for (int below = 1; below < cachedLayers; below++) {
+            needed += 1L << (below * treeHeight);
+        }
+        if (needed > maxCachedTrees) {
+            throw new IllegalStateException("The cached layers have " + needed + " trees below the top, the cache keeps "
+                    + maxCachedTrees);
+        }
+        Object engine = Bc.engine(params, pkSeed);
+        for (int layer = layers - 2; layer >= layers - cachedLayers; layer--) {
+            long count = 1L << ((layers - 1 - layer) * treeHeight);
+            for (long tree = 0; tree < count; tree++) {
+                tree(engine, layer, tree);
+            }
+        }
+    }
+
+    /**
+     * Write the cached trees to a file, replacing it atomically.
+     *
+     * @param cacheFile where to write
+     * @throws IOException if writing fails
+     */
+    public void save(Path cacheFile) throws IOException {
+        int nodeBytes = ((2 << treeHeight) - 1) * n;
+        List<Map.Entry<TreeKey, byte[]>> entries = new ArrayList<>();
+        entries.add(Map.entry(new TreeKey(layers - 1, 0), topTree));
+        synchronized (lowerTrees) {
+            for (Map.Entry<TreeKey, byte[]> e : lowerTrees.entrySet()) {
+                entries.add(Map.entry(e.getKey(), e.getValue()));
+            }
+        }
+        byte[] name = params.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(8 + 1 + name.length + 4 + 2 * n + entries.size() * (12 + nodeBytes) + 8);
+        buf.putLong(MAGIC).put((byte) name.length).put(name).putInt(n).put(pkSeed).put(pkRoot);
+        for (Map.Entry<TreeKey, byte[]> e : entries) {
+            buf.putInt(e.getKey().layer()).putLong(e.getKey().tree()).put(e.getValue());
+        }
+        buf.putInt(entries.size());
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+
+        Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        Files.write(tmp, buf.array());
+        Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** @return the number of hypertree layers d of the key's parameter set */
+    public int layers() {
+        return layers;
+    }
+
+    /** @return the height h' of each XMSS tree of the hypertree */
+    public int treeHeight() {
+        return treeHeight;
+    }
+
+    /** @return the number of hypertree layers cached, counted from the top */
+    public int cachedLayers() {
+        return cachedLayers;
+    }
+
+    /** @return the number of XMSS trees currently cached, the top tree included */
+    public int cachedTrees() {
+        synchronized (lowerTrees) {
+            return 1 + lowerTrees.size();
+        }
+    }
+
+    /** @return the bytes of tree nodes currently cached */
+    public long cachedBytes() {
+        return (long) cachedTrees() * ((2 << treeHeight) - 1) * n;
+    }
+
+    private byte[] sign(byte[] message, byte[] opt) {
+        Object engine = Bc.engine(params, pkSeed);
+        byte[] r = Bc.prfMsg(engine, skPrf, opt, message);
+        Object digest = Bc.hMsg(engine, r, pkSeed, pkRoot, message);
+        byte[] md = (byte[]) Bc.get(Bc.DIGEST_MD, digest);
+        long idxTree = (long) Bc.get(Bc.DIGEST_TREE, digest);
+        int idxLeaf = (int) Bc.get(Bc.DIGEST_LEAF, digest);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(r);
+
+        // FORS signature and public key, as SPHINCSPlusSigner
+        Object fors = Bc.newInstance(Bc.FORS, engine);
+        Object[] forsSig = (Object[]) Bc.call(Bc.FORS_SIGN, fors, md, skSeed, pkSeed, Bc.forsAdrs(idxTree, idxLeaf));
+        for (Object s : forsSig) {
+            out.writeBytes((byte[]) Bc.get(Bc.SIG_FORS_SK, s));
+            for (byte[] node : (byte[][]) Bc.get(Bc.SIG_FORS_AUTH, s)) {
+                out.writeBytes(node);
+            }
+        }
+        byte[] root = (byte[]) Bc.call(Bc.FORS_PK_FROM_SIG, fors, forsSig, md, pkSeed, Bc.forsAdrs(idxTree, idxLeaf));
+
+        // Hypertree, walking up as HT.sign: a WOTS+ signature of the root below, then the auth path of
+        // its leaf in this layer's tree, which only the uncached layers build
+        Object wots = Bc.newInstance(Bc.WOTS, engine);
+        long tree = idxTree;
+        int leaf = idxLeaf;
+        int mask = (1 << treeHeight) - 1;
+        for (int layer = 0; layer < layers; layer++) {
+            if (layer > 0) {
+                leaf = (int) (tree & mask);
+                tree >>>= treeHeight;
+            }
+            byte[] nodes = layer >= layers - cachedLayers ? tree(engine, layer, tree) : buildTree(engine, layer, tree);
+            Object adrs = Bc.adrs(layer, tree);
+            Bc.call(Bc.ADRS_TYPE, adrs, Bc.WOTS_HASH);
+            Bc.call(Bc.ADRS_KEYPAIR, adrs, leaf);
+            out.writeBytes((byte[]) Bc.call(Bc.WOTS_SIGN, wots, root, skSeed, pkSeed, adrs));
+            for (int h = 0, k = (1 << treeHeight) + leaf; h < treeHeight; h++, k >>>= 1) {
+                out.write(nodes, ((k ^ 1) - 1) * n, n);
+            }
+            root = root(nodes);
+        }
+        byte[] signature = out.toByteArray();
+
+        SPHINCSPlusSigner verifier = new SPHINCSPlusSigner();
+        verifier.init(false, publicKey);
+        if (!verifier.verifySignature(message, signature)) {
+            synchronized (lowerTrees) {
+                lowerTrees.clear(); // rebuilt on the next signature, in case a loaded tree was damaged
+            }
+            throw new IllegalStateException("Signature from the hypertree cache failed to verify; not released");
+        }
+        return signature;
+    }
+
+    /**
+     * @return the nodes of the XMSS tree at a cached layer and tree address, building it on a miss
+     */
+    private byte[] tree(Object engine, int layer, long tree) {
+        if (layer == layers - 1) {
+            return topTree;
+        }
+        TreeKey key = new TreeKey(layer, tree);
+        synchronized (lowerTrees) {
+            byte[] nodes = lowerTrees.get(key);
+            if (nodes != null) {
+                return nodes;
+            }
+        }
+        // Built outside the lock; two threads missing on the same tree both build it, with the same result
+        byte[] nodes = buildTree(engine, layer, tree);
+        synchronized (lowerTrees) {
+            lowerTrees.put(key, nodes);
+        }
+        return nodes;
+    }
+
+    private byte[] root(byte[] nodes) {
+        return Arrays.copyOf(nodes, n);
+    }
+
+    /**
+     * Build all nodes of one XMSS tree in heap order, node {@code k} (1-based, root 1, leaf {@code i}
+     * at {@code 2^h' + i}) at offset {@code (k - 1) n}.  Addresses are set as HT.treehash sets them.
+     */
+    private byte[] buildTree(Object engine, int layer, long tree) {
+        Object wots = Bc.newInstance(Bc.WOTS, engine);
+        int leaves = 1 << treeHeight;
+        byte[] nodes = new byte[(2 * leaves - 1) * n];
+        for (int i = 0; i < leaves; i++) {
+            Object adrs = Bc.adrs(layer, tree);
+            Bc.call(Bc.ADRS_TYPE, adrs, Bc.WOTS_HASH);
+            Bc.call(Bc.ADRS_KEYPAIR, adrs, i);
+            byte[] pk = (byte[]) Bc.call(Bc.WOTS_PK_GEN, wots, skSeed, pkSeed, adrs);
+            System.arraycopy(pk, 0, nodes, (leaves + i - 1) * n, n);
+        }
+        for (int k = leaves - 1; k >= 1; k--) {
+            int level = 31 - Integer.numberOfLeadingZeros(k);
+            Object adrs = Bc.adrs(layer, tree);
+            Bc.call(Bc.ADRS_TYPE, adrs, Bc.TREE);
+            Bc.call(Bc.ADRS_HEIGHT, adrs, treeHeight - level);
+            Bc.call(Bc.ADRS_INDEX, adrs, k - (1 << level));
+            byte[] left = Arrays.copyOfRange(nodes, (2 * k - 1) * n, 2 * k * n);
+            byte[] right = Arrays.copyOfRange(nodes, 2 * k * n, (2 * k + 1) * n);
+            byte[] parent = (byte[]) Bc.call(Bc.ENGINE_H, engine, pkSeed, adrs, left, right);
+            System.arraycopy(parent, 0, nodes, (k - 1) * n, n);
+        }
+        return nodes;
+    }
+
+    /**
+     * @return a signer holding the file's trees of its cached layers, or null if the file is damaged
+     * and must be rebuilt
+     */
+    private static CachedHypertreeSigner load(SPHINCSPlusPrivateKeyParameters privateKey, int cachedLayers,
+                                              byte[] file) {
+        ByteBuffer buf = ByteBuffer.wrap(file);
+        if (file.length < 8 + 1 + 4 + 8 || buf.getLong() != MAGIC) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(file, 0, file.length - 4);
+        if ((int) crc.getValue() != buf.getInt(file.length - 4)) {
+            return null;
+        }
+        byte[] name = new byte[buf.get() & 0xff];
+        if (buf.remaining() < name.length + 4 + 8) {
+            return null;
+        }
+        buf.get(name);
+        String fileParams = new String(name, StandardCharsets.UTF_8);
+        if (!fileParams.equals(privateKey.getParameters().getName())) {
+            throw new IllegalArgumentException("Cache file is for parameter set " + fileParams
+                    + ", key uses " + privateKey.getParameters().getName());
+        }
+        CachedHypertreeSigner signer = new CachedHypertreeSigner(privateKey, cachedLayers, DEFAULT_MAX_CACHED_TREES, false);
+        int n = signer.n;
+        byte[] seed = new byte[n];
+        byte[] root = new byte[n];
+        if (buf.getInt() != n || buf.remaining() < 2 * n + 8) {
+            return null;
+        }
+        buf.get(seed).get(root);
+        if (!Arrays.equals(seed, signer.pkSeed) || !Arrays.equals(root, signer.pkRoot)) {
+            throw new IllegalArgumentException("Cache file belongs to a different key");
+        }
+
+        int nodeBytes = ((2 << signer.treeHeight) - 1) * n;
+        int count = buf.getInt(file.length - 8);
+        if (count < 0 || buf.remaining() - 8 != (long) count * (12 + nodeBytes)) {
+            return null;
+        }
+        int top = signer.layers - 1;
+        for (int i = 0; i < count; i++) {
+            int layer = buf.getInt();
+            long tree = buf.getLong();
+            byte[] nodes = new byte[nodeBytes];
+            buf.get(nodes);
+            if (layer == top && tree == 0) {
+                signer.topTree = nodes;
+            } else if (layer >= signer.layers - cachedLayers && layer < top
+                    && tree >= 0 && tree < 1L << ((top - layer) * signer.treeHeight)) {
+                synchronized (signer.lowerTrees) {
+                    signer.lowerTrees.put(new TreeKey(layer, tree), nodes); // layers beyond ours are dropped
+                }
+            }
+        }
+        return signer.topTree != null && Arrays.equals(signer.root(signer.topTree), signer.pkRoot) ? signer : null;
+    }
+
+    /**
+     * Fail closed on any bcprov other than the one whose internals {@link Bc} was written against.
+     */
+    private static void requireSupportedBc() {
+        String version = SPHINCSPlusParameters.class.getPackage().getImplementationVersion();
+        if (!SUPPORTED_BC_VERSION.equals(version)) {
+            throw new IllegalStateException("CachedHypertreeSigner requires bcprov " + SUPPORTED_BC_VERSION + ", found " + version);
+        }
+    }
+
+    /**
+     * Position of an XMSS tree in the hypertree.
+     */
+    private record TreeKey(int layer, long tree) {}
+
+    /**
+     * Reflective access to the package-private SPHINCS+ building blocks of BouncyCastle.
+     */
+    private static final class Bc {
+        private static final String PKG = "org.bouncycastle.pqc.crypto.sphincsplus.";
+
+        static final int WOTS_HASH = 0;
+        static final int TREE = 2;
+        static final int FORS_TREE = 3;
+
+        static final Method PARAMS_ENGINE;
+        static final Method ENGINE_INIT;
+        static final Method ENGINE_H;
+        static final Method ENGINE_H_MSG;
+        static final Method ENGINE_PRF_MSG;
+        static final Field ENGINE_N;
+        static final Field ENGINE_D;
+        static final Field ENGINE_H_PRIME;
+        static final Field DIGEST_MD;
+        static final Field DIGEST_TREE;
+        static final Field DIGEST_LEAF;
+        static final Constructor<?> ADRS;
+        static final Method ADRS_LAYER;
+        static final Method ADRS_TREE;
+        static final Method ADRS_TYPE;
+        static final Method ADRS_KEYPAIR;
+        static final Method ADRS_HEIGHT;
+        static final Method ADRS_INDEX;
+        static final Constructor<?> FORS;
+        static final Method FORS_SIGN;
+        static final Method FORS_PK_FROM_SIG;
+        static final Field SIG_FORS_SK;
+        static final Field SIG_FORS_AUTH;
+        static final Constructor<?> WOTS;
+        static final Method WOTS_PK_GEN;
+        static final Method WOTS_SIGN;
+
+        static {
+            try {
+                Class<?> engine = Class.forName(PKG + "SPHINCSPlusEngine");
+                Class<?> digest = Class.forName(PKG + "IndexedDigest");
+                Class<?> adrs = Class.forName(PKG + "ADRS");
+                Class<?> fors = Class.forName(PKG + "Fors");
+                Class<?> sigFors = Class.forName(PKG + "SIG_FORS");
+                Class<?> wots = Class.forName(PKG + "WotsPlus");
+                Class<?> sigForsArray = sigFors.arrayType();
+
+                PARAMS_ENGINE = open(SPHINCSPlusParameters.class.getDeclaredMethod("getEngine"));
+                ENGINE_INIT = open(engine.getDeclaredMethod("init", byte[].class));
+                ENGINE_H = open(engine.getDeclaredMethod("H", byte[].class, adrs, byte[].class, byte[].class));
+                ENGINE_H_MSG = open(engine.getDeclaredMethod("H_msg", byte[].class, byte[].class, byte[].class, byte[].class));
+                ENGINE_PRF_MSG = open(engine.getDeclaredMethod("PRF_msg", byte[].class, byte[].class, byte[].class));
+                ENGINE_N = open(engine.getDeclaredField("N"));
+                ENGINE_D = open(engine.getDeclaredField("D"));
+                ENGINE_H_PRIME = open(engine.getDeclaredField("H_PRIME"));
+                DIGEST_MD = open(digest.getDeclaredField("digest"));
+                DIGEST_TREE = open(digest.getDeclaredField("idx_tree"));
+                DIGEST_LEAF = open(digest.getDeclaredField("idx_leaf"));
+                ADRS = open(adrs.getDeclaredConstructor());
+                ADRS_LAYER = open(adrs.getDeclaredMethod("setLayerAddress", int.class));
+                ADRS_TREE = open(adrs.getDeclaredMethod("setTreeAddress", long.class));
+                ADRS_TYPE = open(adrs.getDeclaredMethod("setTypeAndClear", int.class));
+                ADRS_KEYPAIR = open(adrs.getDeclaredMethod("setKeyPairAddress", int.class));
+                ADRS_HEIGHT = open(adrs.getDeclaredMethod("setTreeHeight", int.class));
+                ADRS_INDEX = open(adrs.getDeclaredMethod("setTreeIndex", int.class));
+                FORS = open(fors.getDeclaredConstructor(engine));
+                FORS_SIGN = open(fors.getDeclaredMethod("sign", byte[].class, byte[].class, byte[].class, adrs));
+                FORS_PK_FROM_SIG = open(fors.getDeclaredMethod("pkFromSig", sigForsArray, byte[].class, byte[].class, adrs));
+                SIG_FORS_SK = open(sigFors.getDeclaredField("sk"));
+                SIG_FORS_AUTH = open(sigFors.getDeclaredField("authPath"));
+                WOTS = open(wots.getDeclaredConstructor(engine));
+                WOTS_PK_GEN = open(wots.getDeclaredMethod("pkGen", byte[].class, byte[].class, adrs));
+                WOTS_SIGN = open(wots.getDeclaredMethod("sign", byte[].class, byte[].class, byte[].class, adrs));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new ExceptionInInitializerError(
+                        new IllegalStateException("BouncyCastle SPHINCS+ internals are not accessible", e));
+            }
+        }
+
+        private Bc() {}
+
+        /** @return a fresh engine for the parameter set, initialised with PK.seed; engines are not thread-safe */
+        static Object engine(SPHINCSPlusParameters params, byte[] pkSeed) {
+            Object engine = call(PARAMS_ENGINE, params);
+            call(ENGINE_INIT, engine, (Object) pkSeed);
+            return engine;
+        }
+
+        static byte[] prfMsg(Object engine, byte[] prf, byte[] opt, byte[] message) {
+            return (byte[]) call(ENGINE_PRF_MSG, engine, prf, opt, message);
+        }
+
+        static Object hMsg(Object engine, byte[] r, byte[] pkSeed, byte[] pkRoot, byte[] message) {
+            return call(ENGINE_H_MSG, engine, r, pkSeed, pkRoot, message);
+        }
+
+        /** @return a hash-type address with the given layer and tree address */
+        static Object adrs(int layer, long tree) {
+            Object adrs = newInstance(ADRS);
+            call(ADRS_LAYER, adrs, layer);
+            call(ADRS_TREE, adrs, tree);
+            return adrs;
+        }
+
+        /** @return a FORS-tree address for the FORS key pair at a hypertree leaf */
+        static Object forsAdrs(long tree, int leaf) {
+            Object adrs = newInstance(ADRS);
+            call(ADRS_TYPE, adrs, FORS_TREE);
+            call(ADRS_TREE, adrs, tree);
+            call(ADRS_KEYPAIR, adrs, leaf);
+            return adrs;
+        }
+
+        static int intField(Object target, Field field) {
+            return (int) get(field, target);
+        }
+
+        static Object get(Field field, Object target) {
+            try {
+                return field.get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        static Object call(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+            }
+        }
+
+        static Object newInstance(Constructor<?> constructor, Object... args) {
+            try {
+                return constructor.newInstance(args);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static <T extends AccessibleObject> T open(T member) {
+            member.setAccessible(true);
+            return member;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package dev.arpan.sphincs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The subset of CBOR (RFC 8949) needed for COSE: integers, byte and text strings, arrays, maps, tags
+ * and the simple values false, true and null, all in definite-length form.
+ * <p>
+ * {@link Writer} always emits the shortest head for an argument, which is the deterministic encoding
+ * COSE requires for the signed protected header.  {@link Reader} rejects indefinite lengths,
+ * floats, truncated input and items nested deeper than {@value #MAX_NESTING} levels with
+ * {@link IllegalArgumentException}.
+ */
+public final class Cbor {
+
+    /** Major type 0: unsigned integer. */
+    public static final int UNSIGNED = 0;
+    /** Major type 1: negative integer, -1 - argument. */
+    public static final int NEGATIVE = 1;
+    /** Major type 2: byte string. */
+    public static final int BYTES = 2;
+    /** Major type 3: UTF-8 text string. */
+    public static final int TEXT = 3;
+    /** Major type 4: array. */
+    public static final int ARRAY = 4;
+    /** Major type 5: map. */
+    public static final int MAP = 5;
+    /** Major type 6: tag. */
+    public static final int TAG = 6;
+    /** Major type 7: simple values and floats. */
+    public static final int SIMPLE = 7;
+
+    /** Deepest nesting of arrays, maps and tags that {@link Reader#skip()} follows. */
+    public static final int MAX_NESTING = 16;
+
+    private static final int FALSE = 20;
+    private static final int TRUE = 21;
+    private static final int NULL = 22;
+
+    private Cbor() {
+    }
+
+    /**
+     * Appends CBOR items to a growable byte array.
+     */
+    public static final class Writer {
+        private byte[] buf;
+        private int size;
+
+        public Writer() {
+            this(256);
+        }
+
+        /**
+         * @param initialCapacity starting size of the buffer in bytes
+         */
+        public Writer(int initialCapacity) {
+            this.buf = new byte[Math.max(16, initialCapacity)];
+        }
+
+        /** Write an integer as major type 0 or 1. */
+        public Writer integer(long value) {
+            return value >= 0 ? head(UNSIGNED, value) : head(NEGATIVE, -1 - value);
+        }
+
+        /** Write a byte string. */
+        public Writer bytes(byte[] value) {
+            return bytes(value, 0, value.length);
+        }
+
+        /** Write {@code len} bytes of {@code value} as one byte string. */
+        public Writer bytes(byte[] value, int offset, int len) {
+            head(BYTES, len);
+            return raw(value, offset, len);
+        }
+
+        /** Write a text string. */
+        public Writer text(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            head(TEXT, utf8.length);
+            return raw(utf8, 0, utf8.length);
+        }
+
+        /** Start an array of {@code count} items; the items follow. */
+        public Writer array(int count) {
+            return head(ARRAY, count);
+        }
+
+        /** Start a map of {@code count} key/value pairs; the pairs follow. */
+        public Writer map(int count) {
+            return head(MAP, count);
+        }
+
+        /** Tag the item that follows. */
+        public Writer tag(long tag) {
+            return head(TAG, tag);
+        }
+
+        /** Write true or false. */
+        public Writer bool(boolean value) {
+            ensure(1);
+            buf[size++] = (byte) (SIMPLE << 5 | (value ? TRUE : FALSE));
+            return this;
+        }
+
+        /** Write null. */
+        public Writer nil() {
+            ensure(1);
+            buf[size++] = (byte) (SIMPLE << 5 | NULL);
+            return this;
+        }
+
+        /** Append already-encoded CBOR. */
+        public Writer raw(byte[] encoded, int offset, int len) {
+            ensure(len);
+            System.arraycopy(encoded, offset, buf, size, len);
+            size += len;
+            return this;
+        }
+
+        /** @return the number of bytes written so far */
+        public int size() {
+            return size;
+        }
+
+        /** Forget everything written, keeping the buffer. */
+        public Writer reset() {
+            size = 0;
+            return this;
+        }
+
+        /** @return a copy of the bytes written */
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        // Shortest-form head: the argument inline below 24, otherwise in 1, 2, 4 or 8 following bytes
+        private Writer head(int major, long argument) {
+            ensure(9);
+            int mt = major << 5;
+            if (argument < 24 && argument >= 0) {
+                buf[size++] = (byte) (mt | argument);
+            } else if (argument >= 0 && argument < 0x100) {
+                buf[size++] = (byte) (mt | 24);
+                buf[size++] = (byte) argument;
+            } else if (argument >= 0 && argument < 0x10000) {
+                buf[size++] = (byte) (mt | 25);
+                putBigEndian(argument, 2);
+            } else if (argument >= 0 && argument < 0x1_0000_0000L) {
+                buf[size++] = (byte) (mt | 26);
+                putBigEndian(argument, 4);
+            } else {
+                // Arguments at or above 2^63 arrive here as negative longs and are written unsigned
+                buf[size++] = (byte) (mt | 27);
+                putBigEndian(argument, 8);
+            }
+            return this;
+        }
+
+        private void putBigEndian(long value, int bytes) {
+            for (int i = bytes - 1; i >= 0; i--) {
+                buf[size++] = (byte) (value >>> (8 * i));
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads CBOR items sequentially from a byte array.
+     */
+    public static final class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        public Reader(byte[] encoded) {
+            this(encoded, 0, encoded.length);
+        }
+
+        /**
+         * @param encoded buffer holding the items
+         * @param offset  where the first item starts
+         * @param len     number of bytes that may be read
+         */
+        public Reader(byte[] encoded, int offset, int len) {
+            this.buf = encoded;
+            this.pos = offset;
+            this.end = offset + len;
+        }
+
+        /** @return the major type of the next item, without consuming it */
+        public int peekType() {
+            need(1);
+            return (buf[pos] & 0xff) >>> 5;
+        }
+
+        /** @return whether the next item is null, without consuming it */
+        public boolean peekNull() {
+            need(1);
+            return (buf[pos] & 0xff) == (SIMPLE << 5 | NULL);
+        }
+
+        /** Read an integer of major type 0 or 1. */
+        public long integer() {
+            int major = peekType();
+            if (major == UNSIGNED) {
+                return checkedLong(argument(UNSIGNED));
+            }
+            return -1 - checkedLong(argument(NEGATIVE));
+        }
+
+        /** Read a byte string into a new array. */
+        public byte[] bytes() {
+            int len = length(BYTES);
+            byte[] out = Arrays.copyOfRange(buf, pos, pos + len);
+            pos += len;
+            return out;
+        }
+
+        /**
+         * Skip over a byte string and return the offset of its contents; its length is
+         * {@code position() - offset} afterwards.
+         */
+        public int bytesOffset() {
+            int len = length(BYTES);
+            int start = pos;
+            pos += len;
+            return start;
+        }
+
+        /** Read a text string. */
+        public String text() {
+            int len = length(TEXT);
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        /** Read an array head and return the number of items that follow. */
+        public int array() {
+            return count(ARRAY);
+        }
+
+        /** Read a map head and return the number of key/value pairs that follow. */
+        public int map() {
+            return count(MAP);
+        }
+
+        /** Read a tag and return its number. */
+        public long tag() {
+            return argument(TAG);
+        }
+
+        /** Read true or false. */
+        public boolean bool() {
+            need(1);
+            int b = buf[pos] & 0xff;
+            if (b != (SIMPLE << 5 | TRUE) && b != (SIMPLE << 5 | FALSE)) {
+                throw new IllegalArgumentException("Expected a boolean at offset " + pos);
+            }
+            pos++;
+            return b == (SIMPLE << 5 | TRUE);
+        }
+
+        /** Read null. */
+        public void nil() {
+            if (!peekNull()) {
+                throw new IllegalArgumentException("Expected null at offset " + pos);
+            }
+            pos++;
+        }
+
+        /**
+         * Skip one complete item, including everything nested in it.
+         *
+         * @throws IllegalArgumentException if the item is malformed or nested deeper than
+         *                                  {@value #MAX_NESTING} levels
+         */
+        public void skip() {
+            skip(0);
+        }
+
+        private void skip(int depth) {
+            if (depth > MAX_NESTING) {
+                throw new IllegalArgumentException("Items nested deeper than " + MAX_NESTING + " levels at offset " + pos);
+            }
+            int major = peekType();
+            switch (major) {
+                case UNSIGNED, NEGATIVE -> argument(major);
+                case BYTES, TEXT -> pos += length(major);
+                case ARRAY -> {
+                    int n = count(ARRAY);
+                    for (int i = 0; i < n; i++) {
+                        skip(depth + 1);
+                    }
+                }
+                case MAP -> {
+                    int n = count(MAP);
+                    for (int i = 0; i < 2 * n; i++) {
+                        skip(depth + 1);
+                    }
+                }
+                case TAG -> {
+                    argument(TAG);
+                    skip(depth + 1);
+                }
+                default -> {
+                    int info = buf[pos] & 0x1f;
+                    if (info != FALSE && info != TRUE && info != NULL) {
+                        throw new IllegalArgumentException("Unsupported simple value or float at offset " + pos);
+                    }
+                    pos++;
+                }
+            }
+        }
+
+        /** @return the offset of the next unread byte */
+        public int position() {
+            return pos;
+        }
+
+        /** @return whether every byte has been consumed */
+        public boolean atEnd() {
+            return pos == end;
+        }
+
+        private int count(int major) {
+            long n = argument(major);
+            // Each item takes at least one byte, which bounds any honest count by the bytes left
+            if (n < 0 || n > end - pos) {
+                throw new IllegalArgumentException("Count " + Long.toUnsignedString(n) + " exceeds the input");
+            }
+            return (int) n;
+        }
+
+        private int length(int major) {
+            long len = argument(major);
+            if (len < 0 || len > end - pos) {
+                throw new IllegalArgumentException("Length " + Long.toUnsignedString(len) + " exceeds the input");
+            }
+            return (int) len;
+        }
+
+        private long argument(int major) {
+            need(1);
+            int initial = buf[pos] & 0xff;
+            if (initial >>> 5 != major) {
+                throw new IllegalArgumentException("Expected major type " + major + " but found " + (initial >>> 5)
+                        + " at offset " + pos);
+            }
+            int info = initial & 0x1f;
+            pos++;
+            if (info < 24) {
+                return info;
+            }
+            int bytes = switch (info) {
+                case 24 -> 1;
+                case 25 -> 2;
+                case 26 -> 4;
+                case 27 -> 8;
+                default -> throw new IllegalArgumentException("Indefinite or reserved length at offset " + (pos - 1));
+            };
+            need(bytes);
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (buf[pos++] & 0xff);
+            }
+            return value;
+        }
+
+        private static long checkedLong(long argument) {
+            if (argument < 0) {
+                throw new IllegalArgumentException("Integer does not fit in a long");
+            }
+            return argument;
+        }
+
+        private void need(int bytes) {
+            if (end - pos < bytes) {
+                throw new IllegalArgumentException("Truncated CBOR at offset " + pos);
+            }
+        }
+    }
+}
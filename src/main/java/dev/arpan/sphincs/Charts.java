@@ -49,7 +49,7 @@ public class Charts {
                 .build();
         chart.addSeries("Signature Size", names, sigSizes);
         chart.getStyler().setLegendVisible(false);
-        chart.getStyler().setHasAnnotations(true);
+        chart.getStyler().setLabelsVisible(true);
         chart.getStyler().setPlotGridLinesVisible(false);
         chart.getStyler().setAvailableSpaceFill(0.8);
 
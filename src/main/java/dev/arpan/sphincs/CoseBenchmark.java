@@ -0,0 +1,221 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Bytes and encode/decode time per message for three encodings of the same batch message (shared
+ * root signature plus inclusion proof): {@link CoseSign1}, the raw {@link BatchEnvelope} and
+ * base64 fields in a JSON object.  Batch sizes are those of the {@link MerkleBatchSigner} summary.
+ * <p>
+ * Each batch root is really signed with SPHINCS+-SHAKE-128s and the first messages are verified
+ * end to end from their COSE encoding before timing.  The JSON decoder only scans for the fields it
+ * wrote, so it is a lower bound on what a general JSON parser would cost.
+ */
+public class CoseBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.shake_128s;
+    private static final byte[] KEY_ID = "batch-key-1".getBytes(StandardCharsets.UTF_8);
+    private static final int VERIFIED_MESSAGES = 8;
+    private static final int WARMUP = 20_000;
+    private static final int MEASURED = 100_000;
+
+    // Decoded values are summed into this so the JIT cannot drop the decode loops
+    private static volatile long consumed;
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Encode and decode messages of every summary batch size in each format and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_cose_encoding.csv");
+        Files.writeString(csv, "batch_size,format,bytes_per_msg,non_signature_bytes,encode_ns,decode_ns\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
+        SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+        signer.init(true, kp.getPrivate());
+
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+
+        for (int n : MerkleBatchSigner.SUMMARY_BATCH_SIZES) {
+            List<byte[]> leaves = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                leaves.add(family.hasher().hashLeaf(("message-" + i).getBytes(StandardCharsets.UTF_8)));
+            }
+            MerkleTree tree = MerkleTree.build(leaves, family);
+            byte[] protectedHeader = CoseSign1.protectedHeader(PARAMS, family, n);
+            byte[] signature = signer.generateSignature(CoseSign1.toBeSigned(protectedHeader, tree.root()));
+
+            BatchEnvelopeVerifier roots = new BatchEnvelopeVerifier();
+            for (int i = 0; i < Math.min(n, VERIFIED_MESSAGES); i++) {
+                CoseSign1.Message m = CoseSign1.decode(CoseSign1.encode(protectedHeader, KEY_ID, tree, i, signature));
+                if (!CoseSign1.verify(roots, pk, leaves.get(i), m)) {
+                    throw new IllegalStateException("COSE message " + i + " of batch " + n + " failed to verify");
+                }
+            }
+
+            measureCose(csv, tree, protectedHeader, signature);
+            measureBinary(csv, tree, signature);
+            measureJson(csv, tree, signature);
+        }
+    }
+
+    private static void measureCose(Path csv, MerkleTree tree, byte[] protectedHeader, byte[] signature) throws IOException {
+        int n = tree.leafCount();
+        Cbor.Writer out = new Cbor.Writer(signature.length + 512);
+        byte[] sample = CoseSign1.encode(protectedHeader, KEY_ID, tree, 0, signature);
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += CoseSign1.encode(out.reset(), protectedHeader, KEY_ID, tree, i % n, signature).size();
+            sink += CoseSign1.decode(sample).leafIndex();
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += CoseSign1.encode(out.reset(), protectedHeader, KEY_ID, tree, i % n, signature).size();
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += CoseSign1.decode(sample).leafIndex();
+        }
+        long t2 = System.nanoTime();
+        record(csv, n, "cose_sign1", sample.length, signature.length, t1 - t0, t2 - t1, sink);
+    }
+
+    private static void measureBinary(Path csv, MerkleTree tree, byte[] signature) throws IOException {
+        int n = tree.leafCount();
+        int len = BatchEnvelope.encodedLength(tree.family(), tree.height(), signature.length);
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        BatchEnvelope env = new BatchEnvelope();
+        byte[] path = new byte[tree.height() * tree.nodeLength()];
+        byte[] sig = new byte[signature.length];
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            buf.clear();
+            sink += BatchEnvelope.encode(buf, 1, 1, tree, i % n, signature);
+            sink += decodeBinary(env, buf, path, sig);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            buf.clear();
+            sink += BatchEnvelope.encode(buf, 1, 1, tree, i % n, signature);
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += decodeBinary(env, buf, path, sig);
+        }
+        long t2 = System.nanoTime();
+        record(csv, n, "raw_binary", len, signature.length, t1 - t0, t2 - t1, sink);
+    }
+
+    // Copy out the same fields the COSE decoder returns, into reused arrays
+    private static long decodeBinary(BatchEnvelope env, ByteBuffer buf, byte[] path, byte[] sig) {
+        env.wrap(buf, 0);
+        env.copyPath(path, 0);
+        env.copySignature(sig, 0);
+        return env.leafIndex() + path[0] + sig[0];
+    }
+
+    private static void measureJson(Path csv, MerkleTree tree, byte[] signature) throws IOException {
+        int n = tree.leafCount();
+        int nodeLen = tree.nodeLength();
+        byte[] sample = jsonEncode(tree, 0, signature);
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += jsonEncode(tree, i % n, signature).length;
+            sink += jsonDecode(sample, nodeLen);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += jsonEncode(tree, i % n, signature).length;
+        }
+        long t1 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += jsonDecode(sample, nodeLen);
+        }
+        long t2 = System.nanoTime();
+        record(csv, n, "base64_json", sample.length, signature.length, t1 - t0, t2 - t1, sink);
+    }
+
+    private static byte[] jsonEncode(MerkleTree tree, int leafIndex, byte[] signature) {
+        Base64.Encoder b64 = Base64.getEncoder();
+        StringBuilder sb = new StringBuilder(signature.length * 4 / 3 + 512);
+        sb.append("{\"alg\":\"SPHINCS+-").append(PARAMS.getName())
+                .append("\",\"hash\":").append(tree.family().id())
+                .append(",\"leaves\":").append(tree.leafCount())
+                .append(",\"kid\":\"").append(b64.encodeToString(KEY_ID))
+                .append("\",\"index\":").append(leafIndex)
+                .append(",\"path\":[");
+        byte[] path = tree.authPath(leafIndex);
+        int nodeLen = tree.nodeLength();
+        for (int level = 0; level < tree.height(); level++) {
+            if (level > 0) {
+                sb.append(',');
+            }
+            byte[] sibling = new byte[nodeLen];
+            System.arraycopy(path, level * nodeLen, sibling, 0, nodeLen);
+            sb.append('"').append(b64.encodeToString(sibling)).append('"');
+        }
+        sb.append("],\"sig\":\"").append(b64.encodeToString(signature)).append("\"}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Scan for the fields written by jsonEncode and decode them
+    private static long jsonDecode(byte[] encoded, int nodeLen) {
+        Base64.Decoder b64 = Base64.getDecoder();
+        String json = new String(encoded, StandardCharsets.UTF_8);
+        int idx = json.indexOf("\"index\":") + 8;
+        int index = Integer.parseInt(json, idx, json.indexOf(',', idx), 10);
+        int pathStart = json.indexOf('[', idx) + 1;
+        int pathEnd = json.indexOf(']', pathStart);
+        List<byte[]> path = new ArrayList<>();
+        for (int p = pathStart; p < pathEnd; ) {
+            int q = json.indexOf('"', p + 1);
+            byte[] sibling = b64.decode(json.substring(p + 1, q));
+            if (sibling.length != nodeLen) {
+                throw new IllegalStateException("Bad sibling length " + sibling.length);
+            }
+            path.add(sibling);
+            p = q + 2;
+        }
+        int sigStart = json.indexOf("\"sig\":\"", pathEnd) + 7;
+        byte[] sig = b64.decode(json.substring(sigStart, json.indexOf('"', sigStart)));
+        return index + path.size() + sig.length;
+    }
+
+    private static void record(Path csv, int n, String format, int bytes, int sigBytes, long encodeNanos, long decodeNanos,
+                               long sink) throws IOException {
+        consumed = sink;
+        double encNs = encodeNanos * 1.0 / MEASURED;
+        double decNs = decodeNanos * 1.0 / MEASURED;
+        String row = String.format(Locale.ROOT, "%d,%s,%d,%d,%.1f,%.1f%n", n, format, bytes, bytes - sigBytes, encNs, decNs);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-6d %-12s %6d B/msg (%4d B besides the signature)  encode=%8.1f ns  decode=%8.1f ns%n",
+                n, format, bytes, bytes - sigBytes, encNs, decNs);
+    }
+}
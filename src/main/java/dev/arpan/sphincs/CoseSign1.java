@@ -0,0 +1,240 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * COSE_Sign1 (RFC 9052) messages for Merkle batches: one SPHINCS+ signature over the batch root,
+ * carried by every message together with that message's inclusion proof.
+ * <p>
+ * The payload is detached: it is the batch root, which the receiver recomputes from its leaf and
+ * path, so it is encoded as null.  The protected header holds the algorithm, the Merkle hash family
+ * and the batch's leaf count and is therefore identical, and signed, for the whole batch; the
+ * unprotected header holds the key id and the per-message leaf index and packed path.  Since the
+ * Sig_structure covers only the protected header and the root, the same signature is valid in every
+ * message of the batch.  The signed leaf count fixes the path length, and a message whose path has
+ * any other length is rejected before the root is folded.
+ * <p>
+ * No COSE algorithm value is final for SPHINCS+, so the algorithm is the text string
+ * {@code "SPHINCS+-<parameter set>"}; the Merkle labels are in the private-use range.
+ */
+public final class CoseSign1 {
+
+    /** CBOR tag of a COSE_Sign1 message. */
+    public static final int TAG = 18;
+
+    /** Header label: algorithm. */
+    public static final long LABEL_ALG = 1;
+    /** Header label: key id. */
+    public static final long LABEL_KID = 4;
+    /** Private header label: leaf index of the message in its batch. */
+    public static final long LABEL_LEAF_INDEX = -65537;
+    /** Private header label: sibling hashes, packed back to back, leaf level first. */
+    public static final long LABEL_AUTH_PATH = -65538;
+    /** Private header label: {@link MerkleHashFamily#id()} of the batch tree. */
+    public static final long LABEL_HASH_FAMILY = -65539;
+    /** Private header label: number of leaves in the batch tree. */
+    public static final long LABEL_LEAF_COUNT = -65540;
+
+    private static final String ALG_PREFIX = "SPHINCS+-";
+
+    /**
+     * A decoded message.
+     *
+     * @param protectedHeader the serialized protected header, exactly as signed
+     * @param algorithm       the algorithm named in the protected header
+     * @param family          the Merkle hash family named in the protected header
+     * @param leafCount       the batch's leaf count from the protected header
+     * @param keyId           the key id, or an empty array if absent
+     * @param leafIndex       the message's leaf index
+     * @param authPath        the packed sibling hashes
+     * @param signature       the SPHINCS+ signature over the Sig_structure
+     */
+    public record Message(byte[] protectedHeader, String algorithm, MerkleHashFamily family, int leafCount,
+                          byte[] keyId, int leafIndex, byte[] authPath, byte[] signature) {
+
+        /** @return the number of sibling hashes */
+        public int depth() {
+            return authPath.length / family.length();
+        }
+    }
+
+    private CoseSign1() {
+    }
+
+    /**
+     * Serialize the protected header shared by every message of a batch.
+     *
+     * @param params    the parameter set the root is signed with
+     * @param family    the hash family of the batch tree
+     * @param leafCount the number of leaves in the batch tree
+     */
+    public static byte[] protectedHeader(SPHINCSPlusParameters params, MerkleHashFamily family, int leafCount) {
+        if (leafCount < 1) {
+            throw new IllegalArgumentException("A batch needs at least one leaf");
+        }
+        return new Cbor.Writer(64)
+                .map(3)
+                .integer(LABEL_ALG).text(ALG_PREFIX + params.getName())
+                .integer(LABEL_HASH_FAMILY).integer(family.id())
+                .integer(LABEL_LEAF_COUNT).integer(leafCount)
+                .toByteArray();
+    }
+
+    /**
+     * Build the Sig_structure ["Signature1", protected, external_aad = h'', payload = root] that the
+     * SPHINCS+ signature covers.
+     */
+    public static byte[] toBeSigned(byte[] protectedHeader, byte[] root) {
+        return new Cbor.Writer(protectedHeader.length + root.length + 24)
+                .array(4)
+                .text("Signature1")
+                .bytes(protectedHeader)
+                .bytes(new byte[0])
+                .bytes(root)
+                .toByteArray();
+    }
+
+    /**
+     * Encode the message of one leaf as a tagged COSE_Sign1 with a detached payload.
+     *
+     * @param protectedHeader the batch's protected header, see {@link #protectedHeader}
+     * @param keyId           the key id placed in the unprotected header
+     * @param tree            the batch tree
+     * @param leafIndex       the leaf whose message is encoded
+     * @param signature       the signature over {@link #toBeSigned} of the batch root
+     */
+    public static byte[] encode(byte[] protectedHeader, byte[] keyId, MerkleTree tree, int leafIndex, byte[] signature) {
+        return encode(new Cbor.Writer(protectedHeader.length + signature.length + tree.height() * tree.nodeLength() + 64),
+                protectedHeader, keyId, tree, leafIndex, signature).toByteArray();
+    }
+
+    /**
+     * Append the message of one leaf to {@code out}, so a writer can be {@link Cbor.Writer#reset reset}
+     * and reused across messages.
+     *
+     * @return {@code out}
+     */
+    public static Cbor.Writer encode(Cbor.Writer out, byte[] protectedHeader, byte[] keyId, MerkleTree tree,
+                                     int leafIndex, byte[] signature) {
+        return out.tag(TAG)
+                .array(4)
+                .bytes(protectedHeader)
+                .map(3)
+                .integer(LABEL_KID).bytes(keyId)
+                .integer(LABEL_LEAF_INDEX).integer(leafIndex)
+                .integer(LABEL_AUTH_PATH).bytes(tree.authPath(leafIndex))
+                .nil()
+                .bytes(signature);
+    }
+
+    /**
+     * Decode a tagged or untagged COSE_Sign1 message with a detached payload.
+     *
+     * @throws IllegalArgumentException if the bytes are not such a message, lack a required header or
+     *                                  repeat a header label, in one bucket or across both (RFC 9052)
+     */
+    public static Message decode(byte[] encoded) {
+        Cbor.Reader in = new Cbor.Reader(encoded);
+        if (in.peekType() == Cbor.TAG && in.tag() != TAG) {
+            throw new IllegalArgumentException("Not a COSE_Sign1 tag");
+        }
+        if (in.array() != 4) {
+            throw new IllegalArgumentException("COSE_Sign1 must be an array of four items");
+        }
+        byte[] protectedHeader = in.bytes();
+        String alg = null;
+        MerkleHashFamily family = null;
+        long leafCount = -1;
+        Set<Object> labels = new HashSet<>();
+        Cbor.Reader ph = new Cbor.Reader(protectedHeader);
+        for (int i = ph.map(); i > 0; i--) {
+            if (ph.peekType() == Cbor.TEXT) {
+                unique(labels, ph.text()); // text labels are never ours
+                ph.skip();
+                continue;
+            }
+            long label = unique(labels, ph.integer());
+            if (label == LABEL_ALG) {
+                alg = ph.text();
+            } else if (label == LABEL_HASH_FAMILY) {
+                family = MerkleHashFamily.forId((int) ph.integer());
+            } else if (label == LABEL_LEAF_COUNT) {
+                leafCount = ph.integer();
+            } else {
+                ph.skip();
+            }
+        }
+        if (!ph.atEnd()) {
+            throw new IllegalArgumentException("Trailing bytes after the protected header map");
+        }
+        if (alg == null || family == null || leafCount < 1 || leafCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Protected header lacks the algorithm, hash family or leaf count");
+        }
+
+        byte[] keyId = new byte[0];
+        long leafIndex = -1;
+        byte[] path = null;
+        for (int i = in.map(); i > 0; i--) {
+            if (in.peekType() == Cbor.TEXT) {
+                unique(labels, in.text());
+                in.skip();
+                continue;
+            }
+            long label = unique(labels, in.integer());
+            if (label == LABEL_KID) {
+                keyId = in.bytes();
+            } else if (label == LABEL_LEAF_INDEX) {
+                leafIndex = in.integer();
+            } else if (label == LABEL_AUTH_PATH) {
+                path = in.bytes();
+            } else {
+                in.skip();
+            }
+        }
+        if (leafIndex < 0 || leafIndex >= leafCount || path == null
+                || path.length != MerkleTree.heightFor((int) leafCount) * family.length()) {
+            throw new IllegalArgumentException("Unprotected header lacks a leaf index or path that fits the leaf count");
+        }
+        in.nil();
+        byte[] signature = in.bytes();
+        if (!in.atEnd()) {
+            throw new IllegalArgumentException("Trailing bytes after COSE_Sign1");
+        }
+        return new Message(protectedHeader, alg, family, (int) leafCount, keyId, (int) leafIndex, path, signature);
+    }
+
+    private static <T> T unique(Set<Object> labels, T label) {
+        if (!labels.add(label)) {
+            throw new IllegalArgumentException("Header label " + label + " appears more than once");
+        }
+        return label;
+    }
+
+    /**
+     * Verify a message: recompute the detached root from the leaf and path, then check the signature
+     * over its Sig_structure through {@code roots}, so each batch is verified with SPHINCS+ only once.
+     *
+     * @param roots     cache of verified batch signatures
+     * @param publicKey the signer's public key; its parameter set must match the algorithm header
+     * @param leaf      the leaf hash of the message
+     * @param message   the decoded message
+     * @return whether the message is authentic
+     */
+    public static boolean verify(BatchEnvelopeVerifier roots, SPHINCSPlusPublicKeyParameters publicKey, byte[] leaf,
+                                 Message message) {
+        if (!message.algorithm().equals(ALG_PREFIX + publicKey.getParameters().getName())) {
+            return false;
+        }
+        byte[] root = new byte[message.family().length()];
+        MerkleProofVerifier folder = new MerkleProofVerifier(message.family());
+        if (!folder.computeRoot(leaf, message.leafIndex(), message.leafCount(), message.authPath(), 0, message.depth(),
+                root, 0)) {
+            return false;
+        }
+        return roots.verifyRoot(publicKey, toBeSigned(message.protectedHeader(), root), message.signature());
+    }
+}
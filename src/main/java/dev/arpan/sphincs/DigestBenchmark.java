@@ -0,0 +1,108 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Microbenchmark of the ways the Merkle code can obtain a SHA‑256 engine for an inner node, whose
+ * input is the 0x01 prefix and two 32-byte children:
+ * a fresh {@link MessageDigest#getInstance(String)} per hash (the original hashConcat), a clone of a
+ * prototype per hash, one JCA digest reused on a single thread, the thread-local digest used by
+ * {@link MerkleHasher}, and a reused Bouncy Castle {@link SHA256Digest}.
+ */
+public class DigestBenchmark {
+
+    private static final int WARMUP_HASHES = 500_000;
+    private static final int MEASURED_HASHES = 2_000_000;
+
+    /**
+     * One way of computing SHA‑256 over the 65-byte node input into the 32-byte output.
+     */
+    private interface Strategy {
+        void hash(byte[] in, byte[] out) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run every strategy and write the throughput into a CSV in the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if a digest is unavailable or writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("digest_strategies.csv");
+        Files.writeString(csv, "strategy,hashes,ns_per_hash,hashes_per_sec\n");
+
+        MessageDigest prototype = MessageDigest.getInstance("SHA-256");
+        MerkleHasher hasher = MerkleHasher.sha256();
+        SHA256Digest bc = new SHA256Digest();
+
+        run(csv, "getInstance", (in, out) -> {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(in);
+            md.digest(out, 0, 32);
+        });
+        run(csv, "clone", (in, out) -> {
+            MessageDigest md = (MessageDigest) prototype.clone();
+            md.update(in);
+            md.digest(out, 0, 32);
+        });
+        MessageDigest reused = MessageDigest.getInstance("SHA-256");
+        run(csv, "jca_reused", (in, out) -> {
+            reused.update(in);
+            reused.digest(out, 0, 32);
+        });
+        run(csv, "thread_local", (in, out) -> hasher.hashNode(in, 1, in, 33, out, 0));
+        run(csv, "bc_sha256digest", (in, out) -> {
+            bc.update(in, 0, in.length);
+            bc.doFinal(out, 0);
+        });
+    }
+
+    private static void run(Path csv, String name, Strategy strategy) throws Exception {
+        byte[] in = new byte[65];
+        byte[] out = new byte[32];
+        reset(in);
+        byte[] expected = MessageDigest.getInstance("SHA-256").digest(in);
+
+        // Feed each output back into the input so the work cannot be optimized away
+        for (int i = 0; i < WARMUP_HASHES; i++) {
+            strategy.hash(in, out);
+            System.arraycopy(out, 0, in, 1, 32);
+        }
+        reset(in);
+        strategy.hash(in, out);
+        if (!Arrays.equals(expected, out)) {
+            throw new IllegalStateException("Strategy " + name + " produced a wrong digest");
+        }
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED_HASHES; i++) {
+            strategy.hash(in, out);
+            System.arraycopy(out, 0, in, 1, 32);
+        }
+        long t1 = System.nanoTime();
+
+        double nsPerHash = (t1 - t0) * 1.0 / MEASURED_HASHES;
+        double perSec = 1e9 / nsPerHash;
+        String row = String.format(Locale.ROOT, "%s,%d,%.1f,%.0f%n", name, MEASURED_HASHES, nsPerHash, perSec);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-16s %8.1f ns/hash  %,12.0f hashes/s%n", name, nsPerHash, perSec);
+    }
+
+    private static void reset(byte[] in) {
+        Arrays.fill(in, (byte) 0x5a);
+        in[0] = MerkleHasher.NODE_PREFIX;
+    }
+}
@@ -0,0 +1,232 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput cost of logging accepted leaves to a {@link LeafWriteAheadLog} under each
+ * {@link LeafWriteAheadLog.SyncPolicy}, for the log alone and for a {@link BatchSigningService}
+ * writing through it, against no log at all.
+ * <p>
+ * Before timing, a crash is simulated: a service accepts leaves into a batch that never seals and
+ * is abandoned without closing, and a second service opened on the same directory must re-sign
+ * exactly those leaves, and batch ids must keep counting up over two more clean reopens, after which
+ * no record of the earlier batches is left.  The optional argument is the directory for the log files (the temp
+ * directory by default); forcing costs depend entirely on the device behind it.
+ */
+public class DurabilityBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int SEGMENT_BYTES = 4 << 20;
+    private static final int THREADS = 8;
+    private static final int LOG_ONLY_LEAVES = 1 << 15;
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final int SERVICE_MESSAGES = 8 * MAX_BATCH_SIZE;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public static void main(String[] args) throws Exception {
+        Path workDir = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        run(outDir, workDir);
+    }
+
+    /**
+     * Check recovery, then time the log alone and the service at every policy and write a CSV into
+     * the output directory.
+     *
+     * @param outDir  the directory where result files should be written
+     * @param workDir the directory under which temporary log directories are created
+     * @throws Exception if a file cannot be written or a thread is interrupted
+     */
+    public static void run(Path outDir, Path workDir) throws Exception {
+        Path csv = outDir.resolve("merkle_wal_durability.csv");
+        Files.writeString(csv, "mode,policy,messages,elapsed_ms,msgs_per_sec,relative_throughput\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+        SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+
+        checkRecovery(workDir, sk, pk, family);
+        // Warm both paths up so the first measured policy is not also paying for compilation
+        timeLogOnly(workDir, family, "NONE");
+        timeService(workDir, sk, family, "NONE");
+
+        double base = 0;
+        for (String policy : new String[]{"no_log", "NONE", "ON_SEAL", "GROUP_COMMIT", "EVERY_APPEND"}) {
+            double perSec = timeLogOnly(workDir, family, policy);
+            if (policy.equals("no_log")) {
+                base = perSec;
+            }
+            record(csv, "log_only", policy, LOG_ONLY_LEAVES, perSec, base);
+        }
+        for (String policy : new String[]{"no_log", "NONE", "ON_SEAL", "GROUP_COMMIT", "EVERY_APPEND"}) {
+            double perSec = timeService(workDir, sk, family, policy);
+            if (policy.equals("no_log")) {
+                base = perSec;
+            }
+            record(csv, "service", policy, SERVICE_MESSAGES, perSec, base);
+        }
+    }
+
+    private static void record(Path csv, String mode, String policy, int messages, double perSec, double base) throws IOException {
+        double ms = messages / perSec * 1e3;
+        String row = String.format(Locale.ROOT, "%s,%s,%d,%.1f,%.0f,%.3f%n", mode, policy, messages, ms, perSec, perSec / base);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-8s %-12s %6d msgs in %9.1f ms  %,12.0f msgs/s  (%.3f of no log)%n",
+                mode, policy, messages, ms, perSec, perSec / base);
+    }
+
+    // Append and commit from several threads, as submit does, with the seal force every MAX_BATCH_SIZE leaves
+    private static double timeLogOnly(Path workDir, MerkleHashFamily family, String policy) throws Exception {
+        Path dir = Files.createTempDirectory(workDir, "wal");
+        try (LeafWriteAheadLog wal = policy.equals("no_log") ? null
+                : new LeafWriteAheadLog(dir, family, SEGMENT_BYTES, LeafWriteAheadLog.SyncPolicy.valueOf(policy))) {
+            byte[] leaf = new byte[family.length()];
+            Object batchLock = new Object();
+            long[] next = new long[1];
+            Thread[] threads = new Thread[THREADS];
+            long t0 = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < LOG_ONLY_LEAVES / THREADS; i++) {
+                        long seq;
+                        long logged = 0;
+                        synchronized (batchLock) {
+                            seq = next[0]++;
+                            if (wal != null) {
+                                logged = wal.append(seq / MAX_BATCH_SIZE, (int) (seq % MAX_BATCH_SIZE), leaf, 0);
+                            }
+                        }
+                        if (wal == null) {
+                            continue;
+                        }
+                        wal.commit(logged);
+                        if (seq % MAX_BATCH_SIZE == MAX_BATCH_SIZE - 1) {
+                            wal.sealed(seq / MAX_BATCH_SIZE);
+                            wal.signed(seq / MAX_BATCH_SIZE);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            long t1 = System.nanoTime();
+            return LOG_ONLY_LEAVES / ((t1 - t0) / 1e9);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static double timeService(Path workDir, SPHINCSPlusPrivateKeyParameters sk, MerkleHashFamily family,
+                                      String policy) throws Exception {
+        Path dir = Files.createTempDirectory(workDir, "wal");
+        try (LeafWriteAheadLog wal = policy.equals("no_log") ? null
+                : new LeafWriteAheadLog(dir, family, SEGMENT_BYTES, LeafWriteAheadLog.SyncPolicy.valueOf(policy));
+             BatchSigningService service = wal == null ? new BatchSigningService(sk, MAX_BATCH_SIZE, MAX_WAIT_NANOS)
+                     : new BatchSigningService(sk, MAX_BATCH_SIZE, MAX_WAIT_NANOS, wal)) {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[SERVICE_MESSAGES];
+            Thread[] threads = new Thread[THREADS];
+            long t0 = System.nanoTime();
+            for (int t = 0; t < THREADS; t++) {
+                int first = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = first; i < SERVICE_MESSAGES; i += THREADS) {
+                        futures[i] = service.submit(("message-" + i).getBytes(StandardCharsets.UTF_8));
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            CompletableFuture.allOf(futures).join();
+            long t1 = System.nanoTime();
+            return SERVICE_MESSAGES / ((t1 - t0) / 1e9);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void checkRecovery(Path workDir, SPHINCSPlusPrivateKeyParameters sk, SPHINCSPlusPublicKeyParameters pk,
+                                      MerkleHashFamily family) throws Exception {
+        Path dir = Files.createTempDirectory(workDir, "wal");
+        try {
+            // One whole batch that is signed, then a partial one that would only seal after an hour
+            LeafWriteAheadLog crashedLog = new LeafWriteAheadLog(dir, family, SEGMENT_BYTES, LeafWriteAheadLog.SyncPolicy.GROUP_COMMIT);
+            BatchSigningService crashed = new BatchSigningService(sk, 16, TimeUnit.HOURS.toNanos(1), crashedLog);
+            CompletableFuture<?>[] signed = new CompletableFuture<?>[16];
+            for (int i = 0; i < signed.length; i++) {
+                signed[i] = crashed.submit(("signed-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            CompletableFuture.allOf(signed).join();
+            // The SIGNED record follows the envelopes, so wait for it before going on
+            while (crashedLog.unsignedBatches() > 0) {
+                Thread.sleep(1);
+            }
+            int unsigned = 11;
+            for (int i = 0; i < unsigned; i++) {
+                crashed.submit(("unsigned-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            // Neither is closed: their threads are daemons and the log's pages are already in the page cache
+
+            try (LeafWriteAheadLog log = new LeafWriteAheadLog(dir, family, SEGMENT_BYTES, LeafWriteAheadLog.SyncPolicy.GROUP_COMMIT);
+                 BatchSigningService restarted = new BatchSigningService(sk, 16, TimeUnit.HOURS.toNanos(1), log)) {
+                List<CompletableFuture<BatchSigningService.Envelope>> recovered = restarted.recovered();
+                if (recovered.size() != unsigned) {
+                    throw new IllegalStateException("Recovered " + recovered.size() + " leaves, expected " + unsigned);
+                }
+                BatchEnvelopeVerifier verifier = new BatchEnvelopeVerifier(BatchEnvelopeVerifier.DEFAULT_CAPACITY, family);
+                for (int i = 0; i < unsigned; i++) {
+                    BatchSigningService.Envelope env = recovered.get(i).join();
+                    byte[] leaf = family.hasher().hashLeaf(("unsigned-" + i).getBytes(StandardCharsets.UTF_8));
+                    if (env.batchId() != 1 || !verifier.verify(pk, env.root(), env.leafCount(), env.signature(), leaf, env.proof())) {
+                        throw new IllegalStateException("Recovered leaf " + i + " did not verify");
+                    }
+                }
+                if (log.nextBatchId() != 2) {
+                    throw new IllegalStateException("Batch ids after recovery do not continue from the log");
+                }
+            }
+            // Every batch is signed now, so each reopen deletes the older segments; ids must still not go back
+            for (int reopen = 1; reopen <= 2; reopen++) {
+                try (LeafWriteAheadLog log = new LeafWriteAheadLog(dir, family, SEGMENT_BYTES, LeafWriteAheadLog.SyncPolicy.GROUP_COMMIT)) {
+                    if (log.nextBatchId() != 2 || !log.pending().isEmpty()) {
+                        throw new IllegalStateException("Reopen " + reopen + " starts batch ids at " + log.nextBatchId() + ", expected 2");
+                    }
+                }
+            }
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
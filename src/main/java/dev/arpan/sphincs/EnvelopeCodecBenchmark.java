@@ -0,0 +1,224 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Envelopes per second through {@link BatchEnvelope} on a direct buffer, against the ad-hoc
+ * stream encoding of a list-form proof, with the signature inline and by reference.
+ * <p>
+ * The tree uses the hash family matched to SPHINCS+-SHAKE-128s and the signature is random bytes of
+ * that parameter set's signature length; signing does not affect the codec.  Every encoded envelope
+ * is decoded and its path verified against the root before timing.
+ */
+public class EnvelopeCodecBenchmark {
+
+    private static final int[] BATCH_SIZES = {64, 1024, 65536};
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.shake_128s;
+    private static final int SIGNATURE_LEN = 7856;
+    private static final int WINDOW = 1024;
+    private static final int WARMUP = 200_000;
+    private static final int MEASURED = 1_000_000;
+
+    // Decoded values are summed into this so the JIT cannot drop the decode loops
+    private static volatile long consumed;
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run every (batch size, signature mode, codec) combination and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_envelope_codec.csv");
+        Files.writeString(csv, "batch_size,signature,codec,envelope_bytes,encode_ns,decode_ns,round_trips_per_sec\n");
+
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+        byte[] signature = new byte[SIGNATURE_LEN];
+        new Random(42).nextBytes(signature);
+
+        for (int n : BATCH_SIZES) {
+            List<byte[]> leaves = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                leaves.add(family.hasher().hashLeaf(("message-" + i).getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            }
+            MerkleTree tree = MerkleTree.build(leaves, family);
+            checkRoundTrip(tree, leaves, signature);
+
+            for (byte[] sig : new byte[][]{signature, null}) {
+                String mode = sig != null ? "inline" : "reference";
+                measureBinary(csv, tree, sig, mode);
+                measureStream(csv, tree, sig, mode);
+            }
+        }
+    }
+
+    // Decode every envelope of the batch from a direct buffer and verify its path against the root
+    private static void checkRoundTrip(MerkleTree tree, List<byte[]> leaves, byte[] signature) {
+        int envLen = BatchEnvelope.encodedLength(tree.family(), tree.height(), signature.length);
+        ByteBuffer buf = ByteBuffer.allocateDirect(envLen);
+        BatchEnvelope env = new BatchEnvelope();
+        MerkleProofVerifier verifier = new MerkleProofVerifier(tree.family());
+        byte[] path = new byte[tree.height() * tree.nodeLength()];
+        byte[] sig = new byte[signature.length];
+        byte[] root = tree.root();
+        for (int i = 0; i < tree.leafCount(); i++) {
+            buf.clear();
+            BatchEnvelope.encode(buf, 7, 99, tree, i, signature);
+            env.wrap(buf, 0);
+            env.copyPath(path, 0);
+            env.copySignature(sig, 0);
+            if (env.keyId() != 7 || env.batchId() != 99 || env.leafIndex() != i || env.leafCount() != tree.leafCount()
+                    || env.encodedLength() != envLen
+                    || !java.util.Arrays.equals(sig, signature)
+                    || !verifier.verify(leaves.get(i), env.leafIndex(), env.leafCount(), path, 0, env.depth(), root)) {
+                throw new IllegalStateException("Envelope " + i + " did not survive the round trip");
+            }
+        }
+    }
+
+    private static void measureBinary(Path csv, MerkleTree tree, byte[] signature, String mode) throws IOException {
+        int n = tree.leafCount();
+        int envLen = BatchEnvelope.encodedLength(tree.family(), tree.height(), signature == null ? -1 : signature.length);
+        ByteBuffer buf = ByteBuffer.allocateDirect(WINDOW * envLen);
+        BatchEnvelope env = new BatchEnvelope();
+        byte[] path = new byte[tree.height() * tree.nodeLength()];
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            if (buf.remaining() < envLen) {
+                buf.clear();
+            }
+            BatchEnvelope.encode(buf, 1, 2, tree, i % n, signature);
+        }
+        buf.clear();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            if (buf.remaining() < envLen) {
+                buf.clear();
+            }
+            BatchEnvelope.encode(buf, 1, 2, tree, i % n, signature);
+        }
+        long t1 = System.nanoTime();
+
+        // The buffer now holds a full window of envelopes; decode them over and over
+        for (int i = 0; i < WARMUP; i++) {
+            sink += decode(env, buf, (i % WINDOW) * envLen, path);
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += decode(env, buf, (i % WINDOW) * envLen, path);
+        }
+        long t3 = System.nanoTime();
+        record(csv, n, mode, "binary_direct", envLen, t1 - t0, t3 - t2, sink);
+    }
+
+    private static long decode(BatchEnvelope env, ByteBuffer buf, int offset, byte[] path) {
+        env.wrap(buf, offset);
+        env.copyPath(path, 0);
+        return env.leafIndex() + env.leafCount() + env.keyId() + env.batchId() + env.signatureLength() + path[0];
+    }
+
+    // Baseline: what shipping a Proof and a byte[] signature looks like without a codec
+    private static void measureStream(Path csv, MerkleTree tree, byte[] signature, String mode) throws IOException {
+        int n = tree.leafCount();
+        List<MerkleBatchSigner.Proof> proofs = tree.proofs();
+        byte[][] encoded = new byte[WINDOW][];
+
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            encoded[i % WINDOW] = streamEncode(proofs.get(i % n), n, signature);
+        }
+        long t0 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            encoded[i % WINDOW] = streamEncode(proofs.get(i % n), n, signature);
+        }
+        long t1 = System.nanoTime();
+        int nodeLen = tree.nodeLength();
+        for (int i = 0; i < WARMUP; i++) {
+            sink += streamDecode(encoded[i % WINDOW], nodeLen).index();
+        }
+        long t2 = System.nanoTime();
+        for (int i = 0; i < MEASURED; i++) {
+            sink += streamDecode(encoded[i % WINDOW], nodeLen).index();
+        }
+        long t3 = System.nanoTime();
+        record(csv, n, mode, "data_stream", encoded[0].length, t1 - t0, t3 - t2, sink);
+    }
+
+    private static byte[] streamEncode(MerkleBatchSigner.Proof proof, int leafCount, byte[] signature) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(1);
+            out.writeLong(2);
+            out.writeInt(proof.index());
+            out.writeInt(leafCount);
+            out.writeByte(proof.authPath().size());
+            for (byte[] sibling : proof.authPath()) {
+                out.write(sibling);
+            }
+            out.writeInt(signature == null ? -1 : signature.length);
+            if (signature != null) {
+                out.write(signature);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MerkleBatchSigner.Proof streamDecode(byte[] encoded, int nodeLen) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            in.readLong();
+            in.readLong();
+            int index = in.readInt();
+            in.readInt();
+            int depth = in.readUnsignedByte();
+            List<byte[]> path = new ArrayList<>(depth);
+            for (int l = 0; l < depth; l++) {
+                byte[] sibling = new byte[nodeLen];
+                in.readFully(sibling);
+                path.add(sibling);
+            }
+            int sigLen = in.readInt();
+            if (sigLen >= 0) {
+                in.readFully(new byte[sigLen]);
+            }
+            return new MerkleBatchSigner.Proof(index, path);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void record(Path csv, int n, String mode, String codec, int envLen, long encodeNanos, long decodeNanos,
+                               long sink) throws IOException {
+        consumed = sink;
+        double encNs = encodeNanos * 1.0 / MEASURED;
+        double decNs = decodeNanos * 1.0 / MEASURED;
+        double perSec = 1e9 / (encNs + decNs);
+        String row = String.format(Locale.ROOT, "%d,%s,%s,%d,%.1f,%.1f,%.0f%n", n, mode, codec, envLen, encNs, decNs, perSec);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-6d %-9s %-13s %5d B  encode=%8.1f ns  decode=%8.1f ns  %,12.0f round trips/s%n",
+                n, mode, codec, envLen, encNs, decNs, perSec);
+    }
+}
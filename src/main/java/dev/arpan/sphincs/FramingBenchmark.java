@@ -0,0 +1,282 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bytes per message and receiver throughput over a loopback TCP connection for
+ * {@link BatchFraming}, which sends each signature once per batch, against sending every message as
+ * a {@link BatchEnvelope} with the signature inline.
+ * <p>
+ * Both receivers check every message's path; the batch signature itself is treated as already
+ * verified, as it would be after the first message with {@link BatchEnvelopeVerifier}, so the
+ * difference is the framing alone.  The signatures are random bytes of the SPHINCS+-SHAKE-128s length;
+ * a separate batch with a real signature is read back with signature checking before timing.
+ */
+public class FramingBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.shake_128s;
+    private static final int SIGNATURE_LEN = 7856;
+    private static final int[] BATCH_SIZES = {16, 64, 256, 1024};
+    private static final int PAYLOAD_LEN = 256;
+    private static final int MESSAGES = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Stream {@link #MESSAGES} messages in batches of each configured size with both framings and
+     * write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if the loopback connection or a sender thread fails
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_stream_framing.csv");
+        Files.writeString(csv, "batch_size,framing,messages,bytes_per_msg,receive_ms,msgs_per_sec\n");
+
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+        checkSignedBatch(family);
+
+        Random rnd = new Random(7);
+        byte[] signature = new byte[SIGNATURE_LEN];
+        rnd.nextBytes(signature);
+        for (int n : BATCH_SIZES) {
+            List<byte[]> payloads = new ArrayList<>(n);
+            List<byte[]> leaves = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] p = new byte[PAYLOAD_LEN];
+                rnd.nextBytes(p);
+                payloads.add(p);
+                leaves.add(family.hasher().hashLeaf(p));
+            }
+            MerkleTree tree = MerkleTree.build(leaves, family);
+
+            // Warm both paths up on a short run, then measure
+            for (int messages : new int[]{MESSAGES / 8, MESSAGES}) {
+                boolean measured = messages == MESSAGES;
+                transfer(csv, measured, n, "signature_once", messages, out -> sendFramed(out, tree, payloads, signature, messages),
+                        FramingBenchmark::receiveFramed);
+                transfer(csv, measured, n, "signature_per_message", messages,
+                        out -> sendEnvelopes(out, tree, payloads, signature, messages), in -> receiveEnvelopes(in, family));
+            }
+        }
+    }
+
+    // One batch with a real SPHINCS+ signature, written to memory and read back with signature checks, then
+    // read back again with its leaf count altered
+    private static void checkSignedBatch(MerkleHashFamily family) throws IOException {
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
+        SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+        signer.init(true, kp.getPrivate());
+
+        List<byte[]> payloads = new ArrayList<>();
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < 37; i++) {
+            byte[] p = ("message-" + i).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            payloads.add(p);
+            leaves.add(family.hasher().hashLeaf(p));
+        }
+        MerkleTree tree = MerkleTree.build(leaves, family);
+        byte[] signature = signer.generateSignature(tree.signedMessage());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BatchFraming.Writer writer = new BatchFraming.Writer(bytes);
+        writer.startBatch(5, 1, tree, signature);
+        for (int i = 0; i < payloads.size(); i++) {
+            writer.message(5, tree, i, payloads.get(i));
+        }
+        writer.endBatch(5);
+        writer.flush();
+
+        BatchFraming.Reader reader = new BatchFraming.Reader(new ByteArrayInputStream(bytes.toByteArray()),
+                keyId -> keyId == 1 ? pk : null, BatchFraming.DEFAULT_MAX_OPEN_BATCHES);
+        int count = 0;
+        for (BatchFraming.Message m; (m = reader.next()) != null; count++) {
+            if (!m.verified() || m.leafIndex() != count || !MessageDigest.isEqual(m.payload(), payloads.get(count))) {
+                throw new IllegalStateException("Framed message " + count + " did not verify");
+            }
+        }
+        if (count != payloads.size() || reader.openBatches() != 0) {
+            throw new IllegalStateException("Read " + count + " of " + payloads.size() + " framed messages");
+        }
+
+        // A start frame claiming another leaf count of the same height must fail the signature check
+        byte[] forged = bytes.toByteArray();
+        ByteBuffer.wrap(forged).putInt(1 + 8 + 8 + 1, 1 << tree.height());
+        BatchFraming.Reader forgedReader = new BatchFraming.Reader(new ByteArrayInputStream(forged),
+                keyId -> keyId == 1 ? pk : null, BatchFraming.DEFAULT_MAX_OPEN_BATCHES);
+        for (BatchFraming.Message m; (m = forgedReader.next()) != null; ) {
+            if (m.verified()) {
+                throw new IllegalStateException("Message " + m.leafIndex() + " verified under a forged leaf count");
+            }
+        }
+    }
+
+    private interface Sender {
+        long send(java.io.OutputStream out) throws IOException;
+    }
+
+    private interface Receiver {
+        int receive(java.io.InputStream in) throws IOException;
+    }
+
+    private static void transfer(Path csv, boolean record, int n, String framing, int messages, Sender sender, Receiver receiver)
+            throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            long[] sent = new long[1];
+            Exception[] failure = new Exception[1];
+            Thread t = new Thread(() -> {
+                try (Socket s = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+                    sent[0] = sender.send(s.getOutputStream());
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }, "framing-sender");
+            t.start();
+            int received;
+            long t0;
+            long t1;
+            try (Socket s = server.accept()) {
+                t0 = System.nanoTime();
+                received = receiver.receive(s.getInputStream());
+                t1 = System.nanoTime();
+            }
+            t.join();
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            if (received != messages) {
+                throw new IllegalStateException(framing + ": " + received + " of " + messages + " messages verified");
+            }
+            if (!record) {
+                return;
+            }
+            double bytesPerMsg = sent[0] * 1.0 / messages;
+            double ms = (t1 - t0) / 1e6;
+            double perSec = messages / ((t1 - t0) / 1e9);
+            String row = String.format(Locale.ROOT, "%d,%s,%d,%.1f,%.1f,%.0f%n", n, framing, messages, bytesPerMsg, ms, perSec);
+            Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+            System.out.printf(Locale.ROOT, "batch=%-5d %-22s %8.1f B/msg  %8.1f ms  %,10.0f msgs/s%n",
+                    n, framing, bytesPerMsg, ms, perSec);
+        }
+    }
+
+    private static long sendFramed(java.io.OutputStream out, MerkleTree tree, List<byte[]> payloads, byte[] signature,
+                                   int messages) throws IOException {
+        BatchFraming.Writer writer = new BatchFraming.Writer(out);
+        int n = tree.leafCount();
+        for (long batch = 0; batch * n < messages; batch++) {
+            writer.startBatch(batch, 1, tree, signature);
+            for (int i = 0; i < n && batch * n + i < messages; i++) {
+                writer.message(batch, tree, i, payloads.get(i));
+            }
+            writer.endBatch(batch);
+        }
+        writer.flush();
+        return writer.bytesWritten();
+    }
+
+    private static int receiveFramed(java.io.InputStream in) throws IOException {
+        BatchFraming.Reader reader = new BatchFraming.Reader(in);
+        int verified = 0;
+        for (BatchFraming.Message m; (m = reader.next()) != null; ) {
+            if (m.verified()) {
+                verified++;
+            }
+        }
+        return verified;
+    }
+
+    // Baseline: each message is a length-prefixed envelope with the signature inline, then the payload
+    private static long sendEnvelopes(java.io.OutputStream out, MerkleTree tree, List<byte[]> payloads, byte[] signature,
+                                      int messages) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        int n = tree.leafCount();
+        ByteBuffer env = ByteBuffer.allocate(BatchEnvelope.encodedLength(tree.family(), tree.height(), signature.length));
+        long bytes = 0;
+        for (int m = 0; m < messages; m++) {
+            int i = m % n;
+            env.clear();
+            int len = BatchEnvelope.encode(env, 1, m / n, tree, i, signature);
+            data.writeInt(len);
+            data.write(env.array(), 0, len);
+            data.writeInt(payloads.get(i).length);
+            data.write(payloads.get(i));
+            bytes += 4 + len + 4 + payloads.get(i).length;
+        }
+        data.flush();
+        return bytes;
+    }
+
+    private static int receiveEnvelopes(java.io.InputStream in, MerkleHashFamily family) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        BatchEnvelope env = new BatchEnvelope();
+        MerkleProofVerifier verifier = new MerkleProofVerifier(family);
+        Map<Long, byte[]> roots = new HashMap<>();
+        byte[] buf = new byte[0];
+        byte[] path = new byte[64 * family.length()];
+        byte[] leaf = new byte[family.length()];
+        byte[] root = new byte[family.length()];
+        int verified = 0;
+        while (true) {
+            int len;
+            try {
+                len = data.readInt();
+            } catch (EOFException e) {
+                return verified;
+            }
+            if (buf.length < len) {
+                buf = new byte[len];
+            }
+            data.readFully(buf, 0, len);
+            byte[] payload = new byte[data.readInt()];
+            data.readFully(payload);
+
+            env.wrap(ByteBuffer.wrap(buf, 0, len), 0);
+            env.copyPath(path, 0);
+            family.hasher().hashLeaf(payload, 0, payload.length, leaf, 0);
+            if (!verifier.computeRoot(leaf, env.leafIndex(), env.leafCount(), path, 0, env.depth(), root, 0)) {
+                continue;
+            }
+            // The first root seen for a batch stands in for the one cached signature check
+            byte[] known = roots.computeIfAbsent(env.batchId(), id -> root.clone());
+            if (MessageDigest.isEqual(known, root)) {
+                verified++;
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of {@link SigningFrontEnd} against a fixed pool of platform threads that each block on
+ * one request's envelope, with 10k and 100k requests waiting at once.
+ * <p>
+ * All requests are issued together and the time until the last response, the p99 request latency,
+ * the number of batches and the peak live thread count are recorded.  The blocking pool can only
+ * have as many requests in a batch as it has threads, so it signs many small batches; the front end
+ * lets every waiting request join the open batch.  On JDK 17 the front end runs its fallback
+ * executor, which the {@code mode} column shows.
+ */
+public class FrontEndBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int[] WAITERS = {10_000, 100_000};
+    private static final int MAX_BATCH_SIZE = 16384;
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final int POOL_THREADS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run both front ends at every configured number of waiters and write a CSV into the output
+     * directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or an executor is interrupted
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_front_end.csv");
+        Files.writeString(csv, "mode,waiters,batches,elapsed_ms,msgs_per_sec,p99_latency_ms,peak_threads\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+
+        for (int waiters : WAITERS) {
+            try (BatchSigningService service = new BatchSigningService(sk, MAX_BATCH_SIZE, MAX_WAIT_NANOS);
+                 SigningFrontEnd frontEnd = new SigningFrontEnd(service)) {
+                String mode = frontEnd.usesVirtualThreads() ? "virtual_threads" : "async_fallback";
+                run(csv, mode, waiters, service, (m, respond) -> frontEnd.handle(m, respond));
+            }
+            try (BatchSigningService service = new BatchSigningService(sk, MAX_BATCH_SIZE, MAX_WAIT_NANOS)) {
+                ExecutorService pool = Executors.newFixedThreadPool(POOL_THREADS);
+                run(csv, "fixed_pool_" + POOL_THREADS, waiters, service,
+                        (m, respond) -> CompletableFuture.supplyAsync(() -> respond.apply(service.submit(m).join()), pool));
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        }
+    }
+
+    private interface FrontEnd {
+        CompletableFuture<Long> handle(byte[] message, java.util.function.Function<BatchSigningService.Envelope, Long> respond);
+    }
+
+    private static void run(Path csv, String mode, int waiters, BatchSigningService service, FrontEnd frontEnd) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // Let the previous run's pool threads finish exiting so they do not count towards this peak
+        for (int prev = -1, now; (now = threads.getThreadCount()) != prev; prev = now) {
+            Thread.sleep(100);
+        }
+        threads.resetPeakThreadCount();
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[waiters];
+        long[] submitted = new long[waiters];
+
+        long t0 = System.nanoTime();
+        for (int i = 0; i < waiters; i++) {
+            submitted[i] = System.nanoTime();
+            // The response is the completion time, recorded on whichever thread delivers it
+            responses[i] = frontEnd.handle(("request-" + i).getBytes(StandardCharsets.UTF_8), env -> System.nanoTime());
+        }
+        CompletableFuture.allOf(responses).join();
+        long t1 = System.nanoTime();
+
+        double[] latencies = new double[waiters];
+        for (int i = 0; i < waiters; i++) {
+            latencies[i] = ((Long) responses[i].join() - submitted[i]) / 1e6;
+        }
+        Arrays.sort(latencies);
+        double p99 = latencies[Math.min(waiters - 1, (int) Math.ceil(0.99 * waiters) - 1)];
+        double ms = (t1 - t0) / 1e6;
+        double perSec = waiters / ((t1 - t0) / 1e9);
+        long batches = service.batchesSigned();
+        int peak = threads.getPeakThreadCount();
+        String row = String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.0f,%.1f,%d%n", mode, waiters, batches, ms, perSec, p99, peak);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-16s waiters=%-7d %5d batches  %9.1f ms  %,10.0f msgs/s  p99=%8.1f ms  peak threads=%d%n",
+                mode, waiters, batches, ms, perSec, p99, peak);
+    }
+}
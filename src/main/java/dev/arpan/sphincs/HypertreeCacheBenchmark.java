@@ -0,0 +1,147 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Signing time of {@link CachedHypertreeSigner} against {@code SPHINCSPlusSigner} for every parameter
+ * set of {@link ParameterBenchmark}, with the top one, two and three hypertree layers cached.
+ * <p>
+ * Each cache is built, precomputed and written next to a notional key file, then read back into a
+ * fresh signer, which is timed against the BouncyCastle signer on the same messages, alternating
+ * between the two, for as many messages as take about two seconds to sign; build and load times are
+ * reported alongside.  Deeper layers are only cached while
+ * they have at most {@value #MAX_TREES_PER_LAYER} trees, so the "s" sets with their tall trees cache
+ * one or two layers.  Every cached signature must equal the deterministic BouncyCastle signature of
+ * the same message, and the first is verified.  The optional argument is the directory for the
+ * cache files (the temp directory by default).
+ */
+public class HypertreeCacheBenchmark {
+
+    private static final int[] CACHED_LAYERS = {1, 2, 3};
+    private static final int MAX_TREES_PER_LAYER = 256;
+    private static final int MIN_SIGNS = 5;
+    private static final int MAX_SIGNS = 50;
+    private static final long TARGET_NANOS = 2_000_000_000L; // of baseline signing per row
+
+    private static volatile long consumed;
+
+    public static void main(String[] args) throws Exception {
+        Path workDir = args.length > 0 ? Path.of(args[0]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        run(outDir, workDir);
+    }
+
+    /**
+     * Benchmark every parameter set and write a CSV into the output directory.
+     *
+     * @param outDir  the directory where result files should be written
+     * @param workDir the directory for the cache files, which are deleted afterwards
+     * @throws Exception if writing fails or a cached signature differs from BouncyCastle's
+     */
+    public static void run(Path outDir, Path workDir) throws Exception {
+        Path csv = outDir.resolve("sphincs_hypertree_cache.csv");
+        Files.writeString(csv, "param,layers,cached_layers,cached_trees,cache_bytes,build_ms,load_ms,signs,baseline_sign_ms,cached_sign_ms,speedup\n");
+
+        for (SPHINCSPlusParameters params : ParameterBenchmark.PARAM_SETS) {
+            SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+            kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), params));
+            AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+            SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+            SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
+
+            SPHINCSPlusSigner baseline = new SPHINCSPlusSigner();
+            baseline.init(true, sk);
+            long w0 = System.nanoTime();
+            consumed += baseline.generateSignature(new byte[32]).length; // warm-up, sizes the run
+            int signs = (int) Math.max(MIN_SIGNS, Math.min(MAX_SIGNS, TARGET_NANOS / (System.nanoTime() - w0)));
+            byte[][] messages = new byte[signs][];
+            for (int i = 0; i < signs; i++) {
+                messages[i] = (params.getName() + " message " + i).getBytes(StandardCharsets.UTF_8);
+            }
+
+            CachedHypertreeSigner top = new CachedHypertreeSigner(sk, 1);
+            int layers = top.layers();
+            int treeHeight = top.treeHeight();
+            for (int cachedLayers : CACHED_LAYERS) {
+                if (cachedLayers > layers || 1L << ((cachedLayers - 1) * treeHeight) > MAX_TREES_PER_LAYER) {
+                    continue;
+                }
+                Path cacheFile = CachedHypertreeSigner.cacheFileFor(workDir.resolve(params.getName() + "-" + cachedLayers + ".key"));
+                Files.deleteIfExists(cacheFile);
+                try {
+                    long b0 = System.nanoTime();
+                    CachedHypertreeSigner built = CachedHypertreeSigner.open(sk, cachedLayers, cacheFile);
+                    built.precompute();
+                    built.save(cacheFile);
+                    double buildMs = (System.nanoTime() - b0) / 1e6;
+
+                    long l0 = System.nanoTime();
+                    CachedHypertreeSigner signer = CachedHypertreeSigner.open(sk, cachedLayers, cacheFile);
+                    double loadMs = (System.nanoTime() - l0) / 1e6;
+                    if (signer.cachedTrees() != built.cachedTrees()) {
+                        throw new IllegalStateException(params.getName() + ": loaded " + signer.cachedTrees()
+                                + " trees, saved " + built.cachedTrees());
+                    }
+
+                    // Interleaved so that both signers see the same machine state
+                    consumed += signer.sign(messages[0]).length; // warm-up
+                    byte[][] expected = new byte[signs][];
+                    byte[][] signatures = new byte[signs][];
+                    long baselineNanos = 0;
+                    long cachedNanos = 0;
+                    for (int i = 0; i < signs; i++) {
+                        long t0 = System.nanoTime();
+                        expected[i] = baseline.generateSignature(messages[i]);
+                        long t1 = System.nanoTime();
+                        signatures[i] = signer.sign(messages[i]);
+                        long t2 = System.nanoTime();
+                        baselineNanos += t1 - t0;
+                        cachedNanos += t2 - t1;
+                    }
+                    check(params, pk, messages, expected, signatures);
+
+                    double baselineMs = baselineNanos / 1e6 / signs;
+                    double cachedMs = cachedNanos / 1e6 / signs;
+
+                    double speedup = baselineMs / cachedMs;
+                    String row = String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%.1f,%.2f,%d,%.3f,%.3f,%.3f%n", params.getName(), layers,
+                            cachedLayers, signer.cachedTrees(), signer.cachedBytes(), buildMs, loadMs, signs, baselineMs, cachedMs, speedup);
+                    Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+                    System.out.printf(Locale.ROOT, "%-12s d=%-2d cached=%d  %4d trees %,10d B  build=%9.1f ms  load=%6.2f ms  %2d signs %9.3f -> %9.3f ms  x%.3f%n",
+                            params.getName(), layers, cachedLayers, signer.cachedTrees(), signer.cachedBytes(), buildMs, loadMs,
+                            signs, baselineMs, cachedMs, speedup);
+                } finally {
+                    Files.deleteIfExists(cacheFile);
+                }
+            }
+        }
+    }
+
+    private static void check(SPHINCSPlusParameters params, SPHINCSPlusPublicKeyParameters pk, byte[][] messages,
+                              byte[][] expected, byte[][] signatures) {
+        for (int i = 0; i < signatures.length; i++) {
+            if (!Arrays.equals(expected[i], signatures[i])) {
+                throw new IllegalStateException(params.getName() + ": cached signature " + i + " differs from SPHINCSPlusSigner's");
+            }
+        }
+        SPHINCSPlusSigner verifier = new SPHINCSPlusSigner();
+        verifier.init(false, pk);
+        if (!verifier.verifySignature(messages[0], signatures[0])) {
+            throw new IllegalStateException(params.getName() + ": cached signature failed to verify");
+        }
+    }
+}
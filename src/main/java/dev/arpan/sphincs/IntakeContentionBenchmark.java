@@ -0,0 +1,196 @@
+package dev.arpan.sphincs;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Leaves appended per second by 1 to 64 producer threads into {@link LeafIntakeBuffer} against a
+ * shared {@code ArrayList} guarded by a lock, as the batching demo would need with several
+ * producers.  Both seal a batch every {@link #CAPACITY} leaves.
+ * <p>
+ * Producers append precomputed leaf hashes so that the intake itself, not hashing, is measured.
+ * Before timing, a run with every thread count checks that the lock-free buffer delivers each leaf
+ * exactly once.
+ */
+public class IntakeContentionBenchmark {
+
+    private static final MerkleHashFamily FAMILY = MerkleHashFamily.SHA256;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int CAPACITY = 4096;
+    private static final int LEAVES = 1 << 21;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run both intakes at every thread count and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or a producer is interrupted
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_intake_contention.csv");
+        Files.writeString(csv, "intake,threads,leaves,elapsed_ms,leaves_per_sec\n");
+
+        for (int threads : THREADS) {
+            checkExactlyOnce(threads);
+        }
+        for (int threads : THREADS) {
+            for (String intake : new String[]{"lock_free", "locked_list"}) {
+                run(csv, intake, threads, LEAVES / 4, false);
+                run(csv, intake, threads, LEAVES, true);
+            }
+        }
+    }
+
+    private interface Intake {
+        void append(byte[] leaf);
+
+        void flush();
+    }
+
+    private static Intake intake(String name, Consumer<Integer> sealed) {
+        if (name.equals("lock_free")) {
+            LeafIntakeBuffer buffer = new LeafIntakeBuffer(FAMILY, CAPACITY, s -> sealed.accept(s.leafCount()));
+            return new Intake() {
+                public void append(byte[] leaf) {
+                    buffer.appendLeaf(leaf, 0);
+                }
+
+                public void flush() {
+                    buffer.flush();
+                }
+            };
+        }
+        return new LockedIntake(sealed);
+    }
+
+    private static void run(Path csv, String name, int threads, int leaves, boolean record) throws Exception {
+        LongAdder delivered = new LongAdder();
+        Intake intake = intake(name, delivered::add);
+        long t0 = System.nanoTime();
+        produce(intake, threads, leaves);
+        intake.flush();
+        long t1 = System.nanoTime();
+        if (delivered.sum() != leaves) {
+            throw new IllegalStateException(name + " delivered " + delivered.sum() + " of " + leaves + " leaves");
+        }
+        if (!record) {
+            return;
+        }
+        double ms = (t1 - t0) / 1e6;
+        double perSec = leaves / ((t1 - t0) / 1e9);
+        String row = String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.0f%n", name, threads, leaves, ms, perSec);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-11s threads=%-3d %8d leaves in %8.1f ms  %,14.0f leaves/s%n",
+                name, threads, leaves, ms, perSec);
+    }
+
+    // Leaf i carries i in its first bytes; every index must come back exactly once
+    private static void checkExactlyOnce(int threads) throws Exception {
+        int leaves = 64 * CAPACITY + 123;
+        BitSet seen = new BitSet(leaves);
+        LeafIntakeBuffer buffer = new LeafIntakeBuffer(FAMILY, CAPACITY, s -> {
+            ByteBuffer b = ByteBuffer.wrap(s.leafHashes());
+            synchronized (seen) {
+                for (int i = 0; i < s.leafCount(); i++) {
+                    int id = b.getInt(i * FAMILY.length());
+                    if (seen.get(id)) {
+                        throw new IllegalStateException("Leaf " + id + " delivered twice");
+                    }
+                    seen.set(id);
+                }
+            }
+        });
+        produce(new Intake() {
+            public void append(byte[] leaf) {
+                buffer.appendLeaf(leaf, 0);
+            }
+
+            public void flush() {
+                buffer.flush();
+            }
+        }, threads, leaves);
+        buffer.flush();
+        if (seen.cardinality() != leaves) {
+            throw new IllegalStateException("Lock-free intake delivered " + seen.cardinality() + " of " + leaves + " leaves");
+        }
+    }
+
+    private static void produce(Intake intake, int threads, int leaves) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread p = new Thread(() -> {
+                byte[] leaf = new byte[FAMILY.length()];
+                ByteBuffer b = ByteBuffer.wrap(leaf);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = first; i < leaves; i += threads) {
+                    b.putInt(0, i);
+                    intake.append(leaf);
+                }
+            });
+            p.start();
+            producers.add(p);
+        }
+        start.countDown();
+        for (Thread p : producers) {
+            p.join();
+        }
+    }
+
+    /**
+     * The baseline: leaves appended to a list under a lock, sealed when the list is full.
+     */
+    private static final class LockedIntake implements Intake {
+        private final Consumer<Integer> sealed;
+        private List<byte[]> leaves = new ArrayList<>(CAPACITY);
+
+        LockedIntake(Consumer<Integer> sealed) {
+            this.sealed = sealed;
+        }
+
+        @Override
+        public void append(byte[] leaf) {
+            List<byte[]> full = null;
+            synchronized (this) {
+                leaves.add(leaf.clone());
+                if (leaves.size() == CAPACITY) {
+                    full = leaves;
+                    leaves = new ArrayList<>(CAPACITY);
+                }
+            }
+            if (full != null) {
+                sealed.accept(full.size());
+            }
+        }
+
+        @Override
+        public void flush() {
+            List<byte[]> rest;
+            synchronized (this) {
+                rest = leaves;
+                leaves = new ArrayList<>(CAPACITY);
+            }
+            if (!rest.isEmpty()) {
+                sealed.accept(rest.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package dev.arpan.sphincs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A preallocated ring of message slots that hashes leaves while messages are still arriving, in the
+ * style of the LMAX Disruptor.
+ * <p>
+ * The producer copies each message into the next slot and advances the published cursor.  Hasher
+ * {@code k} of {@code H} owns the sequences {@code s} with {@code s mod H == k}; it waits on the
+ * cursor and writes each leaf hash in place into the slot's entry of a flat leaf array.  The sealer
+ * waits on the hashers' progress, which together give the highest sequence below which every leaf is
+ * hashed, and builds a {@link MerkleTree} from each completed range of {@code batchSize} leaves (or
+ * fewer after {@link #flush()}).  The producer in turn waits on the sealer before reusing a slot.
+ * Every stage only ever waits on sequences, never on locks.
+ * <p>
+ * Message slots, leaf slots and each hasher's digest are allocated once, so in steady state the only
+ * allocation is the tree of each sealed batch.  Waiting stages spin briefly, then yield, then park.
+ * If a hasher or the sealer fails, for example because {@code onSeal} throws, that thread stops and
+ * {@link #publish} and {@link #close()} throw instead of waiting for it.  The producer methods must be
+ * called from one thread.
+ */
+public final class LeafHashingRing implements AutoCloseable {
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+
+    private final MerkleHashFamily family;
+    private final int nodeLen;
+    private final int size;
+    private final int mask;
+    private final int batchSize;
+    private final byte[][] messages;
+    private final int[] lengths;
+    private final byte[] leaves;
+    private final byte[] batchLeaves;
+    private final Consumer<MerkleTree> onSeal;
+
+    // Last sequence published by the producer
+    private final AtomicLong cursor = new AtomicLong(-1);
+    // For each hasher, the last sequence of its stripe it has hashed
+    private final AtomicLong[] hashed;
+    // Last sequence whose leaf the sealer has copied out; slots up to here may be reused
+    private final AtomicLong sealed = new AtomicLong(-1);
+    // Highest sequence the producer asked to be sealed even if its batch is not full
+    private final AtomicLong flushTo = new AtomicLong(-1);
+    private final List<Thread> threads = new ArrayList<>();
+    // First failure of a hasher or the sealer; that thread has stopped
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean running = true;
+    private long next;
+
+    /**
+     * Start the hasher and sealer threads.
+     *
+     * @param family        hash family of the leaves and tree
+     * @param slots         number of message slots, a power of two no smaller than {@code batchSize}
+     * @param maxMessageLen largest message a slot holds
+     * @param hashers       number of hashing threads
+     * @param batchSize     leaves per sealed batch
+     * @param onSeal        receives each batch's tree, in order, on the sealer thread
+     */
+    public LeafHashingRing(MerkleHashFamily family, int slots, int maxMessageLen, int hashers, int batchSize,
+                           Consumer<MerkleTree> onSeal) {
+        if (Integer.bitCount(slots) != 1 || batchSize < 1 || slots < batchSize || hashers < 1) {
+            throw new IllegalArgumentException("Need a power-of-two slot count of at least batchSize, and a hasher");
+        }
+        this.family = family;
+        this.nodeLen = family.length();
+        this.size = slots;
+        this.mask = slots - 1;
+        this.batchSize = batchSize;
+        this.messages = new byte[slots][maxMessageLen];
+        this.lengths = new int[slots];
+        this.leaves = new byte[slots * nodeLen];
+        this.batchLeaves = new byte[batchSize * nodeLen];
+        this.onSeal = onSeal;
+        this.hashed = new AtomicLong[hashers];
+        for (int k = 0; k < hashers; k++) {
+            hashed[k] = new AtomicLong(k - hashers);
+            int stripe = k;
+            threads.add(start("ring-hasher-" + k, () -> hashLoop(stripe)));
+        }
+        threads.add(start("ring-sealer", this::sealLoop));
+    }
+
+    /**
+     * Copy a message into the next slot, waiting while the ring is full.
+     *
+     * @return the message's sequence number; batch {@code b} holds sequences from {@code b × batchSize}
+     * on, unless earlier batches were cut short by {@link #flush()}
+     * @throws IllegalArgumentException if the message is longer than a slot
+     * @throws IllegalStateException    if a hasher or the sealer has failed
+     */
+    public long publish(byte[] message, int offset, int len) {
+        if (len > messages[0].length) {
+            throw new IllegalArgumentException("Message of " + len + " bytes exceeds the slot size " + messages[0].length);
+        }
+        rethrowFailure();
+        long seq = next;
+        for (int tries = 0; seq - sealed.get() > size; tries++) {
+            rethrowFailure();
+            idle(tries);
+        }
+        next++;
+        int slot = (int) seq & mask;
+        System.arraycopy(message, offset, messages[slot], 0, len);
+        lengths[slot] = len;
+        cursor.set(seq);
+        return seq;
+    }
+
+    /**
+     * Seal every message published so far, even if the last batch is not full.
+     */
+    public void flush() {
+        flushTo.set(next - 1);
+    }
+
+    /**
+     * Seal what has been published and stop the threads once the last batch is delivered.  If
+     * interrupted while waiting for the threads, returns with the interrupt status set.
+     *
+     * @throws IllegalStateException if a hasher or the sealer has failed; the threads are stopped
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            for (int tries = 0; sealed.get() < next - 1; tries++) {
+                rethrowFailure();
+                idle(tries);
+            }
+        } finally {
+            running = false;
+            try {
+                for (Thread t : threads) {
+                    t.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // The last batch is marked sealed before onSeal runs, so it can still have failed
+        rethrowFailure();
+    }
+
+    private void hashLoop(int stripe) {
+        MerkleHasher hasher = family.hasher();
+        AtomicLong progress = hashed[stripe];
+        int stride = hashed.length;
+        long seq = stripe;
+        int tries = 0;
+        while (running) {
+            long published = cursor.get();
+            if (seq > published) {
+                idle(tries++);
+                continue;
+            }
+            for (; seq <= published; seq += stride) {
+                int slot = (int) seq & mask;
+                hasher.hashLeaf(messages[slot], 0, lengths[slot], leaves, slot * nodeLen);
+                progress.set(seq);
+            }
+            tries = 0;
+        }
+    }
+
+    private void sealLoop() {
+        int stride = hashed.length;
+        long batchStart = 0;
+        int tries = 0;
+        while (running) {
+            // Every sequence below the smallest next-unhashed sequence of any stripe is done
+            long available = Long.MAX_VALUE;
+            for (AtomicLong progress : hashed) {
+                available = Math.min(available, progress.get() + stride);
+            }
+            available--;
+            long end = Math.min(available, batchStart + batchSize - 1);
+            boolean full = end == batchStart + batchSize - 1;
+            boolean flushed = end >= batchStart && end >= flushTo.get() && flushTo.get() >= batchStart;
+            if (full || flushed) {
+                int count = (int) (end - batchStart + 1);
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) (batchStart + i) & mask;
+                    System.arraycopy(leaves, slot * nodeLen, batchLeaves, i * nodeLen, nodeLen);
+                }
+                sealed.set(end);
+                onSeal.accept(MerkleTree.build(batchLeaves, count, family));
+                batchStart = end + 1;
+                tries = 0;
+            } else {
+                idle(tries++);
+            }
+        }
+    }
+
+    private static void idle(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.onSpinWait();
+        } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1_000);
+        }
+    }
+
+    private void rethrowFailure() {
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new IllegalStateException("Ring thread failed", e);
+        }
+    }
+
+    private Thread start(String name, Runnable loop) {
+        Thread t = new Thread(() -> {
+            try {
+                loop.run();
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+}
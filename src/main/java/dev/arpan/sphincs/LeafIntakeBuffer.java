@@ -0,0 +1,185 @@
+package dev.arpan.sphincs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free intake of leaves from many producer threads into fixed-size batches.
+ * <p>
+ * Each batch is a segment with a preallocated flat {@code byte[]} of {@code capacity} leaf slots.  A
+ * producer claims a slot with one atomic increment, writes its leaf hash straight into the slot and
+ * then counts itself as committed; producers never wait for one another.  A claim past the last slot
+ * means the segment has wrapped around: it is sealed to new claims and the producer moves on to the
+ * next segment, which the first producer to get there installs with a compare-and-set.  The producer
+ * whose commit completes a sealed segment hands it to the sealing callback, so a segment is only
+ * delivered once every claimed slot has been written.
+ * <p>
+ * {@link #flush()} seals the current segment early by setting its claim counter to the end, so later
+ * producers move to the next segment and the slots that were never claimed count as committed.  It
+ * leaves an empty segment open, so every batch id from 0 up is delivered, each exactly once.
+ * Instances are thread-safe.
+ */
+public final class LeafIntakeBuffer {
+
+    /**
+     * A sealed batch of leaves, handed to the callback once.
+     *
+     * @param batchId    sequence number of the batch within this buffer, consecutive from 0
+     * @param family     the hash family of the leaves
+     * @param leafHashes the concatenated leaf hashes; only the first {@code leafCount} slots are used
+     * @param leafCount  number of leaves in the batch
+     */
+    public record Sealed(long batchId, MerkleHashFamily family, byte[] leafHashes, int leafCount) {
+        /** @return the Merkle tree over this batch's leaves */
+        public MerkleTree tree() {
+            return MerkleTree.build(leafHashes, leafCount, family);
+        }
+    }
+
+    private final MerkleHashFamily family;
+    private final int capacity;
+    private final int nodeLen;
+    private final Consumer<Sealed> onSeal;
+    private final AtomicReference<Segment> current;
+
+    /**
+     * @param family   hash family of the leaves
+     * @param capacity leaves per batch
+     * @param onSeal   receives every sealed batch, none of them empty, on the producer or flushing
+     *                 thread that completed it
+     */
+    public LeafIntakeBuffer(MerkleHashFamily family, int capacity, Consumer<Sealed> onSeal) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.family = family;
+        this.capacity = capacity;
+        this.nodeLen = family.length();
+        this.onSeal = onSeal;
+        this.current = new AtomicReference<>(new Segment(0, capacity, nodeLen));
+    }
+
+    /**
+     * Hash a message into the next free slot.
+     *
+     * @return a ticket naming the batch and leaf index, see {@link #batchOf} and {@link #indexOf}
+     */
+    public long append(byte[] message) {
+        while (true) {
+            Segment s = current.get();
+            int slot = s.claimed.getAndIncrement();
+            if (slot < capacity) {
+                family.hasher().hashLeaf(message, 0, message.length, s.leaves, slot * nodeLen);
+                commit(s);
+                return ticket(s.id, slot);
+            }
+            advance(s);
+        }
+    }
+
+    /**
+     * Copy a precomputed leaf hash into the next free slot.
+     *
+     * @param leafHash array holding the hash
+     * @param offset   offset of the hash; {@link MerkleHashFamily#length()} bytes are copied
+     * @return a ticket naming the batch and leaf index, see {@link #batchOf} and {@link #indexOf}
+     */
+    public long appendLeaf(byte[] leafHash, int offset) {
+        while (true) {
+            Segment s = current.get();
+            int slot = s.claimed.getAndIncrement();
+            if (slot < capacity) {
+                System.arraycopy(leafHash, offset, s.leaves, slot * nodeLen, nodeLen);
+                commit(s);
+                return ticket(s.id, slot);
+            }
+            advance(s);
+        }
+    }
+
+    /**
+     * Seal the current batch now, even if it is not full.  Leaves that producers are still writing
+     * are delivered with it once written.  An empty batch is left open, so batch ids stay consecutive.
+     */
+    public void flush() {
+        while (true) {
+            Segment s = current.get();
+            int claimed = s.claimed.get();
+            if (claimed >= capacity) {
+                // Already sealed, but the producer that wrapped it may not have moved on yet; the
+                // segment after it can hold leaves
+                advance(s);
+            } else if (claimed == 0) {
+                return;
+            } else if (s.claimed.compareAndSet(claimed, capacity)) {
+                s.size = claimed;
+                advance(s);
+                // The slots nobody claimed are committed on their behalf
+                if (s.committed.addAndGet(capacity - claimed) == capacity) {
+                    deliver(s);
+                }
+                return;
+            }
+        }
+    }
+
+    /** @return the number of leaves per batch */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the batch id encoded in a ticket */
+    public static long batchOf(long ticket) {
+        return ticket >>> 32;
+    }
+
+    /** @return the leaf index encoded in a ticket */
+    public static int indexOf(long ticket) {
+        return (int) ticket;
+    }
+
+    private static long ticket(long batchId, int slot) {
+        return batchId << 32 | slot;
+    }
+
+    private void commit(Segment s) {
+        if (s.committed.incrementAndGet() == capacity) {
+            deliver(s);
+        }
+    }
+
+    private void deliver(Segment s) {
+        onSeal.accept(new Sealed(s.id, family, s.leaves, s.size));
+    }
+
+    // Make the segment after s current, creating it if no other producer has yet
+    private void advance(Segment s) {
+        Segment next = s.next.get();
+        if (next == null) {
+            Segment candidate = new Segment(s.id + 1, capacity, nodeLen);
+            next = s.next.compareAndSet(null, candidate) ? candidate : s.next.get();
+        }
+        current.compareAndSet(s, next);
+    }
+
+    /**
+     * One batch's slots.  {@code claimed} may run past the capacity; {@code committed} reaches it
+     * exactly once, when every claimed slot has been written.
+     */
+    private static final class Segment {
+        final long id;
+        final byte[] leaves;
+        final AtomicInteger claimed = new AtomicInteger();
+        final AtomicInteger committed = new AtomicInteger();
+        final AtomicReference<Segment> next = new AtomicReference<>();
+        // Written by flush() before its add to committed, which publishes it to the delivering thread
+        volatile int size;
+
+        Segment(long id, int capacity, int nodeLen) {
+            this.id = id;
+            this.leaves = new byte[capacity * nodeLen];
+            this.size = capacity;
+        }
+    }
+}
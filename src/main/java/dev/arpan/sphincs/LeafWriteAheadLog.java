@@ -0,0 +1,436 @@
+package dev.arpan.sphincs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped log of the leaf hashes a batch signer has accepted but not yet signed,
+ * so that a restart re-signs those batches instead of dropping them.
+ * <p>
+ * The log is a directory of fixed-size segment files {@code wal-NNNNNNNN.log}, each starting with a
+ * 24-byte header (i64 magic, u8 hash family id, 7 zero bytes, i64 next batch id) followed by
+ * big-endian records:
+ * <pre>
+ * LEAF    u8 1, i64 batch id, i32 leaf index, leaf hash (n bytes), i32 CRC32C
+ * SIGNED  u8 2, i64 batch id, i32 CRC32C
+ * </pre>
+ * The CRC covers the record from its type byte; a zero type byte, a short record or a bad CRC ends a
+ * segment, so a torn write at a crash is ignored.  When a segment fills up the next one is created;
+ * the oldest segments are deleted as soon as every batch with a leaf in them has been signed.  The
+ * header's next batch id is one more than the largest id logged before the segment was created, so
+ * the high-water mark survives the deletion of the records that set it and batch ids never repeat.
+ * <p>
+ * Writes land in the page cache at once, so they already survive a crash of the JVM; the
+ * {@link SyncPolicy} decides when they are forced to the device to survive an OS crash or power
+ * loss as well.  Opening a directory replays it: batches with leaves but no SIGNED record are
+ * returned by {@link #pending()}, and new records go to a fresh segment.  Instances are thread-safe.
+ */
+public final class LeafWriteAheadLog implements Closeable {
+
+    /**
+     * When appended records are forced to the storage device.
+     */
+    public enum SyncPolicy {
+        /** Never; the OS writes the pages back in its own time. */
+        NONE,
+        /** Once per batch, when it is sealed and before its root is signed. */
+        ON_SEAL,
+        /** Before each append is acknowledged; appenders waiting together share one force. */
+        GROUP_COMMIT,
+        /** Before each append is acknowledged, one force per record. */
+        EVERY_APPEND
+    }
+
+    /**
+     * A batch found in the log without a SIGNED record.
+     *
+     * @param batchId the batch
+     * @param leaves  its leaf hashes, by leaf index
+     */
+    public record PendingBatch(long batchId, List<byte[]> leaves) {}
+
+    private static final long MAGIC = 0x4c45414657414c32L; // "LEAFWAL2"
+    private static final int HEADER_LEN = 24;
+    private static final int HEADER_NEXT_BATCH = 16;
+    private static final int LEAF = 1;
+    private static final int SIGNED = 2;
+
+    private final Path dir;
+    private final MerkleHashFamily family;
+    private final int nodeLen;
+    private final int leafRecordLen;
+    private final int segmentBytes;
+    private final SyncPolicy policy;
+    private final List<PendingBatch> pending;
+    private final long nextBatchId;
+
+    // Oldest first; the last one is written to.  Guarded by writeLock.
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Object writeLock = new Object();
+    private final CRC32C crc = new CRC32C();
+    // Largest batch id logged or carried in a header so far; guarded by writeLock
+    private long maxBatchId;
+    // Logical positions count every byte ever written across segments, headers included
+    private long written;
+    // Held by the thread forcing on behalf of a group of appenders
+    private final Object syncLock = new Object();
+    // Only ever raised, by forcing threads and by segment roll-over alike
+    private final AtomicLong durable = new AtomicLong();
+
+    /**
+     * Open or create a log and replay any records it holds.
+     *
+     * @param dir          directory of the segment files, created if missing
+     * @param family       hash family of the leaves
+     * @param segmentBytes size of each segment file
+     * @param policy       when records are forced to the device
+     * @throws IOException if the directory cannot be read or a segment created, or a segment was
+     *                     written with another hash family
+     */
+    public LeafWriteAheadLog(Path dir, MerkleHashFamily family, int segmentBytes, SyncPolicy policy) throws IOException {
+        this.dir = dir;
+        this.family = family;
+        this.nodeLen = family.length();
+        this.leafRecordLen = 1 + 8 + 4 + nodeLen + 4;
+        if (segmentBytes < HEADER_LEN + leafRecordLen) {
+            throw new IllegalArgumentException("Segment of " + segmentBytes + " bytes cannot hold a record");
+        }
+        this.segmentBytes = segmentBytes;
+        this.policy = policy;
+        Files.createDirectories(dir);
+
+        Map<Long, TreeMap<Integer, byte[]>> unsigned = new TreeMap<>();
+        long maxFound = -1;
+        long lastIndex = -1;
+        for (Path file : segmentFiles()) {
+            Segment segment = open(file, segmentIndex(file));
+            maxFound = Math.max(maxFound, segment.map.getLong(HEADER_NEXT_BATCH) - 1);
+            maxFound = Math.max(maxFound, replay(segment, unsigned));
+            lastIndex = segment.index;
+            segments.add(segment);
+        }
+        // Batches signed in a later segment than their leaves are gone from every set after the replay
+        for (Segment s : segments) {
+            s.unsigned.retainAll(unsigned.keySet());
+        }
+        List<PendingBatch> found = new ArrayList<>(unsigned.size());
+        unsigned.forEach((id, leaves) -> found.add(new PendingBatch(id, List.copyOf(leaves.values()))));
+        this.pending = List.copyOf(found);
+        this.maxBatchId = maxFound;
+        this.nextBatchId = maxFound + 1;
+
+        Segment fresh = create(lastIndex + 1);
+        segments.add(fresh);
+        written = fresh.base() + HEADER_LEN;
+        durable.set(written);
+        deleteSigned();
+    }
+
+    /** @return the batches replayed on open that had not been signed, ordered by batch id */
+    public List<PendingBatch> pending() {
+        return pending;
+    }
+
+    /**
+     * @return one more than the largest batch id found on open, in a record or a segment header, so
+     * new ids do not collide with any id used before, even once its records are deleted
+     */
+    public long nextBatchId() {
+        return nextBatchId;
+    }
+
+    /** @return the hash family of the logged leaves */
+    public MerkleHashFamily family() {
+        return family;
+    }
+
+    /** @return the sync policy */
+    public SyncPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Append an accepted leaf.  The record is written at once but, depending on the policy, only
+     * durable after {@link #commit}.
+     *
+     * @param leaf   array holding the leaf hash
+     * @param offset offset of the hash in {@code leaf}
+     * @return the log position to pass to {@link #commit}
+     */
+    public long append(long batchId, int leafIndex, byte[] leaf, int offset) {
+        synchronized (writeLock) {
+            Segment s = writable(leafRecordLen);
+            MappedByteBuffer map = s.map;
+            int start = s.pos;
+            map.put(start, (byte) LEAF);
+            map.putLong(start + 1, batchId);
+            map.putInt(start + 9, leafIndex);
+            map.put(start + 13, leaf, offset, nodeLen);
+            map.putInt(start + 13 + nodeLen, checksum(map, start, 13 + nodeLen));
+            s.pos += leafRecordLen;
+            s.unsigned.add(batchId);
+            maxBatchId = Math.max(maxBatchId, batchId);
+            written += leafRecordLen;
+            if (policy == SyncPolicy.EVERY_APPEND) {
+                map.force(start, leafRecordLen);
+                durable.accumulateAndGet(written, Math::max);
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Wait until the leaf appended at {@code position} is durable, if the policy acknowledges appends
+     * only once they are.  Under {@link SyncPolicy#GROUP_COMMIT} one waiting thread forces everything
+     * written so far while the others wait for it.
+     */
+    public void commit(long position) {
+        if (policy == SyncPolicy.GROUP_COMMIT) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Called when a batch is sealed, before its root is signed.  Under {@link SyncPolicy#ON_SEAL}
+     * this forces every record written so far, so a whole batch costs one force.
+     */
+    public void sealed(long batchId) {
+        if (policy == SyncPolicy.ON_SEAL) {
+            long target;
+            synchronized (writeLock) {
+                target = written;
+            }
+            sync(target);
+        }
+    }
+
+    /**
+     * Record that a batch has been signed, so a restart does not sign it again, and delete the
+     * segments no longer needed.  The record is not forced: if it is lost the batch is only signed
+     * twice.
+     */
+    public void signed(long batchId) {
+        synchronized (writeLock) {
+            Segment s = writable(1 + 8 + 4);
+            MappedByteBuffer map = s.map;
+            int start = s.pos;
+            map.put(start, (byte) SIGNED);
+            map.putLong(start + 1, batchId);
+            map.putInt(start + 9, checksum(map, start, 9));
+            s.pos += 13;
+            written += 13;
+            maxBatchId = Math.max(maxBatchId, batchId);
+            for (Segment segment : segments) {
+                segment.unsigned.remove(batchId);
+            }
+            try {
+                deleteSigned();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** @return the number of batches with logged leaves and no SIGNED record */
+    public int unsignedBatches() {
+        synchronized (writeLock) {
+            Set<Long> ids = new HashSet<>();
+            for (Segment segment : segments) {
+                ids.addAll(segment.unsigned);
+            }
+            return ids.size();
+        }
+    }
+
+    /** @return the number of segment files currently in use */
+    public int segments() {
+        synchronized (writeLock) {
+            return segments.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment s : segments) {
+                if (policy != SyncPolicy.NONE) {
+                    s.map.force();
+                }
+                s.channel.close();
+            }
+            segments.clear();
+        }
+    }
+
+    private void sync(long target) {
+        if (durable.get() >= target) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durable.get() >= target) {
+                return; // forced by the thread this one queued behind
+            }
+            Segment s;
+            long upTo;
+            synchronized (writeLock) {
+                s = segments.getLast();
+                upTo = written;
+            }
+            // Earlier segments were forced when they filled up, so only the current one can be dirty
+            int from = (int) Math.max(0, durable.get() - s.base());
+            int to = (int) (upTo - s.base());
+            if (to > from) {
+                s.map.force(from, to - from);
+            }
+            durable.accumulateAndGet(upTo, Math::max);
+        }
+    }
+
+    // The current segment if it has room for len bytes, otherwise a new one; caller holds writeLock
+    private Segment writable(int len) {
+        Segment s = segments.getLast();
+        if (s.pos + len <= segmentBytes) {
+            return s;
+        }
+        if (policy != SyncPolicy.NONE) {
+            s.map.force();
+        }
+        Segment next;
+        try {
+            next = create(s.index + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.add(next);
+        written = next.base() + HEADER_LEN;
+        if (policy != SyncPolicy.NONE) {
+            durable.accumulateAndGet(written, Math::max);
+        }
+        return next;
+    }
+
+    // Delete the oldest segments while every batch with leaves in them is signed; caller holds writeLock
+    private void deleteSigned() throws IOException {
+        while (segments.size() > 1 && segments.getFirst().unsigned.isEmpty()) {
+            Segment s = segments.removeFirst();
+            s.channel.close();
+            Files.deleteIfExists(s.path);
+        }
+    }
+
+    // Read a segment's valid records; returns the largest batch id seen
+    private long replay(Segment s, Map<Long, TreeMap<Integer, byte[]>> unsigned) {
+        MappedByteBuffer map = s.map;
+        long maxBatchId = -1;
+        int pos = HEADER_LEN;
+        while (pos < segmentBytes) {
+            int type = map.get(pos);
+            if (type == LEAF && pos + leafRecordLen <= segmentBytes
+                    && map.getInt(pos + 13 + nodeLen) == checksum(map, pos, 13 + nodeLen)) {
+                long batchId = map.getLong(pos + 1);
+                byte[] leaf = new byte[nodeLen];
+                map.get(pos + 13, leaf);
+                unsigned.computeIfAbsent(batchId, id -> new TreeMap<>()).put(map.getInt(pos + 9), leaf);
+                s.unsigned.add(batchId);
+                maxBatchId = Math.max(maxBatchId, batchId);
+                pos += leafRecordLen;
+            } else if (type == SIGNED && pos + 13 <= segmentBytes && map.getInt(pos + 9) == checksum(map, pos, 9)) {
+                long batchId = map.getLong(pos + 1);
+                unsigned.remove(batchId);
+                maxBatchId = Math.max(maxBatchId, batchId);
+                pos += 13;
+            } else {
+                break;
+            }
+        }
+        s.pos = pos;
+        return maxBatchId;
+    }
+
+    private int checksum(MappedByteBuffer map, int start, int len) {
+        crc.reset();
+        crc.update(map.slice(start, len));
+        return (int) crc.getValue();
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().matches("wal-\\d{8}\\.log")).sorted().toList();
+        }
+    }
+
+    private static long segmentIndex(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(4, 12));
+    }
+
+    // Caller holds writeLock, or is the constructor
+    private Segment create(long index) throws IOException {
+        Path path = dir.resolve(String.format("wal-%08d.log", index));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        map.putLong(0, MAGIC);
+        map.put(8, (byte) family.id());
+        map.putLong(HEADER_NEXT_BATCH, maxBatchId + 1);
+        if (policy != SyncPolicy.NONE) {
+            map.force(0, HEADER_LEN);
+        }
+        Segment s = new Segment(index, path, channel, map);
+        s.pos = HEADER_LEN;
+        return s;
+    }
+
+    private Segment open(Path path, long index) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() != segmentBytes) {
+                throw new IOException(path + " is " + channel.size() + " bytes, expected " + segmentBytes);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (map.getLong(0) != MAGIC || map.get(8) != family.id()) {
+                throw new IOException(path + " is not a leaf log for hash family " + family);
+            }
+            return new Segment(index, path, channel, map);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private final class Segment {
+        final long index;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        // Batches with a leaf in this segment and no SIGNED record yet
+        final Set<Long> unsigned = new HashSet<>();
+        int pos;
+
+        Segment(long index, Path path, FileChannel channel, MappedByteBuffer map) {
+            this.index = index;
+            this.path = path;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        long base() {
+            return index * segmentBytes;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Build a {@link MappedMerkleStore} and measure random-access proof lookups against it.
+ * <p>
+ * Usage: {@code MappedMerkleBenchmark [leafCount] [workDir]}.  The default of 2^22 leaves gives a
+ * 256 MiB tree file; 2^29 leaves gives a 32 GiB file, which is the scale the store is meant for.
+ * The leaf and tree files are written into {@code workDir} (default: the system temp directory) and
+ * deleted afterwards.
+ */
+public class MappedMerkleBenchmark {
+
+    private static final long DEFAULT_LEAVES = 1L << 22;
+    private static final int LOOKUPS = 1_000_000;
+
+    /**
+     * Largest batch for which the mapped root is cross-checked against an in-heap {@link MerkleTree}.
+     */
+    private static final long MAX_CHECKED_LEAVES = 1L << 22;
+
+    public static void main(String[] args) throws IOException {
+        long leaves = args.length > 0 ? Long.parseLong(args[0]) : DEFAULT_LEAVES;
+        Path workDir = args.length > 1 ? Path.of(args[1]) : Path.of(System.getProperty("java.io.tmpdir"));
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        run(outDir, workDir, leaves);
+    }
+
+    /**
+     * Generate random leaves, build the mapped tree, time random lookups and write a CSV row.
+     *
+     * @param outDir  the directory where result files should be written
+     * @param workDir the directory for the temporary leaf and tree files
+     * @param leaves  number of leaves in the batch
+     * @throws IOException if any file cannot be written
+     */
+    public static void run(Path outDir, Path workDir, long leaves) throws IOException {
+        if (leaves < 2) {
+            throw new IllegalArgumentException("Need at least two leaves to have an auth path");
+        }
+        Path leafFile = Files.createTempFile(workDir, "leaves", ".bin");
+        Path treeFile = Files.createTempFile(workDir, "tree", ".bin");
+        try {
+            writeRandomLeaves(leafFile, leaves);
+
+            long b0 = System.nanoTime();
+            MappedMerkleStore built = MappedMerkleStore.build(leafFile, treeFile);
+            long b1 = System.nanoTime();
+            byte[] root = built.root();
+            built.close();
+
+            if (leaves <= MAX_CHECKED_LEAVES) {
+                MerkleTree heap = MerkleTree.build(Files.readAllBytes(leafFile), (int) leaves);
+                if (!Arrays.equals(root, heap.root())) {
+                    throw new IllegalStateException("Mapped root differs from in-heap root");
+                }
+            }
+
+            try (MappedMerkleStore store = MappedMerkleStore.open(treeFile)) {
+                SplittableRandom rnd = new SplittableRandom(7);
+                byte[] path = new byte[store.height() * MerkleTree.HASH_LEN];
+                long sink = 0;
+
+                long c0 = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    store.copyAuthPath(rnd.nextLong(leaves), path, 0);
+                    sink += path[0];
+                }
+                long c1 = System.nanoTime();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    ByteBuffer[] views = store.authPathViews(rnd.nextLong(leaves));
+                    sink += views[views.length - 1].get(0);
+                }
+                long c2 = System.nanoTime();
+
+                long fileBytes = Files.size(treeFile);
+                double buildS = (b1 - b0) / 1e9;
+                double copyPerSec = LOOKUPS / ((c1 - c0) / 1e9);
+                double viewPerSec = LOOKUPS / ((c2 - c1) / 1e9);
+
+                Path csv = outDir.resolve("merkle_mapped_lookup.csv");
+                if (!Files.exists(csv)) {
+                    Files.writeString(csv, "leaves,tree_file_bytes,build_s,copy_lookups_per_sec,view_lookups_per_sec\n");
+                }
+                String row = String.format(Locale.ROOT, "%d,%d,%.2f,%.0f,%.0f%n", leaves, fileBytes, buildS, copyPerSec, viewPerSec);
+                Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+                System.out.printf(Locale.ROOT,
+                        "leaves=%d  file=%,d bytes  build=%.2f s  copy lookups=%,.0f/s  view lookups=%,.0f/s  (sink %d)%n",
+                        leaves, fileBytes, buildS, copyPerSec, viewPerSec, sink);
+            }
+        } finally {
+            Files.deleteIfExists(leafFile);
+            Files.deleteIfExists(treeFile);
+        }
+    }
+
+    // Leaf contents do not matter for lookup cost, so fill them with random bytes instead of hashing
+    private static void writeRandomLeaves(Path leafFile, long leaves) throws IOException {
+        SplittableRandom rnd = new SplittableRandom(42);
+        byte[] chunk = new byte[1 << 20];
+        long remaining = leaves * MerkleTree.HASH_LEN;
+        try (OutputStream out = Files.newOutputStream(leafFile)) {
+            while (remaining > 0) {
+                int n = (int) Math.min(chunk.length, remaining);
+                for (int i = 0; i < n; i += 8) {
+                    long v = rnd.nextLong();
+                    for (int j = 0; j < 8; j++) {
+                        chunk[i + j] = (byte) (v >>> (8 * j));
+                    }
+                }
+                out.write(chunk, 0, n);
+                remaining -= n;
+            }
+        }
+    }
+}
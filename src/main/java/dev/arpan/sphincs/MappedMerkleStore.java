@@ -0,0 +1,271 @@
+package dev.arpan.sphincs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Merkle tree kept in a memory-mapped file instead of the heap, for batches whose layers do not
+ * fit in memory.
+ * <p>
+ * The file starts with a 16-byte header (magic, leaf count) followed by every level back to back,
+ * leaves first, in the same node order as {@link MerkleTree}.  The file is mapped in 1 GiB segments
+ * (a single mapping is limited to 2 GiB); the segment size is a multiple of the node size, so no
+ * node straddles two segments.  Nodes and auth paths are served as read-only views of the mapped
+ * pages, so a lookup copies no bytes and only touches the log₂(N) pages it needs.
+ */
+public final class MappedMerkleStore implements Closeable {
+
+    private static final int HASH_LEN = MerkleTree.HASH_LEN;
+    private static final long MAGIC = 0x4d45524b4c453031L; // "MERKLE01"
+    private static final int HEADER_LEN = 16;
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long[] levelOffsets;
+    private final long[] levelSizes;
+
+    private MappedMerkleStore(FileChannel channel, MappedByteBuffer[] segments, long leafCount) {
+        this.channel = channel;
+        this.segments = segments;
+        this.levelSizes = levelSizes(leafCount);
+        this.levelOffsets = new long[levelSizes.length];
+        long total = 0;
+        for (int level = 0; level < levelSizes.length; level++) {
+            levelOffsets[level] = total;
+            total += levelSizes[level];
+        }
+    }
+
+    /**
+     * Build a store from a file of leaf hashes written back to back, such as the spill file of a
+     * {@link MerkleAccumulator}.
+     *
+     * @param leafFile the flat leaf hashes
+     * @param treeFile the tree file to create (overwritten if it exists)
+     * @return the store, open for queries
+     * @throws IOException if either file cannot be read or written; the partial tree file is deleted
+     */
+    public static MappedMerkleStore build(Path leafFile, Path treeFile) throws IOException {
+        FileChannel out = FileChannel.open(treeFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long leafCount = copyLeaves(leafFile, out);
+            MappedMerkleStore store = map(out, FileChannel.MapMode.READ_WRITE, leafCount);
+            store.hashLevels();
+            for (MappedByteBuffer segment : store.segments) {
+                segment.force();
+            }
+            return store;
+        } catch (Throwable e) {
+            // The store never escaped, so close the channel and remove the partial tree file
+            try (out) {
+                Files.deleteIfExists(treeFile);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // Write the header and the leaf level; returns the leaf count
+    private static long copyLeaves(Path leafFile, FileChannel out) throws IOException {
+        try (FileChannel in = FileChannel.open(leafFile, StandardOpenOption.READ)) {
+            long leafBytes = in.size();
+            if (leafBytes == 0 || leafBytes % HASH_LEN != 0) {
+                throw new IOException("Leaf file size " + leafBytes + " is not a positive multiple of " + HASH_LEN);
+            }
+            long leafCount = leafBytes / HASH_LEN;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LEN).putLong(MAGIC).putLong(leafCount).flip();
+            out.write(header, 0);
+            long copied = 0;
+            while (copied < leafBytes) {
+                copied += in.transferTo(copied, leafBytes - copied, out.position(HEADER_LEN + copied));
+            }
+            return leafCount;
+        }
+    }
+
+    /**
+     * Open an existing tree file read-only.
+     *
+     * @param treeFile a file written by {@link #build(Path, Path)}
+     * @return the store, open for queries
+     * @throws IOException if the file cannot be read or is not a tree file
+     */
+    public static MappedMerkleStore open(Path treeFile) throws IOException {
+        FileChannel channel = FileChannel.open(treeFile, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < HEADER_LEN || header.getLong() != MAGIC) {
+                throw new IOException("Not a Merkle tree file: " + treeFile);
+            }
+            return map(channel, FileChannel.MapMode.READ_ONLY, header.getLong());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static MappedMerkleStore map(FileChannel channel, FileChannel.MapMode mode, long leafCount) throws IOException {
+        long total = 0;
+        for (long size : levelSizes(leafCount)) {
+            total += size;
+        }
+        long bytes = total * HASH_LEN;
+        if (mode == FileChannel.MapMode.READ_ONLY && channel.size() < HEADER_LEN + bytes) {
+            throw new IOException("Tree file is truncated: expected " + (HEADER_LEN + bytes) + " bytes");
+        }
+        int count = (int) ((bytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * SEGMENT_BYTES;
+            segments[i] = channel.map(mode, HEADER_LEN + start, Math.min(SEGMENT_BYTES, bytes - start));
+        }
+        return new MappedMerkleStore(channel, segments, leafCount);
+    }
+
+    private static long[] levelSizes(long leafCount) {
+        if (leafCount < 1) {
+            throw new IllegalArgumentException("A Merkle tree needs at least one leaf");
+        }
+        long[] sizes = new long[MerkleTree.heightFor(leafCount) + 1];
+        long size = leafCount;
+        for (int level = 0; level < sizes.length; level++) {
+            sizes[level] = size;
+            size = (size + 1) / 2;
+        }
+        return sizes;
+    }
+
+    // Hash every level bottom-up, staging each pair of children through a small scratch buffer
+    private void hashLevels() {
+        MerkleHasher hasher = MerkleHasher.sha256();
+        byte[] scratch = new byte[3 * HASH_LEN];
+        for (int level = 0; level < height(); level++) {
+            long size = levelSizes[level];
+            for (long i = 0; i < levelSizes[level + 1]; i++) {
+                long left = 2 * i;
+                long right = (left + 1 < size) ? left + 1 : left;
+                read(level, left, scratch, 0);
+                read(level, right, scratch, HASH_LEN);
+                hasher.hashNode(scratch, 0, scratch, HASH_LEN, scratch, 2 * HASH_LEN);
+                long pos = (levelOffsets[level + 1] + i) * HASH_LEN;
+                segments[(int) (pos / SEGMENT_BYTES)].put((int) (pos % SEGMENT_BYTES), scratch, 2 * HASH_LEN, HASH_LEN);
+            }
+        }
+    }
+
+    private void read(int level, long index, byte[] out, int outOffset) {
+        long pos = position(level, index);
+        segments[(int) (pos / SEGMENT_BYTES)].get((int) (pos % SEGMENT_BYTES), out, outOffset, HASH_LEN);
+    }
+
+    private long position(int level, long index) {
+        if (index < 0 || index >= levelSizes[level]) {
+            throw new IndexOutOfBoundsException("Node " + index + " outside level " + level + " of size " + levelSizes[level]);
+        }
+        return (levelOffsets[level] + index) * HASH_LEN;
+    }
+
+    /** @return the number of leaves */
+    public long leafCount() {
+        return levelSizes[0];
+    }
+
+    /** @return the number of levels above the leaves; also the number of hashes in every auth path */
+    public int height() {
+        return levelSizes.length - 1;
+    }
+
+    /** @return a copy of the root hash */
+    public byte[] root() {
+        byte[] out = new byte[HASH_LEN];
+        read(height(), 0, out, 0);
+        return out;
+    }
+
+    /**
+     * @return a read-only view of the node at (level, index), backed directly by the mapped file
+     */
+    public ByteBuffer node(int level, long index) {
+        long pos = position(level, index);
+        return segments[(int) (pos / SEGMENT_BYTES)].slice((int) (pos % SEGMENT_BYTES), HASH_LEN).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return the authentication path of a leaf as read-only views of the mapped pages, ordered from
+     * the leaf level up to just below the root.  No node bytes are copied.
+     */
+    public ByteBuffer[] authPathViews(long leafIndex) {
+        checkLeaf(leafIndex);
+        ByteBuffer[] path = new ByteBuffer[height()];
+        long index = leafIndex;
+        for (int level = 0; level < height(); level++) {
+            path[level] = node(level, sibling(level, index));
+            index >>>= 1;
+        }
+        return path;
+    }
+
+    /**
+     * Copy the authentication path of a leaf into a caller-supplied buffer as {@link #height()}
+     * consecutive sibling hashes, the same layout as {@link MerkleTree#copyAuthPath}.
+     */
+    public void copyAuthPath(long leafIndex, byte[] out, int outOffset) {
+        checkLeaf(leafIndex);
+        long index = leafIndex;
+        for (int level = 0; level < height(); level++) {
+            read(level, sibling(level, index), out, outOffset + level * HASH_LEN);
+            index >>>= 1;
+        }
+    }
+
+    /**
+     * Read the inclusion proof of a leaf in the form produced by {@link MerkleTree#proof(int)}.
+     */
+    public MerkleBatchSigner.Proof proof(int leafIndex) {
+        checkLeaf(leafIndex);
+        List<byte[]> path = new ArrayList<>(height());
+        long index = leafIndex;
+        for (int level = 0; level < height(); level++) {
+            byte[] node = new byte[HASH_LEN];
+            read(level, sibling(level, index), node, 0);
+            path.add(node);
+            index >>>= 1;
+        }
+        return new MerkleBatchSigner.Proof(leafIndex, path);
+    }
+
+    private long sibling(int level, long index) {
+        long sibling = index ^ 1;
+        return sibling < levelSizes[level] ? sibling : index; // duplicate last if no sibling
+    }
+
+    private void checkLeaf(long leafIndex) {
+        if (leafIndex < 0 || leafIndex >= leafCount()) {
+            throw new IndexOutOfBoundsException("Leaf index " + leafIndex + " outside batch of " + leafCount());
+        }
+    }
+
+    /**
+     * Close the underlying file.  The mappings stay valid until they are garbage collected, but the
+     * store must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
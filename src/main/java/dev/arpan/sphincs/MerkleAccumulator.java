@@ -0,0 +1,205 @@
+package dev.arpan.sphincs;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Incremental Merkle root computation for a stream of leaves of unknown length.
+ * <p>
+ * After n leaves the accumulator holds one complete subtree root for every set bit of n, so memory
+ * is O(log n) regardless of the stream length.  Adding a leaf merges equal-height subtrees like a
+ * binary counter carry.  On {@link #finish()} the remaining subtrees are folded together, pairing an
+ * unmatched node with itself, which yields exactly the root of {@link MerkleTree#build} over the same
+ * leaves.
+ * <p>
+ * If a spill file is given, every leaf hash is also appended to it so that inclusion proofs can be
+ * produced later with {@link #loadTree()} once the batch is sealed.
+ */
+public final class MerkleAccumulator implements Closeable {
+
+    private static final int MAX_LEVELS = 64;
+
+    private final MerkleHasher hasher;
+    private final int nodeLen;
+    private final byte[] pending;
+    private final byte[] carry;
+    private final Path spillFile;
+    private OutputStream spill;
+    private long leafCount;
+    private byte[] root;
+
+    /**
+     * Create an accumulator that keeps only the pending subtree roots.
+     */
+    public MerkleAccumulator() {
+        this(MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Create an accumulator for a chosen hash family that keeps only the pending subtree roots.
+     *
+     * @param family the hash family for leaves and inner nodes
+     */
+    public MerkleAccumulator(MerkleHashFamily family) {
+        this.hasher = family.hasher();
+        this.nodeLen = family.length();
+        this.pending = new byte[MAX_LEVELS * nodeLen];
+        this.carry = new byte[nodeLen];
+        this.spillFile = null;
+    }
+
+    /**
+     * Create an accumulator that also appends every leaf hash to {@code spillFile}, truncating it first.
+     *
+     * @param spillFile where the leaf hashes are written, back to back
+     * @throws IOException if the file cannot be opened
+     */
+    public MerkleAccumulator(Path spillFile) throws IOException {
+        this(spillFile, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Create an accumulator for a chosen hash family that also spills every leaf hash to {@code spillFile}.
+     *
+     * @param spillFile where the leaf hashes are written, back to back
+     * @param family    the hash family for leaves and inner nodes
+     * @throws IOException if the file cannot be opened
+     */
+    public MerkleAccumulator(Path spillFile, MerkleHashFamily family) throws IOException {
+        this.hasher = family.hasher();
+        this.nodeLen = family.length();
+        this.pending = new byte[MAX_LEVELS * nodeLen];
+        this.carry = new byte[nodeLen];
+        this.spillFile = spillFile;
+        this.spill = new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16);
+    }
+
+    /**
+     * Hash a message with the accumulator's hash family and add it as the next leaf.
+     */
+    public void addMessage(byte[] message) throws IOException {
+        hasher.hashLeaf(message, 0, message.length, carry, 0);
+        addLeaf(carry, 0);
+    }
+
+    /**
+     * Add the next leaf hash.
+     *
+     * @param leafHash a leaf hash of the family's node length
+     */
+    public void addLeaf(byte[] leafHash) throws IOException {
+        if (leafHash.length != nodeLen) {
+            throw new IllegalArgumentException("Leaf is " + leafHash.length + " bytes, expected " + nodeLen);
+        }
+        addLeaf(leafHash, 0);
+    }
+
+    /**
+     * Add the next leaf hash, read from {@code buf} at {@code offset}.
+     */
+    public void addLeaf(byte[] buf, int offset) throws IOException {
+        if (root != null || (spillFile != null && spill == null)) {
+            throw new IllegalStateException("Accumulator already finished or closed");
+        }
+        if (spill != null) {
+            spill.write(buf, offset, nodeLen);
+        }
+        if (buf != carry) {
+            System.arraycopy(buf, offset, carry, 0, nodeLen);
+        }
+        // Merge with every complete subtree of equal height, like a binary counter carry
+        int level = 0;
+        while ((leafCount & (1L << level)) != 0) {
+            hasher.hashNode(pending, level * nodeLen, carry, 0, carry, 0);
+            level++;
+        }
+        System.arraycopy(carry, 0, pending, level * nodeLen, nodeLen);
+        leafCount++;
+    }
+
+    /** @return the number of leaves added so far */
+    public long leafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Seal the stream and compute the root.  Further calls return the same root.
+     *
+     * @return a copy of the Merkle root
+     * @throws IOException if the spill file cannot be flushed
+     */
+    public byte[] finish() throws IOException {
+        if (root == null) {
+            if (leafCount == 0) {
+                throw new IllegalStateException("A Merkle tree needs at least one leaf");
+            }
+            close();
+            root = foldPending();
+        }
+        return root.clone();
+    }
+
+    // Fold the pending subtrees from the bottom, duplicating the last node of an odd-sized level
+    private byte[] foldPending() {
+        int height = leafCount <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(leafCount - 1);
+        boolean hasCarry = false;
+        for (int level = 0; level < height; level++) {
+            int off = level * nodeLen;
+            if ((leafCount & (1L << level)) != 0) {
+                if (hasCarry) {
+                    hasher.hashNode(pending, off, carry, 0, carry, 0);
+                } else {
+                    hasher.hashNode(pending, off, pending, off, carry, 0);
+                    hasCarry = true;
+                }
+            } else if (hasCarry) {
+                hasher.hashNode(carry, 0, carry, 0, carry, 0);
+            }
+        }
+        byte[] out = new byte[nodeLen];
+        if (hasCarry) {
+            System.arraycopy(carry, 0, out, 0, nodeLen);
+        } else {
+            System.arraycopy(pending, height * nodeLen, out, 0, nodeLen);
+        }
+        return out;
+    }
+
+    /**
+     * Read the spilled leaves back into an in-heap tree so that inclusion proofs can be generated.
+     *
+     * @return the tree over every leaf added
+     * @throws IOException if the spill file cannot be read
+     */
+    public MerkleTree loadTree() throws IOException {
+        if (spillFile == null) {
+            throw new IllegalStateException("Accumulator was created without a spill file");
+        }
+        if (leafCount > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many leaves for an in-heap tree: " + leafCount);
+        }
+        close();
+        return MerkleTree.build(Files.readAllBytes(spillFile), (int) leafCount, hasher.family());
+    }
+
+    /** @return the spill file, or {@code null} if leaves are not being spilled */
+    public Path spillFile() {
+        return spillFile;
+    }
+
+    /**
+     * Flush and close the spill file, if any.  The pending subtrees are kept, so {@link #finish()}
+     * may still be called.
+     */
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+}
@@ -12,7 +12,6 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,9 +23,21 @@ import java.util.List;
 public class MerkleBatchSigner {
 
     /**
-     * A simple binary tree node.  Inner node hashes are computed as SHA‑256(left || right).
+     * Batch sizes covered by the per‑message overhead summary.
      */
-    private static class Node {
+    static final int[] SUMMARY_BATCH_SIZES = {64, 256, 1024, 4096, 65536};
+
+    /**
+     * Cap height used to demonstrate cap signing on the demo batch.
+     */
+    private static final int DEMO_CAP_HEIGHT = 3;
+
+    /**
+     * A simple binary tree node.  Inner node hashes are computed as SHA‑256(0x01 || left || right).
+     * The demo now builds a flat {@link MerkleTree}; this object graph is kept as the reference
+     * implementation that {@link MerkleTreeBenchmark} measures against.
+     */
+    static class Node {
         byte[] hash;
         Node left;
         Node right;
@@ -42,15 +53,11 @@ public class MerkleBatchSigner {
 
     /**
      * Represents an inclusion proof for a leaf.  The list contains the sibling hashes from leaf to root.
+     *
+     * @param index    the position of the leaf in the batch
+     * @param authPath the sibling hashes, ordered from the leaf level upwards
      */
-    private static class Proof {
-        final int index;
-        final List<byte[]> authPath;
-        Proof(int index, List<byte[]> authPath) {
-            this.index = index;
-            this.authPath = authPath;
-        }
-    }
+    public record Proof(int index, List<byte[]> authPath) {}
 
     /**
      * Execute the Merkle batching demo.  Writes a CSV summary and an explanatory text file to the output directory.
@@ -65,20 +72,6 @@ public class MerkleBatchSigner {
             messages.add(("message-" + i).getBytes(StandardCharsets.UTF_8));
         }
 
-        // Build the Merkle tree using SHA‑256 hashes of each message
-        List<byte[]> leaves = new ArrayList<>();
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        for (byte[] m : messages) {
-            leaves.add(md.digest(m));
-        }
-        Node root = buildTree(leaves);
-        byte[] rootHash = root.hash;
-
         // Generate a SPHINCS+ keypair (use 128s for small signature demonstration)
         SPHINCSPlusParameters params = SPHINCSPlusParameters.shake_128s;
         SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
@@ -87,38 +80,108 @@ public class MerkleBatchSigner {
         SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
         SPHINCSPlusPublicKeyParameters pk = (SPHINCSPlusPublicKeyParameters) kp.getPublic();
 
+        // Build the Merkle tree with the hash family matching the parameter set: 16-byte SHAKE128 nodes for 128s
+        MerkleHashFamily family = MerkleHashFamily.forParameters(params);
+        MerkleHasher hasher = family.hasher();
+        List<byte[]> leaves = new ArrayList<>();
+        for (byte[] m : messages) {
+            leaves.add(hasher.hashLeaf(m));
+        }
+        MerkleTree tree = MerkleTree.build(leaves, family);
+        byte[] rootHash = tree.root();
+
         SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
         signer.init(true, sk);
-        byte[] signature = signer.generateSignature(rootHash);
+        byte[] signature = signer.generateSignature(tree.signedMessage());
+
+        // Generate inclusion proofs for each message from the layers already stored in the tree
+        List<Proof> proofs = tree.proofs();
+
+        // Verify every message as a receiver would; the root signature is only checked for the first one
+        BatchEnvelopeVerifier verifier = new BatchEnvelopeVerifier(BatchEnvelopeVerifier.DEFAULT_CAPACITY, family);
+        for (Proof p : proofs) {
+            if (!verifier.verify(pk, rootHash, batchSize, signature, leaves.get(p.index()), p)) {
+                throw new IllegalStateException("Message " + p.index() + " failed to verify");
+            }
+        }
+        System.out.printf("Verified %d messages (%s, %d-byte nodes): %d root signature check(s), %d cache hits%n",
+                batchSize, family, family.length(), verifier.misses(), verifier.hits());
 
-        // Generate inclusion proofs for each message
-        List<Proof> proofs = new ArrayList<>();
+        // Cap signing: sign the 2^c nodes c levels below the root instead of the root, so every proof is c
+        // hashes shorter.  Demonstrated here at one cap height; the summary below covers all of them.
+        byte[] cap = tree.cap(DEMO_CAP_HEIGHT);
+        byte[] capSignature = signer.generateSignature(MerkleTree.signedMessage(cap, batchSize));
         for (int i = 0; i < batchSize; i++) {
-            proofs.add(getProof(i, leaves));
+            if (!verifier.verifyCapped(pk, cap, batchSize, capSignature, leaves.get(i), tree.proof(i, DEMO_CAP_HEIGHT))) {
+                throw new IllegalStateException("Message " + i + " failed to verify against the cap");
+            }
         }
+        System.out.printf("Verified %d messages against a %d-node cap (%d-hash proofs)%n",
+                batchSize, cap.length / tree.nodeLength(), tree.height() - DEMO_CAP_HEIGHT);
 
-        // Compute the per‑message overhead: signature amortized over N messages + proof size
+        // Compute the per‑message overhead for every hash family and cap height c: the signature and the cap
+        // (shipped once per batch) are amortized over N messages, and each proof carries log₂(N) − c nodes.  With
+        // c = 0 the cap is the root, which the receiver recomputes, so it is not shipped.  The build time shows
+        // what each family costs the signer for the same batch.
         int sigBytes = signature.length;
-        int proofBytes = proofs.get(0).authPath.size() * 32; // each sibling hash is 32 bytes (SHA‑256)
-        double perMsg = (sigBytes * 1.0 / batchSize) + proofBytes;
-
-        // Write summary CSV
         Path summaryCsv = outDir.resolve("merkle_batching_summary.csv");
-        Files.writeString(summaryCsv, "batch_size,sig_bytes,proof_bytes_per_msg,avg_overhead_per_msg_bytes\n");
-        String row = String.format(java.util.Locale.ROOT, "%d,%d,%d,%.2f\n", batchSize, sigBytes, proofBytes, perMsg);
-        Files.writeString(summaryCsv, row, java.nio.file.StandardOpenOption.APPEND);
+        Files.writeString(summaryCsv, "hash,node_bytes,batch_size,cap_height,cap_bytes,sig_bytes,proof_bytes_per_msg,"
+                + "avg_overhead_per_msg_bytes,standalone_msg_overhead_bytes,tree_build_us\n");
+        for (MerkleHashFamily f : MerkleHashFamily.values()) {
+            int nodeBytes = f.length();
+            for (int n : SUMMARY_BATCH_SIZES) {
+                double buildMicros = timeTreeBuild(f, n);
+                int[] levelSizes = MerkleTree.levelSizes(n);
+                int height = levelSizes.length - 1;
+                for (int c = 0; c <= height; c++) {
+                    int capBytes = c == 0 ? 0 : levelSizes[height - c] * nodeBytes;
+                    int proofBytes = (height - c) * nodeBytes;
+                    double perMsg = ((sigBytes + capBytes) * 1.0 / n) + proofBytes;
+                    int standalone = sigBytes + capBytes + proofBytes;
+                    String row = String.format(java.util.Locale.ROOT, "%s,%d,%d,%d,%d,%d,%d,%.2f,%d,%.1f\n",
+                            f, nodeBytes, n, c, capBytes, sigBytes, proofBytes, perMsg, standalone, buildMicros);
+                    Files.writeString(summaryCsv, row, java.nio.file.StandardOpenOption.APPEND);
+                }
+                System.out.printf(java.util.Locale.ROOT, "%-13s n=%-6d proof=%5d B  build=%10.1f us%n",
+                        f, n, height * nodeBytes, buildMicros);
+            }
+        }
 
         // Write a brief explanation file
         Path note = outDir.resolve("MERKLE_BATCH_EXPLANATION.txt");
-        String text = "This demo signs a batch of messages by hashing them into a binary Merkle tree (SHA-256) "
-                + "and signing only the root using the SPHINCS+-128s parameter set.\n"
+        String text = "This demo signs a batch of messages by hashing them into a binary Merkle tree and signing only the root "
+                + "using the SPHINCS+-128s parameter set.\n"
                 + "Each message carries (a) the shared SPHINCS+ signature on the root and (b) its authentication path, which "
-                + "contains log2(N) 32-byte hashes. The average per-message overhead is (signature_length / N) + (log2(N) * 32).\n";
+                + "contains log2(N) hashes of n bytes. The average per-message overhead is (signature_length / N) + (log2(N) * n).\n"
+                + "The tree uses the hash family matching the parameter set's security level (" + family + ", n = "
+                + family.length() + "); merkle_batching_summary.csv lists every family, so the 32-byte SHA-256 "
+                + "nodes can be compared with truncated and SHAKE nodes.\n"
+                + "With cap signing, the 2^c nodes c levels below the root are signed and shipped once per batch instead of the root, "
+                + "so each path shrinks to log2(N) - c hashes and the overhead becomes ((signature_length + cap_bytes) / N) + ((log2(N) - c) * n).\n";
         Files.writeString(note, text);
     }
 
+    // Median over a few runs of building an n-leaf tree with the given family, after one warm-up build
+    private static double timeTreeBuild(MerkleHashFamily family, int n) {
+        MerkleHasher hasher = family.hasher();
+        byte[] leafHashes = new byte[n * family.length()];
+        for (int i = 0; i < n; i++) {
+            byte[] m = ("message-" + i).getBytes(StandardCharsets.UTF_8);
+            hasher.hashLeaf(m, 0, m.length, leafHashes, i * family.length());
+        }
+        MerkleTree.build(leafHashes, n, family);
+        long[] runs = new long[5];
+        for (int r = 0; r < runs.length; r++) {
+            long t0 = System.nanoTime();
+            MerkleTree.build(leafHashes, n, family);
+            runs[r] = System.nanoTime() - t0;
+        }
+        java.util.Arrays.sort(runs);
+        return runs[runs.length / 2] / 1_000.0;
+    }
+
     // Build the Merkle tree bottom‑up, duplicating the last node if the layer has an odd number of nodes
-    private static Node buildTree(List<byte[]> leaves) {
+    static Node buildTree(List<byte[]> leaves) {
         List<Node> layer = new ArrayList<>();
         for (byte[] h : leaves) {
             layer.add(new Node(h));
@@ -135,8 +198,9 @@ public class MerkleBatchSigner {
         return layer.get(0);
     }
 
-    // Compute the inclusion proof for the leaf at index idx
-    private static Proof getProof(int idx, List<byte[]> leaves) {
+    // Compute the inclusion proof for the leaf at index idx by rebuilding the tree; O(N) hashes per proof.
+    // Superseded by MerkleTree.proofs(), kept as the baseline measured by ProofGenerationBenchmark.
+    static Proof getProof(int idx, List<byte[]> leaves) {
         List<Node> layer = new ArrayList<>();
         for (byte[] h : leaves) {
             layer.add(new Node(h));
@@ -161,15 +225,8 @@ public class MerkleBatchSigner {
         return new Proof(idx, auth);
     }
 
-    // Compute SHA‑256(left || right)
-    private static byte[] hashConcat(byte[] a, byte[] b) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(a);
-            md.update(b);
-            return md.digest();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    // Compute SHA‑256(0x01 || left || right) with the calling thread's cached digest
+    static byte[] hashConcat(byte[] a, byte[] b) {
+        return MerkleHasher.sha256().hashNode(a, b);
     }
 }
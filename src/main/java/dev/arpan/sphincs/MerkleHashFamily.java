@@ -0,0 +1,115 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The hash functions a Merkle batch tree can be built with, and the node length each one produces.
+ * <p>
+ * A full 32-byte SHA‑256 node is wasted bandwidth next to a 128-bit SPHINCS+ signature, whose own
+ * hashes are only n = 16 bytes, while at 192 and 256 bits SHA‑256 is the weaker primitive in the
+ * chain.  {@link #forParameters} therefore picks nodes of the same length n as the parameter set and
+ * follows SPHINCS+'s own choice of primitive: SHAKE parameter sets get SHAKE128/SHAKE256, and SHA2
+ * parameter sets get SHA‑256 truncated to 16 bytes at level 1, SHA‑512 truncated to 24 bytes at
+ * level 3, and SHA‑512/256 at level 5.  SHA‑512/256 is not truncated SHA‑512: FIPS 180-4 gives it
+ * its own initial hash values.
+ */
+public enum MerkleHashFamily {
+
+    /** SHA‑256, 32-byte nodes; the original batch tree. */
+    SHA256(1, "SHA-256", 0, 32),
+    /** SHA‑256 truncated to 16 bytes. */
+    SHA256_128(2, "SHA-256", 0, 16),
+    /** SHA‑512 truncated to 24 bytes. */
+    SHA512_192(3, "SHA-512", 0, 24),
+    /** SHA‑512/256, 32-byte nodes; its own initial values, not a truncation of SHA‑512. */
+    SHA512_256(4, "SHA-512/256", 0, 32),
+    /** SHAKE128 with 16 bytes of output. */
+    SHAKE128_128(5, null, 128, 16),
+    /** SHAKE256 with 24 bytes of output. */
+    SHAKE256_192(6, null, 256, 24),
+    /** SHAKE256 with 32 bytes of output. */
+    SHAKE256_256(7, null, 256, 32);
+
+    private static final Pattern SECURITY_BITS = Pattern.compile("(128|192|256)");
+
+    private final int id;
+    private final String jcaAlgorithm;
+    private final int shakeBits;
+    private final int length;
+    private MerkleHasher hasher;
+
+    MerkleHashFamily(int id, String jcaAlgorithm, int shakeBits, int length) {
+        this.id = id;
+        this.jcaAlgorithm = jcaAlgorithm;
+        this.shakeBits = shakeBits;
+        this.length = length;
+    }
+
+    /** @return a stable identifier for storing the family in files and on the wire */
+    public int id() {
+        return id;
+    }
+
+    /** @return the node length in bytes */
+    public int length() {
+        return length;
+    }
+
+    /** @return the JCA algorithm name, or {@code null} for the SHAKE families */
+    String jcaAlgorithm() {
+        return jcaAlgorithm;
+    }
+
+    /** @return the SHAKE strength (128 or 256), or 0 for the JCA families */
+    int shakeBits() {
+        return shakeBits;
+    }
+
+    /** @return the shared hasher for this family */
+    public synchronized MerkleHasher hasher() {
+        if (hasher == null) {
+            hasher = new MerkleHasher(this);
+        }
+        return hasher;
+    }
+
+    /**
+     * Look a family up by {@link #id()}.
+     */
+    public static MerkleHashFamily forId(int id) {
+        for (MerkleHashFamily family : values()) {
+            if (family.id == id) {
+                return family;
+            }
+        }
+        throw new IllegalArgumentException("Unknown Merkle hash family id " + id);
+    }
+
+    /**
+     * Choose the family matching a SPHINCS+ parameter set, from its security level and hash function.
+     * Parameter sets that are neither SHAKE nor SHA2 (Haraka) get the SHA2 choice for their level.
+     *
+     * @param params the parameter set the batch roots are signed with
+     * @return the family whose node length equals the parameter set's n
+     */
+    public static MerkleHashFamily forParameters(SPHINCSPlusParameters params) {
+        String name = params.getName();
+        Matcher m = SECURITY_BITS.matcher(name);
+        if (!m.find()) {
+            throw new IllegalArgumentException("Cannot tell the security level of " + name);
+        }
+        int bits = Integer.parseInt(m.group(1));
+        boolean shake = name.startsWith("shake");
+        switch (bits) {
+            case 128:
+                return shake ? SHAKE128_128 : SHA256_128;
+            case 192:
+                return shake ? SHAKE256_192 : SHA512_192;
+            default:
+                return shake ? SHAKE256_256 : SHA512_256;
+        }
+    }
+}
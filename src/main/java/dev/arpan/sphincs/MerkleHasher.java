@@ -0,0 +1,215 @@
+package dev.arpan.sphincs;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.bouncycastle.crypto.digests.SHAKEDigest;
+
+import java.lang.management.ManagementFactory;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hashing layer shared by the Merkle code.
+ * <p>
+ * {@link MessageDigest#getInstance(String)} walks the provider list and allocates a new engine on
+ * every call, which is far more expensive than hashing 64 bytes.  This class instead keeps one
+ * engine per thread, cloned from a prototype, and writes results straight into caller-supplied
+ * buffers so that building a tree allocates nothing per node.  Each {@link MerkleHashFamily} has one
+ * shared hasher; SHA‑2 families run on the JCA engines (which HotSpot accelerates), SHAKE families on
+ * Bouncy Castle's {@link SHAKEDigest}, and truncated families keep the first {@link #length()} bytes.
+ * <p>
+ * When the JVM has no SHA intrinsics, SHA‑256 inner nodes go through {@link Sha256NodeKernel}
+ * instead, which beats the generic Java engine on node inputs; with intrinsics the JCA engine is
+ * several times faster than any Java code and is kept.
+ * <p>
+ * Leaves and inner nodes are domain-separated as in RFC 6962: a leaf is H(0x00 || message) and an
+ * inner node H(0x01 || left || right).  Without the prefixes a 2n-byte message would hash to the
+ * same value as the inner node over its two halves, so a proof one level short could pass an inner
+ * node off as a leaf.
+ */
+public final class MerkleHasher {
+
+    /** Byte hashed before every leaf message. */
+    public static final byte LEAF_PREFIX = 0x00;
+    /** Byte hashed before the two children of every inner node. */
+    public static final byte NODE_PREFIX = 0x01;
+
+    private static final byte[] LEAF_PREFIX_BYTES = {LEAF_PREFIX};
+    private static final byte[] NODE_PREFIX_BYTES = {NODE_PREFIX};
+
+    private final MerkleHashFamily family;
+    private final MessageDigest prototype;
+    private final ThreadLocal<Engine> engines;
+    private final ThreadLocal<Sha256NodeKernel> kernels;
+    private final int length;
+
+    MerkleHasher(MerkleHashFamily family) {
+        this.family = family;
+        this.length = family.length();
+        if (family.jcaAlgorithm() != null) {
+            try {
+                this.prototype = MessageDigest.getInstance(family.jcaAlgorithm());
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+            this.engines = ThreadLocal.withInitial(() -> new JcaEngine(newDigest(), length));
+        } else {
+            this.prototype = null;
+            this.engines = ThreadLocal.withInitial(() -> new ShakeEngine(new SHAKEDigest(family.shakeBits()), length));
+        }
+        boolean useKernel = family == MerkleHashFamily.SHA256 && !shaIntrinsicsEnabled();
+        this.kernels = useKernel ? ThreadLocal.withInitial(Sha256NodeKernel::new) : null;
+    }
+
+    /** @return the SHA‑256 hasher used for all Merkle nodes and leaves unless another family is chosen */
+    public static MerkleHasher sha256() {
+        return MerkleHashFamily.SHA256.hasher();
+    }
+
+    /** @return the hash family this hasher computes */
+    public MerkleHashFamily family() {
+        return family;
+    }
+
+    /** @return the length in bytes of every hash produced */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Compute H(0x01 || left || right) for two nodes of {@link #length()} bytes and write it into {@code out}.
+     * Any of the three buffers may be the same array.
+     */
+    public void hashNode(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] out, int outOffset) {
+        if (kernels != null) {
+            kernels.get().hash(left, leftOffset, right, rightOffset, out, outOffset);
+            return;
+        }
+        Engine engine = engines.get();
+        engine.update(NODE_PREFIX_BYTES, 0, 1);
+        if (left == right && rightOffset == leftOffset + length) {
+            // Adjacent siblings in a flat layer: one update covers both children
+            engine.update(left, leftOffset, 2 * length);
+        } else {
+            engine.update(left, leftOffset, length);
+            engine.update(right, rightOffset, length);
+        }
+        engine.finish(out, outOffset);
+    }
+
+    /** @return whether inner nodes are hashed by {@link Sha256NodeKernel} rather than the JCA engine */
+    public boolean usesNodeKernel() {
+        return kernels != null;
+    }
+
+    /** @return H(0x01 || left || right) in a new array */
+    public byte[] hashNode(byte[] left, byte[] right) {
+        byte[] out = new byte[length];
+        hashNode(left, 0, right, 0, out, 0);
+        return out;
+    }
+
+    /**
+     * Hash an arbitrary-length message into a leaf, H(0x00 || message), and write it into {@code out}.
+     */
+    public void hashLeaf(byte[] message, int offset, int len, byte[] out, int outOffset) {
+        Engine engine = engines.get();
+        engine.update(LEAF_PREFIX_BYTES, 0, 1);
+        engine.update(message, offset, len);
+        engine.finish(out, outOffset);
+    }
+
+    /** @return H(0x00 || message) in a new array */
+    public byte[] hashLeaf(byte[] message) {
+        byte[] out = new byte[length];
+        hashLeaf(message, 0, message.length, out, 0);
+        return out;
+    }
+
+    // Cloning skips the provider lookup; providers that do not support it fall back to getInstance
+    private MessageDigest newDigest() {
+        try {
+            return (MessageDigest) prototype.clone();
+        } catch (CloneNotSupportedException e) {
+            try {
+                return MessageDigest.getInstance(prototype.getAlgorithm());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+
+    /**
+     * Whether HotSpot compiles SHA compression to CPU instructions.  Any JVM that does not expose the
+     * flag is treated as having no intrinsics.
+     */
+    static boolean shaIntrinsicsEnabled() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return bean != null && Boolean.parseBoolean(bean.getVMOption("UseSHA").getValue());
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * A per-thread hash engine producing {@link #length()} bytes per finish.
+     */
+    private interface Engine {
+        void update(byte[] in, int offset, int len);
+
+        void finish(byte[] out, int outOffset);
+    }
+
+    private static final class JcaEngine implements Engine {
+        private final MessageDigest md;
+        private final int length;
+        private final byte[] full;
+
+        JcaEngine(MessageDigest md, int length) {
+            this.md = md;
+            this.length = length;
+            this.full = length < md.getDigestLength() ? new byte[md.getDigestLength()] : null;
+        }
+
+        @Override
+        public void update(byte[] in, int offset, int len) {
+            md.update(in, offset, len);
+        }
+
+        @Override
+        public void finish(byte[] out, int outOffset) {
+            try {
+                if (full == null) {
+                    md.digest(out, outOffset, length);
+                } else {
+                    // Truncated family: finish into scratch and keep the leading bytes
+                    md.digest(full, 0, full.length);
+                    System.arraycopy(full, 0, out, outOffset, length);
+                }
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static final class ShakeEngine implements Engine {
+        private final SHAKEDigest shake;
+        private final int length;
+
+        ShakeEngine(SHAKEDigest shake, int length) {
+            this.shake = shake;
+            this.length = length;
+        }
+
+        @Override
+        public void update(byte[] in, int offset, int len) {
+            shake.update(in, offset, len);
+        }
+
+        @Override
+        public void finish(byte[] out, int outOffset) {
+            shake.doFinal(out, outOffset, length);
+        }
+    }
+}
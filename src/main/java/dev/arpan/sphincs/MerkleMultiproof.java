@@ -0,0 +1,127 @@
+package dev.arpan.sphincs;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proof of inclusion for several leaves of one batch that carries each needed sibling hash only once.
+ * <p>
+ * Independent proofs for k leaves repeat every upper sibling they share and also include nodes the
+ * verifier can compute itself from the other leaves.  A multiproof walks the tree level by level
+ * from the selected leaves and emits a sibling only when it is neither one of the known nodes nor
+ * the duplicated last node of an odd level.  The siblings are stored in that order: level by level,
+ * ascending index within a level.
+ *
+ * @param family    the hash family of the batch tree
+ * @param leafCount number of leaves in the batch
+ * @param indices   the proven leaf indices, strictly increasing
+ * @param siblings  the emitted sibling hashes, back to back
+ */
+public record MerkleMultiproof(MerkleHashFamily family, int leafCount, int[] indices, byte[] siblings) {
+
+    /**
+     * Build the multiproof for a set of leaves.
+     *
+     * @param tree    the batch tree
+     * @param indices the leaves to prove, in any order; duplicates are ignored
+     * @return the multiproof
+     */
+    public static MerkleMultiproof generate(MerkleTree tree, int[] indices) {
+        int[] known = Arrays.stream(indices).distinct().sorted().toArray();
+        if (known.length == 0) {
+            throw new IllegalArgumentException("No leaves selected");
+        }
+        if (known[0] < 0 || known[known.length - 1] >= tree.leafCount()) {
+            throw new IndexOutOfBoundsException("Leaf index outside batch of " + tree.leafCount());
+        }
+        int nodeLen = tree.nodeLength();
+        int[] level = known.clone();
+        byte[] out = new byte[level.length * tree.height() * nodeLen];
+        int emitted = 0;
+        for (int l = 0; l < tree.height(); l++) {
+            int parents = 0;
+            for (int i = 0; i < level.length; i++) {
+                int idx = level[i];
+                boolean pairedWithNext = (idx & 1) == 0 && i + 1 < level.length && level[i + 1] == idx + 1;
+                int sibling = idx ^ 1;
+                if (!pairedWithNext && sibling < tree.levelSize(l)) {
+                    tree.copyNode(l, sibling, out, emitted * nodeLen);
+                    emitted++;
+                }
+                if (pairedWithNext) {
+                    i++;
+                }
+                level[parents++] = idx >>> 1;
+            }
+            level = Arrays.copyOf(level, parents);
+        }
+        return new MerkleMultiproof(tree.family(), tree.leafCount(), known, Arrays.copyOf(out, emitted * nodeLen));
+    }
+
+    /** @return number of sibling hashes carried */
+    public int siblingCount() {
+        return siblings.length / family.length();
+    }
+
+    /** @return bytes of hash material carried, excluding the leaf indices */
+    public int sizeBytes() {
+        return siblings.length;
+    }
+
+    /**
+     * Verify the multiproof.  The tree shape follows from {@link #leafCount()}, so the caller must
+     * check the signature over {@link MerkleTree#signedMessage(byte[], long)} with this same count.
+     *
+     * @param leaves the leaf hashes of {@link #indices()}, in the same order
+     * @param root   the expected root
+     * @return whether the leaves and siblings reproduce the root, using every sibling exactly once
+     */
+    public boolean verify(List<byte[]> leaves, byte[] root) {
+        int nodeLen = family.length();
+        if (leaves.size() != indices.length || indices.length == 0 || leafCount < 1 || siblings.length % nodeLen != 0) {
+            return false;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0 || indices[i] >= leafCount || (i > 0 && indices[i] <= indices[i - 1])
+                    || leaves.get(i).length != nodeLen) {
+                return false;
+            }
+        }
+        MerkleHasher hasher = family.hasher();
+        int[] sizes = MerkleTree.levelSizes(leafCount);
+        int[] level = indices.clone();
+        byte[] nodes = new byte[level.length * nodeLen];
+        for (int i = 0; i < level.length; i++) {
+            System.arraycopy(leaves.get(i), 0, nodes, i * nodeLen, nodeLen);
+        }
+        int consumed = 0;
+        for (int l = 0; l + 1 < sizes.length; l++) {
+            int parents = 0;
+            for (int i = 0; i < level.length; i++) {
+                int idx = level[i];
+                int cur = i * nodeLen;
+                int parent = parents * nodeLen;
+                if ((idx & 1) == 0 && i + 1 < level.length && level[i + 1] == idx + 1) {
+                    hasher.hashNode(nodes, cur, nodes, cur + nodeLen, nodes, parent);
+                    i++;
+                } else if ((idx ^ 1) >= sizes[l]) {
+                    hasher.hashNode(nodes, cur, nodes, cur, nodes, parent);
+                } else {
+                    if (consumed + nodeLen > siblings.length) {
+                        return false;
+                    }
+                    if ((idx & 1) == 0) {
+                        hasher.hashNode(nodes, cur, siblings, consumed, nodes, parent);
+                    } else {
+                        hasher.hashNode(siblings, consumed, nodes, cur, nodes, parent);
+                    }
+                    consumed += nodeLen;
+                }
+                level[parents++] = idx >>> 1;
+            }
+            level = Arrays.copyOf(level, parents);
+        }
+        return consumed == siblings.length && MessageDigest.isEqual(Arrays.copyOf(nodes, nodeLen), root);
+    }
+}
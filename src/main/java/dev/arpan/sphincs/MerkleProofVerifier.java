@@ -0,0 +1,161 @@
+package dev.arpan.sphincs;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Checks inclusion proofs produced by {@link MerkleTree}, {@link MappedMerkleStore} or
+ * {@link MerkleBatchSigner}.
+ * <p>
+ * The leaf is folded up the authentication path in a single node-sized scratch buffer that the
+ * verifier owns, so a verification performs no allocation once the thread's digest exists.
+ * Instances are therefore not thread-safe; keep one per thread.
+ * <p>
+ * Every check takes the leaf count of the batch, which the caller must take from signed data (see
+ * {@link MerkleTree#signedMessage}), and rejects a path whose length is not the height of a tree of
+ * that many leaves or a leaf index beyond the last leaf.  Together with the leaf and node prefixes
+ * of {@link MerkleHasher} this stops a shortened path from presenting an inner node as a leaf and a
+ * lengthened one from presenting a leaf as an inner node.
+ */
+public final class MerkleProofVerifier {
+
+    private final MerkleHasher hasher;
+    private final int nodeLen;
+    private final byte[] node;
+
+    /**
+     * Create a verifier for SHA‑256 trees.
+     */
+    public MerkleProofVerifier() {
+        this(MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * @param family the hash family the trees were built with
+     */
+    public MerkleProofVerifier(MerkleHashFamily family) {
+        this.hasher = family.hasher();
+        this.nodeLen = family.length();
+        this.node = new byte[nodeLen];
+    }
+
+    /**
+     * Verify a proof whose sibling hashes are packed back to back, as written by
+     * {@link MerkleTree#copyAuthPath}.
+     *
+     * @param leaf       the leaf hash
+     * @param leafIndex  the position of the leaf in the batch
+     * @param leafCount  the number of leaves in the batch, from signed data
+     * @param authPath   buffer holding the sibling hashes, leaf level first
+     * @param pathOffset offset of the first sibling in {@code authPath}
+     * @param depth      number of sibling hashes; must be the height of a tree of {@code leafCount} leaves
+     * @param root       the expected root
+     * @return whether the path leads from the leaf to the root
+     */
+    public boolean verify(byte[] leaf, long leafIndex, long leafCount, byte[] authPath, int pathOffset, int depth,
+                          byte[] root) {
+        return root.length == nodeLen && computeRoot(leaf, leafIndex, leafCount, authPath, pathOffset, depth, null, 0)
+                && MessageDigest.isEqual(node, root);
+    }
+
+    /**
+     * Fold a packed path up from the leaf and write the root it leads to, for receivers that do not
+     * know the root in advance, e.g. because it is the detached payload of a signature.
+     *
+     * @param out       where the root is written, or {@code null} to keep it in the scratch buffer only
+     * @param outOffset offset of the root in {@code out}
+     * @return whether the inputs were well formed; the root is only written if they were
+     */
+    public boolean computeRoot(byte[] leaf, long leafIndex, long leafCount, byte[] authPath, int pathOffset, int depth,
+                               byte[] out, int outOffset) {
+        if (leaf.length != nodeLen || leafIndex < 0 || leafIndex >= leafCount
+                || depth != MerkleTree.heightFor(leafCount)
+                || pathOffset < 0 || authPath.length - pathOffset < (long) depth * nodeLen) {
+            return false;
+        }
+        System.arraycopy(leaf, 0, node, 0, nodeLen);
+        long index = leafIndex;
+        for (int level = 0; level < depth; level++) {
+            int sibling = pathOffset + level * nodeLen;
+            if ((index & 1) == 0) {
+                hasher.hashNode(node, 0, authPath, sibling, node, 0);
+            } else {
+                hasher.hashNode(authPath, sibling, node, 0, node, 0);
+            }
+            index >>>= 1;
+        }
+        if (out != null) {
+            System.arraycopy(node, 0, out, outOffset, nodeLen);
+        }
+        return true;
+    }
+
+    /**
+     * Verify a capped proof from {@link MerkleTree#proof(int, int)}: the path must lead from the leaf
+     * to the node of the signed cap at position {@code leafIndex >> pathLength}.  The cap must have
+     * exactly as many nodes as the level of a {@code leafCount}-leaf tree that the path ends below,
+     * which fixes the path length.
+     *
+     * @param leaf      the leaf hash
+     * @param proof     the leaf index and its sibling hashes up to the cap level
+     * @param leafCount the number of leaves in the batch, from signed data
+     * @param cap       the signed cap, as returned by {@link MerkleTree#cap(int)}
+     * @return whether the path leads from the leaf to its cap node
+     */
+    public boolean verifyAgainstCap(byte[] leaf, MerkleBatchSigner.Proof proof, long leafCount, byte[] cap) {
+        int depth = proof.authPath().size();
+        if (proof.index() < 0 || proof.index() >= leafCount || depth > MerkleTree.heightFor(leafCount)
+                || cap.length % nodeLen != 0 || cap.length / nodeLen != ((leafCount - 1) >>> depth) + 1) {
+            return false;
+        }
+        if (!fold(leaf, proof)) {
+            return false;
+        }
+        int capOffset = (proof.index() >>> depth) * nodeLen;
+        int diff = 0;
+        for (int i = 0; i < nodeLen; i++) {
+            diff |= node[i] ^ cap[capOffset + i];
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Verify a proof in the list form produced by {@link MerkleTree#proof(int)}.
+     *
+     * @param leaf      the leaf hash
+     * @param proof     the leaf index and its sibling hashes
+     * @param leafCount the number of leaves in the batch, from signed data
+     * @param root      the expected root
+     * @return whether the path leads from the leaf to the root
+     */
+    public boolean verify(byte[] leaf, MerkleBatchSigner.Proof proof, long leafCount, byte[] root) {
+        if (root.length != nodeLen || proof.index() < 0 || proof.index() >= leafCount
+                || proof.authPath().size() != MerkleTree.heightFor(leafCount)) {
+            return false;
+        }
+        return fold(leaf, proof) && MessageDigest.isEqual(node, root);
+    }
+
+    // Fold the leaf up the list-form path into the scratch node
+    private boolean fold(byte[] leaf, MerkleBatchSigner.Proof proof) {
+        if (leaf.length != nodeLen) {
+            return false;
+        }
+        List<byte[]> path = proof.authPath();
+        System.arraycopy(leaf, 0, node, 0, nodeLen);
+        int index = proof.index();
+        for (int level = 0; level < path.size(); level++) {
+            byte[] sibling = path.get(level);
+            if (sibling.length != nodeLen) {
+                return false;
+            }
+            if ((index & 1) == 0) {
+                hasher.hashNode(node, 0, sibling, 0, node, 0);
+            } else {
+                hasher.hashNode(sibling, 0, node, 0, node, 0);
+            }
+            index >>>= 1;
+        }
+        return true;
+    }
+}
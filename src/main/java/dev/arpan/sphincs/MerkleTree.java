@@ -0,0 +1,365 @@
+package dev.arpan.sphincs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A binary Merkle tree whose layers are stored back to back in a single byte array.
+ * <p>
+ * Level 0 holds the leaves, the last level holds the root, and every node is addressed by
+ * (level, index) instead of by an object reference, so a tree over N leaves costs one array of
+ * roughly 2N × n bytes regardless of N.  Inner nodes are H(0x01 || left || right) for the tree's
+ * {@link MerkleHashFamily} (SHA‑256 with n = 32 unless another is given) and the last node of an
+ * odd‑sized layer is paired with itself, exactly as in {@link MerkleBatchSigner}.
+ */
+public final class MerkleTree {
+
+    /** Length in bytes of every node of a default (SHA‑256) tree. */
+    public static final int HASH_LEN = 32;
+
+    private final MerkleHasher hasher;
+    private final int nodeLen;
+    private final byte[] nodes;
+    private final int[] levelOffsets;
+    private final int[] levelSizes;
+
+    MerkleTree(MerkleHashFamily family, byte[] nodes, int[] levelOffsets, int[] levelSizes) {
+        this.hasher = family.hasher();
+        this.nodeLen = family.length();
+        this.nodes = nodes;
+        this.levelOffsets = levelOffsets;
+        this.levelSizes = levelSizes;
+    }
+
+    /**
+     * Build a tree over the given leaf hashes.
+     *
+     * @param leaves the leaf hashes, each {@link #HASH_LEN} bytes long; the tree uses {@link MerkleHashFamily#SHA256}
+     * @return the fully built tree
+     */
+    public static MerkleTree build(List<byte[]> leaves) {
+        return build(leaves, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Build a tree over the given leaf hashes with a chosen hash family.
+     *
+     * @param leaves the leaf hashes, each {@link MerkleHashFamily#length()} bytes long
+     * @param family the hash family for inner nodes
+     * @return the fully built tree
+     */
+    public static MerkleTree build(List<byte[]> leaves, MerkleHashFamily family) {
+        MerkleTree tree = withLeaves(leaves, family);
+        tree.hashLevels();
+        return tree;
+    }
+
+    /**
+     * Build a tree over leaf hashes packed back to back in a flat array.
+     *
+     * @param leafHashes the concatenated leaf hashes
+     * @param leafCount  number of leaves stored in {@code leafHashes}
+     * @return the fully built tree
+     */
+    public static MerkleTree build(byte[] leafHashes, int leafCount) {
+        return build(leafHashes, leafCount, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Build a tree over packed leaf hashes with a chosen hash family.
+     *
+     * @param leafHashes the concatenated leaf hashes
+     * @param leafCount  number of leaves stored in {@code leafHashes}
+     * @param family     the hash family for inner nodes
+     * @return the fully built tree
+     */
+    public static MerkleTree build(byte[] leafHashes, int leafCount, MerkleHashFamily family) {
+        MerkleTree tree = withLeaves(leafHashes, leafCount, family);
+        tree.hashLevels();
+        return tree;
+    }
+
+    /**
+     * Allocate a tree and fill in its leaf level; the levels above are left for the caller to hash.
+     */
+    static MerkleTree withLeaves(List<byte[]> leaves, MerkleHashFamily family) {
+        MerkleTree tree = allocate(leaves.size(), family);
+        int len = family.length();
+        for (int i = 0; i < leaves.size(); i++) {
+            byte[] leaf = leaves.get(i);
+            if (leaf.length != len) {
+                throw new IllegalArgumentException("Leaf " + i + " is " + leaf.length + " bytes, expected " + len);
+            }
+            System.arraycopy(leaf, 0, tree.nodes, i * len, len);
+        }
+        return tree;
+    }
+
+    /**
+     * Allocate a tree and fill in its leaf level from a flat array of leaf hashes.
+     */
+    static MerkleTree withLeaves(byte[] leafHashes, int leafCount, MerkleHashFamily family) {
+        int len = family.length();
+        if (leafHashes.length < (long) leafCount * len) {
+            throw new IllegalArgumentException("Leaf buffer holds fewer than " + leafCount + " hashes");
+        }
+        MerkleTree tree = allocate(leafCount, family);
+        System.arraycopy(leafHashes, 0, tree.nodes, 0, leafCount * len);
+        return tree;
+    }
+
+    /**
+     * Allocate an empty tree with room for every level above {@code leafCount} leaves.
+     */
+    static MerkleTree allocate(int leafCount, MerkleHashFamily family) {
+        int[] sizes = levelSizes(leafCount);
+        int[] offsets = new int[sizes.length];
+        long total = 0;
+        for (int level = 0; level < sizes.length; level++) {
+            offsets[level] = (int) total;
+            total += sizes[level];
+        }
+        if (total * family.length() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many leaves for an in-heap tree: " + leafCount);
+        }
+        return new MerkleTree(family, new byte[(int) total * family.length()], offsets, sizes);
+    }
+
+    /**
+     * Number of nodes on each level, from the leaves (index 0) up to the root.
+     */
+    static int[] levelSizes(int leafCount) {
+        if (leafCount < 1) {
+            throw new IllegalArgumentException("A Merkle tree needs at least one leaf");
+        }
+        int[] sizes = new int[heightFor(leafCount) + 1];
+        int size = leafCount;
+        for (int level = 0; level < sizes.length; level++) {
+            sizes[level] = size;
+            size = (size + 1) / 2;
+        }
+        return sizes;
+    }
+
+    /**
+     * Number of levels above the leaves, i.e. the length of every authentication path.
+     */
+    static int heightFor(int leafCount) {
+        return leafCount <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(leafCount - 1);
+    }
+
+    /**
+     * Number of levels above the leaves of a tree with up to 2^63 leaves, e.g. a {@link MappedMerkleStore}.
+     */
+    static int heightFor(long leafCount) {
+        return leafCount <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(leafCount - 1);
+    }
+
+    /**
+     * The bytes a batch signature covers: the root (or cap) followed by the leaf count as a big-endian
+     * 64-bit integer.  Signing the count fixes the tree shape, so a verifier that takes the count from
+     * here knows the only valid path length, see {@link MerkleProofVerifier}.
+     *
+     * @param rootOrCap the root, or the cap when signing by cap
+     * @param leafCount the number of leaves in the batch
+     */
+    public static byte[] signedMessage(byte[] rootOrCap, long leafCount) {
+        return ByteBuffer.allocate(rootOrCap.length + 8).put(rootOrCap).putLong(leafCount).array();
+    }
+
+    // Hash every level bottom-up
+    private void hashLevels() {
+        for (int level = 0; level < height(); level++) {
+            hashLevel(level, 0, levelSizes[level + 1]);
+        }
+    }
+
+    /**
+     * Compute the parents [from, to) on level {@code level + 1} from their children on {@code level}.
+     * Disjoint ranges of the same level touch disjoint bytes, so they may be hashed concurrently.
+     */
+    void hashLevel(int level, int from, int to) {
+        int size = levelSizes[level];
+        int in = levelOffsets[level];
+        int out = levelOffsets[level + 1];
+        for (int i = from; i < to; i++) {
+            int left = 2 * i;
+            int right = (left + 1 < size) ? left + 1 : left;
+            hasher.hashNode(nodes, (in + left) * nodeLen, nodes, (in + right) * nodeLen, nodes, (out + i) * nodeLen);
+        }
+    }
+
+    /** @return the hash family the tree was built with */
+    public MerkleHashFamily family() {
+        return hasher.family();
+    }
+
+    /** @return the length in bytes of every node */
+    public int nodeLength() {
+        return nodeLen;
+    }
+
+    /** @return the number of leaves */
+    public int leafCount() {
+        return levelSizes[0];
+    }
+
+    /** @return the number of levels above the leaves; also the number of hashes in every auth path */
+    public int height() {
+        return levelSizes.length - 1;
+    }
+
+    /** @return the number of nodes stored on the given level */
+    public int levelSize(int level) {
+        return levelSizes[level];
+    }
+
+    /** @return a copy of the root hash */
+    public byte[] root() {
+        return node(height(), 0);
+    }
+
+    /** @return the bytes the batch signature covers, see {@link #signedMessage(byte[], long)} */
+    public byte[] signedMessage() {
+        return signedMessage(root(), leafCount());
+    }
+
+    /** @return a copy of the node at (level, index) */
+    public byte[] node(int level, int index) {
+        byte[] out = new byte[nodeLen];
+        copyNode(level, index, out, 0);
+        return out;
+    }
+
+    /**
+     * Copy the node at (level, index) into a caller-supplied buffer.
+     */
+    public void copyNode(int level, int index, byte[] out, int outOffset) {
+        System.arraycopy(nodes, nodeOffset(level, index), out, outOffset, nodeLen);
+    }
+
+    /**
+     * Copy the authentication path of a leaf into a caller-supplied buffer as {@link #height()}
+     * consecutive sibling hashes, ordered from the leaf level up to just below the root.
+     */
+    public void copyAuthPath(int leafIndex, byte[] out, int outOffset) {
+        if (leafIndex < 0 || leafIndex >= leafCount()) {
+            throw new IndexOutOfBoundsException("Leaf index " + leafIndex + " outside batch of " + leafCount());
+        }
+        int index = leafIndex;
+        for (int level = 0; level < height(); level++) {
+            int sibling = index ^ 1;
+            if (sibling >= levelSizes[level]) {
+                sibling = index; // duplicate last if no sibling
+            }
+            copyNode(level, sibling, out, outOffset + level * nodeLen);
+            index >>>= 1;
+        }
+    }
+
+    /**
+     * Write the authentication path of a leaf into a buffer at its position, in the same layout as
+     * {@link #copyAuthPath}, and advance the position past it.
+     */
+    public void putAuthPath(int leafIndex, ByteBuffer dst) {
+        if (leafIndex < 0 || leafIndex >= leafCount()) {
+            throw new IndexOutOfBoundsException("Leaf index " + leafIndex + " outside batch of " + leafCount());
+        }
+        int index = leafIndex;
+        for (int level = 0; level < height(); level++) {
+            int sibling = index ^ 1;
+            if (sibling >= levelSizes[level]) {
+                sibling = index; // duplicate last if no sibling
+            }
+            dst.put(nodes, nodeOffset(level, sibling), nodeLen);
+            index >>>= 1;
+        }
+    }
+
+    /** @return the authentication path of a leaf as one flat array of {@link #height()} hashes */
+    public byte[] authPath(int leafIndex) {
+        byte[] out = new byte[height() * nodeLen];
+        copyAuthPath(leafIndex, out, 0);
+        return out;
+    }
+
+    /**
+     * Read the inclusion proof of a single leaf from the stored layers in O(log N), without
+     * rehashing anything.
+     */
+    public MerkleBatchSigner.Proof proof(int leafIndex) {
+        return proof(leafIndex, 0);
+    }
+
+    /**
+     * Read the inclusion proof of a leaf up to a cap: the path stops {@code capHeight} levels below
+     * the root, at the level returned by {@link #cap(int)}.
+     *
+     * @param leafIndex the leaf to prove
+     * @param capHeight number of top levels covered by the signed cap; 0 means the root alone is signed
+     */
+    public MerkleBatchSigner.Proof proof(int leafIndex, int capHeight) {
+        if (leafIndex < 0 || leafIndex >= leafCount()) {
+            throw new IndexOutOfBoundsException("Leaf index " + leafIndex + " outside batch of " + leafCount());
+        }
+        int depth = height() - checkCapHeight(capHeight);
+        List<byte[]> path = new ArrayList<>(depth);
+        int index = leafIndex;
+        for (int level = 0; level < depth; level++) {
+            int sibling = index ^ 1;
+            if (sibling >= levelSizes[level]) {
+                sibling = index; // duplicate last if no sibling
+            }
+            path.add(node(level, sibling));
+            index >>>= 1;
+        }
+        return new MerkleBatchSigner.Proof(leafIndex, path);
+    }
+
+    /**
+     * Return the cap of the tree: every node of the level {@code capHeight} levels below the root, back
+     * to back.  That is at most 2^capHeight nodes; signing it instead of the root makes every proof
+     * {@code capHeight} hashes shorter.
+     */
+    public byte[] cap(int capHeight) {
+        int level = height() - checkCapHeight(capHeight);
+        byte[] out = new byte[levelSizes[level] * nodeLen];
+        System.arraycopy(nodes, nodeOffset(level, 0), out, 0, out.length);
+        return out;
+    }
+
+    private int checkCapHeight(int capHeight) {
+        if (capHeight < 0 || capHeight > height()) {
+            throw new IllegalArgumentException("Cap height " + capHeight + " outside 0.." + height());
+        }
+        return capHeight;
+    }
+
+    /**
+     * Emit the inclusion proof of every leaf.  The tree is already built, so this costs
+     * N × log₂(N) node copies and no hashing at all.
+     *
+     * @return one proof per leaf, in leaf order
+     */
+    public List<MerkleBatchSigner.Proof> proofs() {
+        List<MerkleBatchSigner.Proof> proofs = new ArrayList<>(leafCount());
+        for (int i = 0; i < leafCount(); i++) {
+            proofs.add(proof(i));
+        }
+        return proofs;
+    }
+
+    /** Byte offset of (level, index) inside the backing array. */
+    int nodeOffset(int level, int index) {
+        if (index < 0 || index >= levelSizes[level]) {
+            throw new IndexOutOfBoundsException("Node " + index + " outside level " + level + " of size " + levelSizes[level]);
+        }
+        return (levelOffsets[level] + index) * nodeLen;
+    }
+
+    /** The backing array; callers must treat it as read-only. */
+    byte[] nodes() {
+        return nodes;
+    }
+}
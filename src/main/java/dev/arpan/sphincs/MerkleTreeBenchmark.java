@@ -0,0 +1,102 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compare heap allocation and build time of the flat {@link MerkleTree} against the per-node
+ * object graph built by {@link MerkleBatchSigner#buildTree(List)}.
+ */
+public class MerkleTreeBenchmark {
+
+    /**
+     * Batch sizes to measure, from a small batch up to a 1M-leaf batch.
+     */
+    private static final int[] LEAF_COUNTS = {1 << 10, 1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20};
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the allocation benchmark for all configured batch sizes and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_tree_alloc.csv");
+        Files.writeString(csv, "leaves,impl,build_ms,allocated_bytes,allocated_bytes_per_leaf\n");
+
+        // Warm up both implementations so the JIT does not dominate the first rows
+        List<byte[]> warmup = randomLeaves(1 << 12);
+        for (int i = 0; i < 5; i++) {
+            MerkleBatchSigner.buildTree(warmup);
+            MerkleTree.build(warmup);
+        }
+
+        for (int n : LEAF_COUNTS) {
+            List<byte[]> leaves = randomLeaves(n);
+
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            MerkleBatchSigner.Node root = MerkleBatchSigner.buildTree(leaves);
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            writeRow(csv, n, "node_graph", t1 - t0, a1 - a0);
+            byte[] expected = root.hash;
+            root = null;
+
+            a0 = allocatedBytes();
+            t0 = System.nanoTime();
+            MerkleTree tree = MerkleTree.build(leaves);
+            t1 = System.nanoTime();
+            a1 = allocatedBytes();
+            writeRow(csv, n, "flat_array", t1 - t0, a1 - a0);
+
+            if (!Arrays.equals(expected, tree.root())) {
+                throw new IllegalStateException("Flat tree root differs from node tree root for " + n + " leaves");
+            }
+        }
+    }
+
+    private static void writeRow(Path csv, int n, String impl, long nanos, long bytes) throws IOException {
+        double ms = nanos / 1e6;
+        String row = String.format(Locale.ROOT, "%d,%s,%.3f,%d,%.1f%n", n, impl, ms, bytes, bytes * 1.0 / n);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-8d %-10s build=%9.2f ms  allocated=%,14d bytes  (%.1f per leaf)%n",
+                n, impl, ms, bytes, bytes * 1.0 / n);
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, as reported by the HotSpot thread MX bean.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static List<byte[]> randomLeaves(int n) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        List<byte[]> leaves = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            leaves.add(md.digest(("message-" + i).getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+        }
+        return leaves;
+    }
+}
@@ -0,0 +1,80 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Bytes saved by {@link MerkleMultiproof} against k independent proofs, for random and contiguous
+ * subsets of a batch.  Every multiproof is verified before its size is recorded.
+ */
+public class MultiproofBenchmark {
+
+    private static final int[] LOG_LEAVES = {10, 16};
+    private static final int[] SUBSET_SIZES = {2, 4, 8, 16, 32, 64, 128, 256, 512};
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Measure every (batch size, subset size, subset shape) combination and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_multiproof.csv");
+        Files.writeString(csv, "leaves,k,subset,multiproof_bytes,independent_bytes,saved_bytes,saved_pct\n");
+
+        Random rnd = new Random(1234);
+        for (int log : LOG_LEAVES) {
+            int n = 1 << log;
+            List<byte[]> leaves = MerkleTreeBenchmark.randomLeaves(n);
+            MerkleTree tree = MerkleTree.build(leaves);
+            byte[] root = tree.root();
+
+            for (int k : SUBSET_SIZES) {
+                if (k > n) {
+                    continue;
+                }
+                int[] random = rnd.ints(0, n).distinct().limit(k).toArray();
+                int start = rnd.nextInt(n - k + 1);
+                int[] contiguous = new int[k];
+                for (int i = 0; i < k; i++) {
+                    contiguous[i] = start + i;
+                }
+                measure(csv, tree, leaves, root, "random", random);
+                measure(csv, tree, leaves, root, "contiguous", contiguous);
+            }
+        }
+    }
+
+    private static void measure(Path csv, MerkleTree tree, List<byte[]> leaves, byte[] root, String shape, int[] indices)
+            throws IOException {
+        MerkleMultiproof proof = MerkleMultiproof.generate(tree, indices);
+        List<byte[]> selected = new ArrayList<>();
+        for (int idx : proof.indices()) {
+            selected.add(leaves.get(idx));
+        }
+        if (!proof.verify(selected, root)) {
+            throw new IllegalStateException("Multiproof failed to verify for " + indices.length + " " + shape + " leaves");
+        }
+
+        int k = indices.length;
+        int multi = proof.sizeBytes();
+        int independent = k * tree.height() * MerkleTree.HASH_LEN;
+        int saved = independent - multi;
+        double pct = 100.0 * saved / independent;
+        String row = String.format(Locale.ROOT, "%d,%d,%s,%d,%d,%d,%.1f%n", tree.leafCount(), k, shape, multi, independent, saved, pct);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-7d k=%-4d %-10s multiproof=%7d B  independent=%7d B  saved=%5.1f%%%n",
+                tree.leafCount(), k, shape, multi, independent, pct);
+    }
+}
@@ -0,0 +1,104 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput, in inner-node hashes per second, of {@link Sha256NodeKernel} against the general
+ * digest paths: the allocating {@code hashConcat} of {@link MerkleBatchSigner} and the thread-local
+ * {@link MerkleHasher}.  Before timing anything the kernel is checked bit for bit against the
+ * JCA SHA‑256 of the same prefixed input on random nodes.  Run it once more with {@code -XX:-UseSHA} to see the kernel
+ * against the JCA engine without SHA intrinsics, which is when {@link MerkleHasher} selects it.
+ */
+public class NodeKernelBenchmark {
+
+    private static final int CHECKED_PAIRS = 100_000;
+    private static final int NODES = 1 << 16;
+    private static final int ROUNDS = 40;
+
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Verify the kernel, then measure all three node hashers and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException, NoSuchAlgorithmException {
+        Random rnd = new Random(42);
+        Sha256NodeKernel kernel = new Sha256NodeKernel();
+
+        byte[] left = new byte[32];
+        byte[] right = new byte[32];
+        byte[] out = new byte[32];
+        MessageDigest reference = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < CHECKED_PAIRS; i++) {
+            rnd.nextBytes(left);
+            rnd.nextBytes(right);
+            kernel.hash(left, 0, right, 0, out, 0);
+            reference.update(MerkleHasher.NODE_PREFIX);
+            reference.update(left);
+            if (!Arrays.equals(reference.digest(right), out)) {
+                throw new IllegalStateException("Node kernel disagrees with JCA SHA-256 on pair " + i);
+            }
+        }
+
+        Path csv = outDir.resolve("merkle_node_kernel.csv");
+        Files.writeString(csv, "impl,sha_intrinsics,hashes,ns_per_hash,hashes_per_sec\n");
+        System.out.println("SHA intrinsics: " + MerkleHasher.shaIntrinsicsEnabled()
+                + ", MerkleHasher uses node kernel: " + MerkleHasher.sha256().usesNodeKernel());
+
+        // A flat layer of 2 * NODES children hashed into NODES parents, as in MerkleTree
+        byte[] children = new byte[2 * NODES * 32];
+        byte[] parents = new byte[NODES * 32];
+        rnd.nextBytes(children);
+        MerkleHasher hasher = MerkleHasher.sha256();
+
+        measure(csv, "hash_concat", () -> {
+            for (int i = 0; i < NODES; i++) {
+                byte[] l = Arrays.copyOfRange(children, 64 * i, 64 * i + 32);
+                byte[] r = Arrays.copyOfRange(children, 64 * i + 32, 64 * i + 64);
+                System.arraycopy(MerkleBatchSigner.hashConcat(l, r), 0, parents, 32 * i, 32);
+            }
+        });
+        measure(csv, "merkle_hasher", () -> {
+            for (int i = 0; i < NODES; i++) {
+                hasher.hashNode(children, 64 * i, children, 64 * i + 32, parents, 32 * i);
+            }
+        });
+        measure(csv, "node_kernel", () -> {
+            for (int i = 0; i < NODES; i++) {
+                kernel.hash(children, 64 * i, children, 64 * i + 32, parents, 32 * i);
+            }
+        });
+    }
+
+    private static void measure(Path csv, String name, Runnable layer) throws IOException {
+        for (int r = 0; r < ROUNDS / 4; r++) {
+            layer.run();
+        }
+        long t0 = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            layer.run();
+        }
+        long t1 = System.nanoTime();
+
+        long hashes = (long) ROUNDS * NODES;
+        double nsPerHash = (t1 - t0) * 1.0 / hashes;
+        double perSec = 1e9 / nsPerHash;
+        String row = String.format(Locale.ROOT, "%s,%b,%d,%.1f,%.0f%n",
+                name, MerkleHasher.shaIntrinsicsEnabled(), hashes, nsPerHash, perSec);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-14s %8.1f ns/hash  %,12.0f hashes/s%n", name, nsPerHash, perSec);
+    }
+}
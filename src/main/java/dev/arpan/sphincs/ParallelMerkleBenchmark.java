@@ -0,0 +1,86 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measure how {@link ParallelMerkleBuilder} scales from one worker up to every available core on a
+ * 2^20-leaf batch, relative to the sequential {@link MerkleTree#build(List)}.
+ */
+public class ParallelMerkleBenchmark {
+
+    private static final int LEAF_COUNT = 1 << 20;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the scaling benchmark and write a CSV into the output directory.  Each row is the best of
+     * {@link #RUNS} builds.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_parallel_scaling.csv");
+        Files.writeString(csv, "leaves,workers,build_ms,speedup\n");
+
+        List<byte[]> leaves = MerkleTreeBenchmark.randomLeaves(LEAF_COUNT);
+
+        long sequential = Long.MAX_VALUE;
+        byte[] expected = null;
+        for (int r = 0; r < RUNS; r++) {
+            long t0 = System.nanoTime();
+            MerkleTree tree = MerkleTree.build(leaves);
+            sequential = Math.min(sequential, System.nanoTime() - t0);
+            expected = tree.root();
+        }
+        writeRow(csv, 0, sequential, sequential);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int workers = 1; workers <= cores; workers = nextWorkers(workers, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                ParallelMerkleBuilder builder = new ParallelMerkleBuilder(pool, ParallelMerkleBuilder.DEFAULT_THRESHOLD);
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < RUNS; r++) {
+                    long t0 = System.nanoTime();
+                    MerkleTree tree = builder.build(leaves);
+                    best = Math.min(best, System.nanoTime() - t0);
+                    if (!Arrays.equals(expected, tree.root())) {
+                        throw new IllegalStateException("Parallel root differs from sequential root with " + workers + " workers");
+                    }
+                }
+                writeRow(csv, workers, best, sequential);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // Double the worker count, but always finish with exactly the number of available cores
+    private static int nextWorkers(int workers, int cores) {
+        if (workers == cores) {
+            return cores + 1;
+        }
+        return Math.min(workers * 2, cores);
+    }
+
+    private static void writeRow(Path csv, int workers, long nanos, long sequentialNanos) throws IOException {
+        double ms = nanos / 1e6;
+        double speedup = sequentialNanos * 1.0 / nanos;
+        String row = String.format(Locale.ROOT, "%d,%d,%.3f,%.2f%n", LEAF_COUNT, workers, ms, speedup);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-8d workers=%-3s build=%9.2f ms  speedup=%.2fx%n",
+                LEAF_COUNT, workers == 0 ? "seq" : Integer.toString(workers), ms, speedup);
+    }
+}
@@ -0,0 +1,128 @@
+package dev.arpan.sphincs;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a {@link MerkleTree} by splitting each level across the workers of a {@link ForkJoinPool}.
+ * <p>
+ * Every level still waits for the one below it, but within a level the parents are independent, so
+ * the range of parents is halved recursively until it drops below the sequential threshold.  Levels
+ * that are already smaller than the threshold (the top of the tree) are hashed on the calling thread.
+ * The nodes computed are exactly those of {@link MerkleTree#build(List)}, so the roots are identical.
+ */
+public final class ParallelMerkleBuilder {
+
+    /**
+     * Default number of parent nodes below which a range is hashed sequentially.
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 12;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * Create a builder that uses the common pool and the default threshold.
+     */
+    public ParallelMerkleBuilder() {
+        this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param pool      the pool whose workers hash each level
+     * @param threshold number of parent nodes below which a range is hashed sequentially
+     */
+    public ParallelMerkleBuilder(ForkJoinPool pool, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Build a tree over the given leaf hashes.
+     *
+     * @param leaves the leaf hashes, each {@link MerkleTree#HASH_LEN} bytes long
+     * @return the fully built tree
+     */
+    public MerkleTree build(List<byte[]> leaves) {
+        return build(leaves, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Build a tree over the given leaf hashes with a chosen hash family.
+     *
+     * @param leaves the leaf hashes, each {@link MerkleHashFamily#length()} bytes long
+     * @param family the hash family for inner nodes
+     * @return the fully built tree
+     */
+    public MerkleTree build(List<byte[]> leaves, MerkleHashFamily family) {
+        return hash(MerkleTree.withLeaves(leaves, family));
+    }
+
+    /**
+     * Build a tree over leaf hashes packed back to back in a flat array.
+     *
+     * @param leafHashes the concatenated leaf hashes
+     * @param leafCount  number of leaves stored in {@code leafHashes}
+     * @return the fully built tree
+     */
+    public MerkleTree build(byte[] leafHashes, int leafCount) {
+        return build(leafHashes, leafCount, MerkleHashFamily.SHA256);
+    }
+
+    /**
+     * Build a tree over packed leaf hashes with a chosen hash family.
+     *
+     * @param leafHashes the concatenated leaf hashes
+     * @param leafCount  number of leaves stored in {@code leafHashes}
+     * @param family     the hash family for inner nodes
+     * @return the fully built tree
+     */
+    public MerkleTree build(byte[] leafHashes, int leafCount, MerkleHashFamily family) {
+        return hash(MerkleTree.withLeaves(leafHashes, leafCount, family));
+    }
+
+    private MerkleTree hash(MerkleTree tree) {
+        for (int level = 0; level < tree.height(); level++) {
+            int parents = tree.levelSize(level + 1);
+            if (parents <= threshold) {
+                tree.hashLevel(level, 0, parents);
+            } else {
+                pool.invoke(new LevelTask(tree, level, 0, parents));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Hashes the parents [from, to) of one level, forking halves until the range is small enough.
+     */
+    private final class LevelTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final MerkleTree tree;
+        private final int level;
+        private final int from;
+        private final int to;
+
+        LevelTask(MerkleTree tree, int level, int from, int to) {
+            this.tree = tree;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                tree.hashLevel(level, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(tree, level, from, mid), new LevelTask(tree, level, mid, to));
+        }
+    }
+}
@@ -24,7 +24,7 @@ public class ParameterBenchmark {
     /**
      * List of parameter sets to benchmark.  Both SHAKE and SHA2 variants are included where applicable.
      */
-    private static final List<SPHINCSPlusParameters> PARAM_SETS = List.of(
+    static final List<SPHINCSPlusParameters> PARAM_SETS = List.of(
             SPHINCSPlusParameters.shake_128s,
             SPHINCSPlusParameters.shake_128f,
             SPHINCSPlusParameters.shake_192s,
@@ -74,7 +74,7 @@ public class ParameterBenchmark {
         // Attempt to generate a bar chart of signature sizes.  If XChart is unavailable at runtime
         // (e.g. the dependency was excluded), this will catch the error and skip chart generation.
         try {
-            Charts.renderSignatureSizeChart(csv, outDir.resolve("sig_sizes.png"));
+            Charts.renderSignatureSizeChart(csv.toString(), outDir.resolve("sig_sizes.png").toString());
         } catch (Throwable t) {
             System.err.println("Skipping chart generation: " + t.getMessage());
         }
@@ -0,0 +1,163 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Messages per second for whole batches signed one after another on a single thread against
+ * {@link BatchSigningPipeline}, which overlaps hashing, signing and emitting of consecutive batches.
+ * <p>
+ * Emitting encodes each envelope into a {@link BatchEnvelope} with the signature by reference.  The
+ * CSV also reports the time per batch of each stage and the throughput the slowest stage allows;
+ * the pipeline can approach that limit only when it has a core per busy stage.
+ */
+public class PipelineBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int[] BATCH_SIZES = {1024, 16384, 65536};
+    private static final int BATCHES = 12;
+    private static final int MESSAGE_LEN = 128;
+    private static final int QUEUE_CAPACITY = 2;
+
+    private static volatile long consumed;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Sign {@link #BATCHES} batches of each configured size sequentially and through the pipeline and
+     * write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or the pipeline is interrupted
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_pipeline.csv");
+        Files.writeString(csv, "batch_size,mode,hash_threads,batches,elapsed_ms,msgs_per_sec,hash_ms_per_batch,sign_ms_per_batch,emit_ms_per_batch,slowest_stage_msgs_per_sec\n");
+
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+        SPHINCSPlusPrivateKeyParameters sk = (SPHINCSPlusPrivateKeyParameters) kp.getPrivate();
+        MerkleHashFamily family = MerkleHashFamily.forParameters(PARAMS);
+        int hashThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        Random rnd = new Random(11);
+        for (int n : BATCH_SIZES) {
+            List<List<byte[]>> batches = new ArrayList<>(BATCHES);
+            for (int b = 0; b < BATCHES; b++) {
+                List<byte[]> messages = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    byte[] m = new byte[MESSAGE_LEN];
+                    rnd.nextBytes(m);
+                    messages.add(m);
+                }
+                batches.add(messages);
+            }
+            ByteBuffer out = ByteBuffer.allocateDirect(BatchEnvelope.encodedLength(family, MerkleTree.heightFor(n), -1));
+
+            // Warm up both paths on the first two batches, then measure all of them
+            sequential(sk, family, batches.subList(0, 2), out);
+            pipelined(sk, hashThreads, batches.subList(0, 2), out);
+
+            long[] stages = new long[3];
+            long t0 = System.nanoTime();
+            sequential(sk, family, batches, out, stages);
+            long t1 = System.nanoTime();
+            record(csv, n, "sequential", 1, t1 - t0, stages);
+
+            BatchSigningPipeline pipeline;
+            t0 = System.nanoTime();
+            pipeline = pipelined(sk, hashThreads, batches, out);
+            t1 = System.nanoTime();
+            record(csv, n, "pipelined", hashThreads, t1 - t0,
+                    new long[]{pipeline.hashNanos(), pipeline.signNanos(), pipeline.emitNanos()});
+        }
+    }
+
+    private static void sequential(SPHINCSPlusPrivateKeyParameters sk, MerkleHashFamily family,
+                                   List<List<byte[]>> batches, ByteBuffer out) {
+        sequential(sk, family, batches, out, new long[3]);
+    }
+
+    // The same work as the pipeline stages, one batch at a time on the calling thread
+    private static void sequential(SPHINCSPlusPrivateKeyParameters sk, MerkleHashFamily family,
+                                   List<List<byte[]>> batches, ByteBuffer out, long[] stages) {
+        MerkleHasher hasher = family.hasher();
+        SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+        long id = 0;
+        for (List<byte[]> messages : batches) {
+            long t0 = System.nanoTime();
+            int n = messages.size();
+            byte[] leaves = new byte[n * family.length()];
+            for (int i = 0; i < n; i++) {
+                byte[] m = messages.get(i);
+                hasher.hashLeaf(m, 0, m.length, leaves, i * family.length());
+            }
+            MerkleTree tree = MerkleTree.build(leaves, n, family);
+            long t1 = System.nanoTime();
+            signer.init(true, sk);
+            byte[] root = tree.root();
+            byte[] signature = signer.generateSignature(MerkleTree.signedMessage(root, n));
+            long t2 = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                emit(out, new BatchSigningService.Envelope(id, family, root, n, signature, tree.proof(i)));
+            }
+            long t3 = System.nanoTime();
+            stages[0] += t1 - t0;
+            stages[1] += t2 - t1;
+            stages[2] += t3 - t2;
+            id++;
+        }
+    }
+
+    private static BatchSigningPipeline pipelined(SPHINCSPlusPrivateKeyParameters sk, int hashThreads,
+                                                  List<List<byte[]>> batches, ByteBuffer out) throws InterruptedException {
+        BatchSigningPipeline pipeline = new BatchSigningPipeline(sk, hashThreads, 1, QUEUE_CAPACITY, env -> emit(out, env));
+        for (List<byte[]> messages : batches) {
+            pipeline.submit(messages);
+        }
+        pipeline.close();
+        if (pipeline.batchesEmitted() != batches.size()) {
+            throw new IllegalStateException("Pipeline emitted " + pipeline.batchesEmitted() + " of " + batches.size() + " batches");
+        }
+        return pipeline;
+    }
+
+    private static void emit(ByteBuffer out, BatchSigningService.Envelope env) {
+        out.clear();
+        consumed += BatchEnvelope.encode(out, 1, env.batchId(), env.family(), env.leafCount(), env.proof(), null);
+    }
+
+    private static void record(Path csv, int n, String mode, int hashThreads, long elapsed, long[] stages) throws Exception {
+        double ms = elapsed / 1e6;
+        double perSec = (double) n * BATCHES / (elapsed / 1e9);
+        double hash = stages[0] / 1e6 / BATCHES;
+        double sign = stages[1] / 1e6 / BATCHES;
+        double emit = stages[2] / 1e6 / BATCHES;
+        // Hashing is spread over its threads; signing and emitting run on one thread each
+        double slowest = Math.max(hash / hashThreads, Math.max(sign, emit));
+        double limit = n / (slowest / 1e3);
+        String row = String.format(Locale.ROOT, "%d,%s,%d,%d,%.1f,%.0f,%.2f,%.2f,%.2f,%.0f%n",
+                n, mode, hashThreads, BATCHES, ms, perSec, hash, sign, emit, limit);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "batch=%-6d %-10s %9.1f ms  %,12.0f msgs/s  hash=%7.2f sign=%7.2f emit=%7.2f ms/batch  limit=%,12.0f msgs/s%n",
+                n, mode, ms, perSec, hash, sign, emit, limit);
+    }
+}
@@ -0,0 +1,92 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measure the time to produce the inclusion proof of every leaf in a batch.  The single-pass
+ * {@link MerkleTree#proofs()} is timed for N = 2^6 through 2^20; the old per-index rebuild in
+ * {@link MerkleBatchSigner#getProof(int, List)} is O(N²) and is only timed up to
+ * {@link #MAX_REBUILD_LEAVES}.
+ */
+public class ProofGenerationBenchmark {
+
+    private static final int MIN_LOG_LEAVES = 6;
+    private static final int MAX_LOG_LEAVES = 20;
+
+    /**
+     * Largest batch for which the per-index rebuild baseline is still run (it needs N² hashes).
+     */
+    private static final int MAX_REBUILD_LEAVES = 1 << 11;
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the benchmark for all configured batch sizes and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_proof_generation.csv");
+        Files.writeString(csv, "leaves,impl,build_ms,proofs_ms,total_ms\n");
+
+        List<byte[]> warmup = MerkleTreeBenchmark.randomLeaves(1 << 10);
+        for (int i = 0; i < 5; i++) {
+            MerkleTree.build(warmup).proofs();
+            MerkleBatchSigner.getProof(i, warmup);
+        }
+
+        for (int log = MIN_LOG_LEAVES; log <= MAX_LOG_LEAVES; log++) {
+            int n = 1 << log;
+            List<byte[]> leaves = MerkleTreeBenchmark.randomLeaves(n);
+
+            long t0 = System.nanoTime();
+            MerkleTree tree = MerkleTree.build(leaves);
+            long t1 = System.nanoTime();
+            List<MerkleBatchSigner.Proof> proofs = tree.proofs();
+            long t2 = System.nanoTime();
+            writeRow(csv, n, "single_pass", t1 - t0, t2 - t1);
+
+            if (n <= MAX_REBUILD_LEAVES) {
+                long r0 = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    MerkleBatchSigner.Proof p = MerkleBatchSigner.getProof(i, leaves);
+                    if (!samePath(p, proofs.get(i))) {
+                        throw new IllegalStateException("Proof mismatch at leaf " + i + " of " + n);
+                    }
+                }
+                long r1 = System.nanoTime();
+                writeRow(csv, n, "rebuild_per_index", 0, r1 - r0);
+            }
+        }
+    }
+
+    private static boolean samePath(MerkleBatchSigner.Proof a, MerkleBatchSigner.Proof b) {
+        if (a.index() != b.index() || a.authPath().size() != b.authPath().size()) {
+            return false;
+        }
+        for (int i = 0; i < a.authPath().size(); i++) {
+            if (!Arrays.equals(a.authPath().get(i), b.authPath().get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeRow(Path csv, int n, String impl, long buildNanos, long proofNanos) throws IOException {
+        double buildMs = buildNanos / 1e6;
+        double proofsMs = proofNanos / 1e6;
+        String row = String.format(Locale.ROOT, "%d,%s,%.3f,%.3f,%.3f%n", n, impl, buildMs, proofsMs, buildMs + proofsMs);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-8d %-18s build=%9.2f ms  proofs=%10.2f ms%n", n, impl, buildMs, proofsMs);
+    }
+}
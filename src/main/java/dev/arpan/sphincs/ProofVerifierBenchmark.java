@@ -0,0 +1,87 @@
+package dev.arpan.sphincs;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Single-threaded throughput of {@link MerkleProofVerifier} (verifications per second per core) for
+ * a range of tree heights, together with the bytes the measuring thread allocated per verification.
+ */
+public class ProofVerifierBenchmark {
+
+    private static final int[] LOG_LEAVES = {6, 10, 14, 18, 20};
+    private static final int WARMUP = 200_000;
+    private static final int MEASURED = 1_000_000;
+
+    public static void main(String[] args) throws IOException {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the benchmark for every configured tree height and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws IOException if writing to the filesystem fails
+     */
+    public static void runAll(Path outDir) throws IOException {
+        Path csv = outDir.resolve("merkle_proof_verify.csv");
+        Files.writeString(csv, "leaves,depth,verifications,ns_per_verify,verifies_per_sec,allocated_bytes_per_verify\n");
+
+        MerkleProofVerifier verifier = new MerkleProofVerifier();
+        for (int log : LOG_LEAVES) {
+            int n = 1 << log;
+            List<byte[]> leaves = MerkleTreeBenchmark.randomLeaves(n);
+            MerkleTree tree = MerkleTree.build(leaves);
+            byte[] root = tree.root();
+            int depth = tree.height();
+
+            // Pre-extract a few hundred proofs so the loop measures verification only
+            int samples = Math.min(n, 256);
+            byte[] paths = new byte[samples * depth * MerkleTree.HASH_LEN];
+            int[] indices = new int[samples];
+            for (int s = 0; s < samples; s++) {
+                indices[s] = (int) ((long) s * n / samples);
+                tree.copyAuthPath(indices[s], paths, s * depth * MerkleTree.HASH_LEN);
+            }
+
+            for (int i = 0; i < WARMUP; i++) {
+                int s = i % samples;
+                verifier.verify(leaves.get(indices[s]), indices[s], n, paths, s * depth * MerkleTree.HASH_LEN, depth, root);
+            }
+
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            int ok = 0;
+            for (int i = 0; i < MEASURED; i++) {
+                int s = i % samples;
+                if (verifier.verify(leaves.get(indices[s]), indices[s], n, paths, s * depth * MerkleTree.HASH_LEN, depth, root)) {
+                    ok++;
+                }
+            }
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            if (ok != MEASURED) {
+                throw new IllegalStateException((MEASURED - ok) + " valid proofs failed to verify at depth " + depth);
+            }
+
+            double nsPer = (t1 - t0) * 1.0 / MEASURED;
+            double perSec = 1e9 / nsPer;
+            double allocPer = (a1 - a0) * 1.0 / MEASURED;
+            String row = String.format(Locale.ROOT, "%d,%d,%d,%.1f,%.0f,%.3f%n", n, depth, MEASURED, nsPer, perSec, allocPer);
+            Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+            System.out.printf(Locale.ROOT, "%-8d depth=%2d  %8.1f ns/verify  %,10.0f verifies/s  %.3f bytes allocated/verify%n",
+                    n, depth, nsPer, perSec, allocPer);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,234 @@
+package dev.arpan.sphincs;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Messages per second and bytes allocated per message from intake to sealed tree for
+ * {@link LeafHashingRing} against a queue-based design: messages copied into an
+ * {@code ArrayBlockingQueue}, hashed by a pool of threads into their batch's leaf array, the last
+ * leaf of a batch building its tree.
+ * <p>
+ * Both designs copy each message on intake, since the producer may reuse its buffer.  Allocation is
+ * summed over every live thread.  Before timing, the ring's roots are checked against trees built
+ * directly from the same messages, including a final batch cut short by a flush.
+ */
+public class RingIngestBenchmark {
+
+    private static final MerkleHashFamily FAMILY = MerkleHashFamily.SHA256;
+    private static final int[] HASHERS = {1, 2, 4};
+    private static final int MESSAGE_LEN = 256;
+    private static final int DISTINCT_MESSAGES = 1024;
+    private static final int BATCH_SIZE = 4096;
+    private static final int SLOTS = 4 * BATCH_SIZE;
+    private static final int MESSAGES = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Ingest {@link #MESSAGES} messages through both designs with each hasher count and write a CSV
+     * into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or a stage is interrupted
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_ring_ingest.csv");
+        Files.writeString(csv, "design,hashers,messages,elapsed_ms,msgs_per_sec,allocated_bytes_per_msg\n");
+
+        Random rnd = new Random(3);
+        byte[][] pool = new byte[DISTINCT_MESSAGES][MESSAGE_LEN];
+        for (byte[] m : pool) {
+            rnd.nextBytes(m);
+        }
+        checkRoots(pool);
+
+        for (int hashers : HASHERS) {
+            for (String design : new String[]{"ring", "queue"}) {
+                run(csv, design, hashers, pool, MESSAGES / 4, false);
+                run(csv, design, hashers, pool, MESSAGES, true);
+            }
+        }
+    }
+
+    private interface Ingest {
+        void publish(byte[] message);
+
+        void close() throws InterruptedException;
+    }
+
+    private static Ingest ingest(String design, int hashers, Consumer<MerkleTree> onSeal) {
+        if (design.equals("ring")) {
+            LeafHashingRing ring = new LeafHashingRing(FAMILY, SLOTS, MESSAGE_LEN, hashers, BATCH_SIZE, onSeal);
+            return new Ingest() {
+                public void publish(byte[] message) {
+                    ring.publish(message, 0, message.length);
+                }
+
+                public void close() throws InterruptedException {
+                    ring.close();
+                }
+            };
+        }
+        return new QueueIngest(hashers, onSeal);
+    }
+
+    // messages must be a multiple of the batch size, so every batch seals without a flush
+    private static void run(Path csv, String design, int hashers, byte[][] pool, int messages, boolean record) throws Exception {
+        LongAdder leaves = new LongAdder();
+        Ingest ingest = ingest(design, hashers, tree -> leaves.add(tree.leafCount()));
+        long alloc0 = allocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            ingest.publish(pool[i & (DISTINCT_MESSAGES - 1)]);
+        }
+        // Wait for the last batch before stopping the threads, whose allocation counts vanish with them
+        while (leaves.sum() < messages) {
+            Thread.yield();
+        }
+        long t1 = System.nanoTime();
+        long alloc1 = allocatedBytes();
+        ingest.close();
+        if (leaves.sum() != messages) {
+            throw new IllegalStateException(design + " sealed " + leaves.sum() + " of " + messages + " leaves");
+        }
+        if (!record) {
+            return;
+        }
+        double ms = (t1 - t0) / 1e6;
+        double perSec = messages / ((t1 - t0) / 1e9);
+        double bytesPerMsg = (alloc1 - alloc0) * 1.0 / messages;
+        String row = String.format(Locale.ROOT, "%s,%d,%d,%.1f,%.0f,%.1f%n", design, hashers, messages, ms, perSec, bytesPerMsg);
+        Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+        System.out.printf(Locale.ROOT, "%-6s hashers=%d %8d msgs in %8.1f ms  %,12.0f msgs/s  %7.1f B allocated/msg%n",
+                design, hashers, messages, ms, perSec, bytesPerMsg);
+    }
+
+    // Batches sealed by the ring must have the roots of trees built directly over the same messages
+    private static void checkRoots(byte[][] pool) throws InterruptedException {
+        int messages = 3 * BATCH_SIZE + 100;
+        List<byte[]> roots = new ArrayList<>();
+        LeafHashingRing ring = new LeafHashingRing(FAMILY, SLOTS, MESSAGE_LEN, 3, BATCH_SIZE, tree -> roots.add(tree.root()));
+        for (int i = 0; i < messages; i++) {
+            ring.publish(pool[i & (DISTINCT_MESSAGES - 1)], 0, MESSAGE_LEN);
+        }
+        ring.close();
+        if (roots.size() != 4) {
+            throw new IllegalStateException("Ring sealed " + roots.size() + " batches, expected 4");
+        }
+        for (int b = 0; b < roots.size(); b++) {
+            List<byte[]> leaves = new ArrayList<>();
+            for (int i = b * BATCH_SIZE; i < Math.min(messages, (b + 1) * BATCH_SIZE); i++) {
+                leaves.add(FAMILY.hasher().hashLeaf(pool[i & (DISTINCT_MESSAGES - 1)]));
+            }
+            if (!MessageDigest.isEqual(MerkleTree.build(leaves, FAMILY).root(), roots.get(b))) {
+                throw new IllegalStateException("Root of ring batch " + b + " differs");
+            }
+        }
+    }
+
+    /**
+     * Bytes allocated so far by all live threads, as reported by the HotSpot thread MX bean.
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return Arrays.stream(mx.getThreadAllocatedBytes(mx.getAllThreadIds())).filter(b -> b > 0).sum();
+    }
+
+    /**
+     * The baseline: a bounded queue of message copies feeding a pool of hashers.
+     */
+    private static final class QueueIngest implements Ingest {
+        private static final Task STOP = new Task(null, 0, null);
+
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(SLOTS);
+        private final List<Thread> threads = new ArrayList<>();
+        private final Consumer<MerkleTree> onSeal;
+        private Batch batch;
+        private int index;
+
+        QueueIngest(int hashers, Consumer<MerkleTree> onSeal) {
+            this.onSeal = onSeal;
+            for (int k = 0; k < hashers; k++) {
+                Thread t = new Thread(this::hashLoop, "queue-hasher-" + k);
+                t.start();
+                threads.add(t);
+            }
+        }
+
+        @Override
+        public void publish(byte[] message) {
+            if (batch == null) {
+                batch = new Batch();
+                index = 0;
+            }
+            try {
+                queue.put(new Task(batch, index++, message.clone()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            if (index == BATCH_SIZE) {
+                batch = null;
+            }
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            // The benchmark publishes whole batches only, so there is no partial batch to seal
+            for (int i = 0; i < threads.size(); i++) {
+                queue.put(STOP);
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+        }
+
+        private void hashLoop() {
+            MerkleHasher hasher = FAMILY.hasher();
+            try {
+                for (Task task; (task = queue.take()) != STOP; ) {
+                    hasher.hashLeaf(task.message, 0, task.message.length, task.batch.leaves, task.index * FAMILY.length());
+                    if (task.batch.done.incrementAndGet() == BATCH_SIZE) {
+                        onSeal.accept(MerkleTree.build(task.batch.leaves, BATCH_SIZE, FAMILY));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private static final class Batch {
+            final byte[] leaves = new byte[BATCH_SIZE * FAMILY.length()];
+            final AtomicInteger done = new AtomicInteger();
+        }
+
+        private static final class Task {
+            final Batch batch;
+            final int index;
+            final byte[] message;
+
+            Task(Batch batch, int index, byte[] message) {
+                this.batch = batch;
+                this.index = index;
+                this.message = message;
+            }
+        }
+    }
+}
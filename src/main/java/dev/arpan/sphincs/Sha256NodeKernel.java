@@ -0,0 +1,119 @@
+package dev.arpan.sphincs;
+
+/**
+ * SHA‑256 specialised for Merkle inner nodes, i.e. for messages of exactly 65 bytes
+ * (0x01 || left || right, see {@link MerkleHasher}).
+ * <p>
+ * A 65-byte message always pads to exactly two blocks whose layout is fixed: the prefix and the
+ * first 63 node bytes, then the last node byte, 0x80, 54 zero bytes and the bit length 520.  The
+ * kernel keeps both blocks in one buffer with the prefix and padding written once, copies the two
+ * nodes in, and compresses twice, skipping the buffering and length bookkeeping of a general-purpose
+ * engine.  The digest is written straight into the caller's output array.
+ * <p>
+ * Instances hold a two-block buffer and a 64-word schedule buffer and are not thread-safe; keep
+ * one per thread.
+ */
+public final class Sha256NodeKernel {
+
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+
+    private static final int[] IV = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private final int[] w = new int[64];
+    private final int[] state = new int[8];
+    private final byte[] blocks = new byte[128];
+
+    public Sha256NodeKernel() {
+        blocks[0] = MerkleHasher.NODE_PREFIX;
+        blocks[65] = (byte) 0x80;
+        blocks[126] = (byte) (520 >>> 8);
+        blocks[127] = (byte) 520;
+    }
+
+    /**
+     * Compute SHA‑256(0x01 || left || right) for two 32-byte nodes and write the 32-byte digest into
+     * {@code out}.  The output may overlap either input.
+     */
+    public void hash(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] out, int outOffset) {
+        System.arraycopy(left, leftOffset, blocks, 1, 32);
+        System.arraycopy(right, rightOffset, blocks, 33, 32);
+        System.arraycopy(IV, 0, state, 0, 8);
+        compressBlock(0);
+        compressBlock(64);
+        for (int t = 0; t < 8; t++) {
+            writeInt(state[t], out, outOffset + 4 * t);
+        }
+    }
+
+    private void compressBlock(int offset) {
+        for (int t = 0; t < 16; t++) {
+            w[t] = readInt(blocks, offset + 4 * t);
+        }
+        expand(w);
+        for (int t = 0; t < 64; t++) {
+            w[t] += K[t];
+        }
+        compress(state, w);
+    }
+
+    private static void expand(int[] w) {
+        for (int t = 16; t < 64; t++) {
+            int x = w[t - 15];
+            int y = w[t - 2];
+            int s0 = Integer.rotateRight(x, 7) ^ Integer.rotateRight(x, 18) ^ (x >>> 3);
+            int s1 = Integer.rotateRight(y, 17) ^ Integer.rotateRight(y, 19) ^ (y >>> 10);
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+    }
+
+    // One compression round over a schedule that already has the round constants folded in
+    private static void compress(int[] h, int[] kw) {
+        int a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], hh = h[7];
+        for (int t = 0; t < 64; t++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int ch = (e & f) ^ (~e & g);
+            int t1 = hh + s1 + ch + kw[t];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int maj = (a & b) ^ (a & c) ^ (b & c);
+            int t2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += b;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static void writeInt(int v, byte[] b, int off) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+}
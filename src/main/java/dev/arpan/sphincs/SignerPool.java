@@ -0,0 +1,216 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPublicKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of signing threads, each bound to one of several SPHINCS+ keys, that signs batch roots in
+ * parallel.
+ * <p>
+ * A single signer is limited to one root per {@code generateSignature} call, so the pool runs one
+ * signer per thread.  Roots wait in one shared queue that every idle thread takes from, so work
+ * always goes to a signer that is free.  Thread {@code i} signs with key {@code i mod keys}, and
+ * the result names the key id (its index in the key list) so receivers know which public key to
+ * verify with; {@link #publicKey(long)} serves as the key lookup of {@link BatchFraming.Reader}.
+ * With one key, all threads share it, which is safe because SPHINCS+ signing is stateless.
+ * <p>
+ * Signatures per second grow linearly with the thread count until it reaches the number of cores.
+ * A root whose signing throws, even an {@link Error}, has its future completed exceptionally.  An
+ * Error also ends its thread; when it ends the last one, the roots still queued fail with it and the
+ * pool counts as closed.  Instances are thread-safe.
+ */
+public final class SignerPool implements AutoCloseable {
+
+    /**
+     * A signed root.
+     *
+     * @param keyId     index of the signing key in the pool's key list
+     * @param root      the bytes that were signed
+     * @param signature the SPHINCS+ signature over them
+     */
+    public record SignedRoot(long keyId, byte[] root, byte[] signature) {}
+
+    private static final Task STOP = new Task(null, null);
+
+    private final List<SPHINCSPlusPrivateKeyParameters> keys;
+    private final List<SPHINCSPlusPublicKeyParameters> publicKeys;
+    private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final long[] signedByKey;
+    private final LongAdder signed = new LongAdder();
+    // Guards closed and running, and orders sign()'s enqueue against close()'s end markers
+    private final Object lock = new Object();
+    private boolean closed;
+    private int running;
+
+    /**
+     * Start one signing thread per core, up to {@code maxThreads}.
+     *
+     * @param keys       the signing keys, all of one parameter set; key id {@code i} is {@code keys.get(i)}
+     * @param maxThreads the most signing threads to run
+     */
+    public SignerPool(List<SPHINCSPlusPrivateKeyParameters> keys, int maxThreads) {
+        this(keys, maxThreads, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param keys       the signing keys, all of one parameter set; key id {@code i} is {@code keys.get(i)}
+     * @param maxThreads the most signing threads to run
+     * @param cores      the cores to use, typically {@link Runtime#availableProcessors()}
+     */
+    public SignerPool(List<SPHINCSPlusPrivateKeyParameters> keys, int maxThreads, int cores) {
+        if (keys.isEmpty() || maxThreads < 1 || cores < 1) {
+            throw new IllegalArgumentException("Need at least one key, thread and core");
+        }
+        SPHINCSPlusParameters params = keys.get(0).getParameters();
+        this.keys = List.copyOf(keys);
+        this.publicKeys = new ArrayList<>(keys.size());
+        for (SPHINCSPlusPrivateKeyParameters key : this.keys) {
+            if (!key.getParameters().getName().equals(params.getName())) {
+                throw new IllegalArgumentException("Keys use different parameter sets");
+            }
+            publicKeys.add(new SPHINCSPlusPublicKeyParameters(key.getParameters(), key.getPublicKey()));
+        }
+        this.signedByKey = new long[keys.size()];
+        int n = Math.min(maxThreads, cores);
+        this.running = n;
+        for (int i = 0; i < n; i++) {
+            int keyId = i % keys.size();
+            Thread t = new Thread(() -> signLoop(keyId), "signer-" + i + "-key-" + keyId);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    /**
+     * Queue a root for the next idle signer.
+     *
+     * @param root the bytes to sign, normally a batch's {@link MerkleTree#signedMessage()}; must not be
+     *             modified afterwards
+     * @return a future completed with the signature and the id of the key that made it
+     * @throws IllegalStateException if the pool is closed
+     */
+    public CompletableFuture<SignedRoot> sign(byte[] root) {
+        CompletableFuture<SignedRoot> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Pool is closed");
+            }
+            queue.add(new Task(root, future));
+        }
+        return future;
+    }
+
+    /**
+     * @return the public key for a key id, or {@code null} if the pool has no such key
+     */
+    public SPHINCSPlusPublicKeyParameters publicKey(long keyId) {
+        return keyId >= 0 && keyId < publicKeys.size() ? publicKeys.get((int) keyId) : null;
+    }
+
+    /** @return the number of signing threads */
+    public int threads() {
+        return threads.size();
+    }
+
+    /** @return the number of keys */
+    public int keys() {
+        return keys.size();
+    }
+
+    /** @return the number of roots signed so far */
+    public long signed() {
+        return signed.sum();
+    }
+
+    /** @return how many roots each key has signed so far, indexed by key id */
+    public long[] signedByKey() {
+        synchronized (signedByKey) {
+            return signedByKey.clone();
+        }
+    }
+
+    /**
+     * Sign every queued root, then stop the threads.  If interrupted while waiting for them, returns
+     * with the interrupt status set; the threads still drain the queue and stop.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (!closed) {
+                closed = true;
+                for (int i = 0; i < threads.size(); i++) {
+                    queue.add(STOP);
+                }
+            }
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void signLoop(int keyId) {
+        SPHINCSPlusSigner signer = new SPHINCSPlusSigner();
+        signer.init(true, keys.get(keyId));
+        try {
+            for (Task task; (task = queue.take()) != STOP; ) {
+                try {
+                    byte[] signature = signer.generateSignature(task.root);
+                    synchronized (signedByKey) {
+                        signedByKey[keyId]++;
+                    }
+                    signed.increment();
+                    task.future.complete(new SignedRoot(keyId, task.root, signature));
+                } catch (Throwable e) {
+                    task.future.completeExceptionally(e);
+                    if (e instanceof Error error) {
+                        threadDied(error);
+                        throw error;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called by a signing thread that an Error is about to end; the last one fails what is queued
+    private void threadDied(Error error) {
+        List<Task> orphaned = new ArrayList<>();
+        synchronized (lock) {
+            if (--running > 0) {
+                return;
+            }
+            closed = true;
+            queue.drainTo(orphaned);
+        }
+        for (Task task : orphaned) {
+            if (task != STOP) {
+                task.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    private static final class Task {
+        final byte[] root;
+        final CompletableFuture<SignedRoot> future;
+
+        Task(byte[] root, CompletableFuture<SignedRoot> future) {
+            this.root = root;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dev.arpan.sphincs;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyGenerationParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusKeyPairGenerator;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusPrivateKeyParameters;
+import org.bouncycastle.pqc.crypto.sphincsplus.SPHINCSPlusSigner;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Roots signed per second by a {@link SignerPool} as its thread count grows, with one key shared by
+ * every thread and with a key per thread.
+ * <p>
+ * Thread counts run from 1 to twice the available cores, so the CSV shows both the linear region
+ * and the plateau once threads outnumber cores.  Every signature is verified against the public key
+ * of the key id the pool reported.
+ */
+public class SignerPoolBenchmark {
+
+    private static final SPHINCSPlusParameters PARAMS = SPHINCSPlusParameters.sha2_128f;
+    private static final int ROOTS_PER_THREAD = 8;
+
+    public static void main(String[] args) throws Exception {
+        Path outDir = Path.of("results");
+        Files.createDirectories(outDir);
+        runAll(outDir);
+    }
+
+    /**
+     * Run the pool at every thread count in both key modes and write a CSV into the output directory.
+     *
+     * @param outDir the directory where result files should be written
+     * @throws Exception if writing fails or a signature fails to verify
+     */
+    public static void runAll(Path outDir) throws Exception {
+        Path csv = outDir.resolve("merkle_signer_pool.csv");
+        Files.writeString(csv, "keys,threads,cores,roots,elapsed_ms,roots_per_sec,speedup\n");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int t = 1; t <= 2 * cores; t *= 2) {
+            threadCounts.add(t);
+        }
+        SPHINCSPlusKeyPairGenerator kpg = new SPHINCSPlusKeyPairGenerator();
+        kpg.init(new SPHINCSPlusKeyGenerationParameters(new SecureRandom(), PARAMS));
+        List<SPHINCSPlusPrivateKeyParameters> keys = new ArrayList<>();
+        for (int i = 0; i < threadCounts.get(threadCounts.size() - 1); i++) {
+            AsymmetricCipherKeyPair kp = kpg.generateKeyPair();
+            keys.add((SPHINCSPlusPrivateKeyParameters) kp.getPrivate());
+        }
+
+        // Warm the signer up so the single-thread baseline is not measured while still being compiled
+        SPHINCSPlusSigner warm = new SPHINCSPlusSigner();
+        warm.init(true, keys.get(0));
+        for (int i = 0; i < 10; i++) {
+            warm.generateSignature(new byte[]{(byte) i});
+        }
+
+        Random rnd = new Random(5);
+        for (String mode : new String[]{"shared", "per_thread"}) {
+            double base = 0;
+            for (int threads : threadCounts) {
+                List<SPHINCSPlusPrivateKeyParameters> poolKeys = mode.equals("shared") ? keys.subList(0, 1) : keys.subList(0, threads);
+                int roots = ROOTS_PER_THREAD * threads;
+                List<byte[]> toSign = new ArrayList<>(roots);
+                for (int i = 0; i < roots; i++) {
+                    byte[] root = new byte[MerkleHashFamily.forParameters(PARAMS).length()];
+                    rnd.nextBytes(root);
+                    toSign.add(root);
+                }
+                // The thread count is passed as the core count so that oversubscribed runs are measured too
+                try (SignerPool pool = new SignerPool(poolKeys, threads, threads)) {
+                    pool.sign(toSign.get(0)).join();
+                    CompletableFuture<?>[] futures = new CompletableFuture<?>[roots];
+                    long t0 = System.nanoTime();
+                    for (int i = 0; i < roots; i++) {
+                        futures[i] = pool.sign(toSign.get(i));
+                    }
+                    CompletableFuture.allOf(futures).join();
+                    long t1 = System.nanoTime();
+                    verify(pool, futures);
+
+                    double ms = (t1 - t0) / 1e6;
+                    double perSec = roots / ((t1 - t0) / 1e9);
+                    if (threads == 1) {
+                        base = perSec;
+                    }
+                    String row = String.format(Locale.ROOT, "%d,%d,%d,%d,%.1f,%.2f,%.2f%n",
+                            pool.keys(), threads, cores, roots, ms, perSec, perSec / base);
+                    Files.writeString(csv, row, java.nio.file.StandardOpenOption.APPEND);
+                    System.out.printf(Locale.ROOT, "keys=%-3d threads=%-3d %4d roots in %9.1f ms  %8.2f roots/s  speedup %.2fx%n",
+                            pool.keys(), threads, roots, ms, perSec, perSec / base);
+                }
+            }
+        }
+    }
+
+    private static void verify(SignerPool pool, CompletableFuture<?>[] futures) {
+        SPHINCSPlusSigner verifier = new SPHINCSPlusSigner();
+        for (CompletableFuture<?> f : futures) {
+            SignerPool.SignedRoot signed = (SignerPool.SignedRoot) f.join();
+            verifier.init(false, pool.publicKey(signed.keyId()));
+            if (!verifier.verifySignature(signed.root(), signed.signature())) {
+                throw new IllegalStateException("Signature by key " + signed.keyId() + " failed to verify");
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package dev.arpan.sphincs;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Request front end for a {@link BatchSigningService} that lets very many requests wait for their
+ * batch at once.
+ * <p>
+ * A request waits for its batch to fill and be signed, which can take tens of milliseconds up to the
+ * batch deadline.  A platform thread per waiting request does not scale to tens of thousands of
+ * requests, so on JDK 21 and later each request runs on a virtual thread, which parks cheaply while
+ * it blocks on its envelope.  The project compiles for JDK 17, so the virtual-thread executor is
+ * looked up by reflection.  Where it is missing no thread waits at all: the response is chained onto
+ * the envelope future and runs on a small fallback executor once the batch is signed.
+ * <p>
+ * Either way {@link #handle} returns at once.  {@link #close()} waits for every response already
+ * handed out before it stops the executor, since on the fallback path a response is only scheduled
+ * once its batch is signed.  Instances are thread-safe.
+ */
+public final class SigningFrontEnd implements AutoCloseable {
+
+    private final BatchSigningService service;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    // Responses not yet completed; guarded by lock together with closed
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+    private final Object lock = new Object();
+    private boolean closed;
+
+    /**
+     * Create a front end that uses virtual threads when the JDK has them, and otherwise responds on a
+     * fixed pool with one thread per core.
+     */
+    public SigningFrontEnd(BatchSigningService service) {
+        this.service = service;
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "front-end");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sign a message and turn its envelope into a response.
+     *
+     * @param message the message to sign
+     * @param respond builds the response from the envelope; runs on the request's virtual thread or
+     *                on the fallback executor
+     * @return a future completed with the response, or exceptionally if signing or {@code respond}
+     * fails or the service or front end is closed; nothing is thrown to the caller
+     */
+    public <R> CompletableFuture<R> handle(byte[] message, Function<BatchSigningService.Envelope, ? extends R> respond) {
+        CompletableFuture<R> response;
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Front end is closed"));
+            }
+            try {
+                if (virtualThreads) {
+                    // Blocking is the point: join() parks the virtual thread and frees its carrier
+                    response = CompletableFuture.supplyAsync(() -> respond.apply(service.submit(message).join()), executor);
+                } else {
+                    response = service.submit(message).thenApplyAsync(respond, executor);
+                }
+            } catch (RuntimeException e) {
+                // A closed service rejects here on the fallback path, inside the task on virtual threads
+                return CompletableFuture.failedFuture(e);
+            }
+            pending.add(response);
+        }
+        response.whenComplete((r, e) -> pending.remove(response));
+        return response;
+    }
+
+    /** @return whether requests run on virtual threads */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Reject new requests, wait up to a minute for every response already handed out, then stop the
+     * front end's executor.  The service is not closed and must stay open meanwhile, since it signs
+     * the batches those responses wait for; a response still waiting when the minute is up fails
+     * with a {@code RejectedExecutionException}.  If interrupted while waiting, returns with the
+     * thread's interrupt status set.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<?>[] waiting;
+        synchronized (lock) {
+            closed = true;
+            waiting = pending.toArray(new CompletableFuture<?>[0]);
+        }
+        try {
+            CompletableFuture.allOf(waiting).get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            // A failed response is its caller's to see; a slow one is cut off below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return {@code Executors.newVirtualThreadPerTaskExecutor()}, or {@code null} on a JDK without
+     * virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Missing before JDK 19, and present but throwing as a disabled preview on JDK 19 and 20
+            return null;
+        }
+    }
+}